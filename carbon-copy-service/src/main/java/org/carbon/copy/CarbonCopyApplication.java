@@ -55,7 +55,12 @@ public class CarbonCopyApplication extends Application<CarbonCopyConfiguration>
         logger.info("Starting carbon copy node with the following galaxy config files: {} {}", configuration.getDefaultPeerXml(), configuration.getDefaultPeerProperties());
         environment.healthChecks().register("galaxy", new GalaxyHealthCheck());
         Injector injector = Guice.createInjector(
-                new DataStructureModule(configuration.getDefaultPeerXml(), configuration.getDefaultPeerProperties()),
+                new DataStructureModule(
+                        configuration.getDefaultPeerXml(),
+                        configuration.getDefaultPeerProperties(),
+                        configuration.getRequestHandlerThreads(),
+                        configuration.getRequestHandlerQueueSize()
+                ),
                 new TxnManagerModule(),
                 new CalciteModule(),
                 new ResourcesModule()
@@ -22,6 +22,8 @@ import io.dropwizard.Configuration;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.constraints.Min;
+
 public class CarbonCopyConfiguration extends Configuration {
     @NotEmpty
     private String defaultPeerXml = "./config/peer.xml";
@@ -29,6 +31,12 @@ public class CarbonCopyConfiguration extends Configuration {
     @NotEmpty
     private String defaultPeerProperties = "./config/peer.properties";
 
+    @Min(1)
+    private int requestHandlerThreads = 8;
+
+    @Min(1)
+    private int requestHandlerQueueSize = 1024;
+
     @JsonProperty
     public String getDefaultPeerXml() {
         return defaultPeerXml;
@@ -48,4 +56,24 @@ public class CarbonCopyConfiguration extends Configuration {
     public void setDefaultPeerProperties(String defaultPeerProperties) {
         this.defaultPeerProperties = defaultPeerProperties;
     }
+
+    @JsonProperty
+    public int getRequestHandlerThreads() {
+        return requestHandlerThreads;
+    }
+
+    @JsonProperty
+    public void setRequestHandlerThreads(int requestHandlerThreads) {
+        this.requestHandlerThreads = requestHandlerThreads;
+    }
+
+    @JsonProperty
+    public int getRequestHandlerQueueSize() {
+        return requestHandlerQueueSize;
+    }
+
+    @JsonProperty
+    public void setRequestHandlerQueueSize(int requestHandlerQueueSize) {
+        this.requestHandlerQueueSize = requestHandlerQueueSize;
+    }
 }
\ No newline at end of file
@@ -11,17 +11,22 @@ import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.schema.TranslatableTable;
 import org.apache.commons.lang3.tuple.Pair;
 import org.carbon.copy.data.structures.Catalog;
+import org.carbon.copy.data.structures.Index;
 import org.carbon.copy.data.structures.Table;
 import org.carbon.copy.data.structures.Tuple;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Gotta be public! Reflective call will not be able to reach this class iff it's public.
@@ -134,6 +139,95 @@ public class CarbonCopyTable extends AbstractQueryableTable implements Translata
         }
     }
 
+    /**
+     * VOODOO!!!
+     * This method is being called via reflection from IndexScan.
+     * An empty array of bound values leaves that end of the range open.
+     * If the index covers the query, the covered column indexes say which table column
+     * every field coming out of the index belongs to.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public Enumerable<Object> indexScan(DataContext dataContext, String indexName, Object[] fromValues, Boolean fromInclusive, Object[] toValues, Boolean toInclusive, String booleanJavaSource, Integer[] columnIndexesToProjectTo, Integer[] coveredColumnIndexes) {
+        Index index = catalog.get(indexName, Index.class);
+        Tuple from = toBound(index, fromValues);
+        Tuple to = toBound(index, toValues);
+
+        Stream<Tuple> tuples;
+        if (coveredColumnIndexes != null && coveredColumnIndexes.length > 0) {
+            int numColumns = table.getColumnNames().size();
+            tuples = StreamSupport.stream(index.getCovered(from, fromInclusive, to, toInclusive).spliterator(), false)
+                    .map(covered -> toTableTuple(covered, coveredColumnIndexes, numColumns));
+        } else {
+            tuples = StreamSupport.stream(index.get(from, fromInclusive, to, toInclusive).spliterator(), false)
+                    .map(table::get)
+                    .filter(Objects::nonNull);
+        }
+
+        // the index only narrows rows down
+        // the filter still needs to run over all of them
+        if (booleanJavaSource != null && !booleanJavaSource.isEmpty()) {
+            CarbonCopyPredicate predicate = CompilerUtil.compileBooleanExpression(booleanJavaSource);
+            tuples = tuples.filter(predicate::test);
+        }
+        if (canDoProject(columnIndexesToProjectTo)) {
+            tuples = tuples.map(tuple -> tuple.subTuple(columnIndexesToProjectTo));
+        }
+        Stream<Object[]> resultStream = tuples.map(Tuple::toObjectArray);
+
+        AtomicBoolean cancelFlag = DataContext.Variable.CANCEL_FLAG.get(dataContext);
+        return new AbstractEnumerable<Object>() {
+            @Override
+            public Enumerator<Object> enumerator() {
+                return new CarbonCopyEnumerator<>(resultStream, cancelFlag);
+            }
+        };
+    }
+
+    // literals might come out of generated code as a different kind of number
+    // than the index column has
+    private static Tuple toBound(Index index, Object[] values) {
+        if (values == null || values.length == 0) return null;
+        List<Tuple> columnMetadata = index.getColumnMetadata();
+        Tuple bound = new Tuple(values.length);
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value instanceof Number) {
+                String typeName = (String) columnMetadata.get(i).get(2);
+                if (Integer.class.getName().equals(typeName)) {
+                    value = ((Number) value).intValue();
+                } else if (Long.class.getName().equals(typeName)) {
+                    value = ((Number) value).longValue();
+                } else if (Double.class.getName().equals(typeName)) {
+                    value = ((Number) value).doubleValue();
+                }
+            }
+            bound.put(i, (Comparable) value);
+        }
+        return bound;
+    }
+
+    // spreads the key fields and included values of a covering index over a tuple as wide as the table
+    // columns the index doesn't have stay null but the query doesn't look at them anyways
+    private static Tuple toTableTuple(Tuple covered, Integer[] coveredColumnIndexes, int numColumns) {
+        Tuple tuple = new Tuple(numColumns);
+        for (int i = 0; i < coveredColumnIndexes.length; i++) {
+            tuple.put(coveredColumnIndexes[i], covered.get(i));
+        }
+        return tuple;
+    }
+
+    /**
+     * Returns the cheapest lookup in any of the indexes of this table for the condition.
+     * Returns null if none of the indexes helps.
+     */
+    IndexLookup findIndexLookup(RexNode condition) {
+        try {
+            return IndexLookup.find(table, catalog.listIndexes(table), condition);
+        } catch (IOException xcp) {
+            throw new RuntimeException(xcp);
+        }
+    }
+
     @SuppressWarnings("UnusedDeclaration")
     public Enumerable<Object> fullTableScan(DataContext dataContext) {
         AtomicBoolean cancelFlag = DataContext.Variable.CANCEL_FLAG.get(dataContext);
@@ -0,0 +1,290 @@
+package org.carbon.copy.calcite;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.util.NlsString;
+import org.carbon.copy.data.structures.Index;
+import org.carbon.copy.data.structures.Table;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Figures out which index (if any) can narrow down a filter and what the bounds of the lookup are.
+ * Equality predicates on the leading columns of an index become a prefix and range predicates
+ * on the column after that become the lower and upper bound of the lookup.
+ * Nothing else of the filter is taken into account. That's why rows coming out of the index
+ * still need to go through the entire filter.
+ */
+class IndexLookup {
+    // these are the same guesses calcite makes when it doesn't know any better
+    private static final double EQUALS_SELECTIVITY = 0.15;
+    private static final double RANGE_SELECTIVITY  = 0.5;
+
+    private final String indexName;
+    // values of the leading columns of the index
+    // an empty array leaves this side of the range open
+    private final Object[] fromValues;
+    private final boolean fromInclusive;
+    private final Object[] toValues;
+    private final boolean toInclusive;
+    private final double selectivity;
+    // the table column of every key column and included column of the index in that order
+    private final List<Integer> coveredColumnIndexes;
+    private final boolean isCovering;
+
+    private IndexLookup(String indexName, Object[] fromValues, boolean fromInclusive, Object[] toValues, boolean toInclusive, double selectivity, List<Integer> coveredColumnIndexes, boolean isCovering) {
+        this.indexName = indexName;
+        this.fromValues = fromValues;
+        this.fromInclusive = fromInclusive;
+        this.toValues = toValues;
+        this.toInclusive = toInclusive;
+        this.selectivity = selectivity;
+        this.coveredColumnIndexes = coveredColumnIndexes;
+        this.isCovering = isCovering;
+    }
+
+    /**
+     * Returns the lookup on the index of the table that leaves the fewest rows or null if no index helps with the filter.
+     */
+    static IndexLookup find(Table table, List<Index> indexes, RexNode condition) {
+        List<RexNode> conjunctions = RelOptUtil.conjunctions(condition);
+        IndexLookup best = null;
+        for (Index index : indexes) {
+            IndexLookup lookup = find(table, index, conjunctions);
+            if (lookup != null && (best == null || lookup.selectivity < best.selectivity)) {
+                best = lookup;
+            }
+        }
+        return best;
+    }
+
+    private static IndexLookup find(Table table, Index index, List<RexNode> conjunctions) {
+        List<String> keyColumnNames = index.getColumnNames();
+        List<Integer> coveredColumnIndexes = new ArrayList<>();
+        for (String columnName : keyColumnNames) {
+            int idx = table.getColumnIndexForName(columnName.toUpperCase());
+            // the index doesn't belong to this table
+            if (idx < 0) return null;
+            coveredColumnIndexes.add(idx);
+        }
+        boolean isCovering = index.isCovering();
+        if (isCovering) {
+            for (String columnName : index.getIncludedColumnNames()) {
+                int idx = table.getColumnIndexForName(columnName.toUpperCase());
+                if (idx < 0) {
+                    isCovering = false;
+                    break;
+                }
+                coveredColumnIndexes.add(idx);
+            }
+        }
+
+        Map<Integer, Bounds> columnBounds = new HashMap<>();
+        for (RexNode conjunction : conjunctions) {
+            addBounds(conjunction, columnBounds);
+        }
+
+        List<Object> prefix = new ArrayList<>();
+        double selectivity = 1.0;
+        Bounds rangeBounds = null;
+        for (String columnName : keyColumnNames) {
+            int idx = table.getColumnIndexForName(columnName.toUpperCase());
+            Class type = typeOf(index, columnName);
+            Bounds bounds = columnBounds.get(idx);
+            Object equalValue = (bounds != null) ? bounds.getEqualValue(type) : null;
+            if (equalValue != null) {
+                prefix.add(equalValue);
+                selectivity *= EQUALS_SELECTIVITY;
+            } else {
+                if (bounds != null) rangeBounds = bounds.forType(type);
+                break;
+            }
+        }
+
+        if (prefix.size() == keyColumnNames.size() && index.isUnique()) {
+            // there's at most one row
+            selectivity = 0.0;
+        }
+
+        List<Object> from = new ArrayList<>(prefix);
+        List<Object> to = new ArrayList<>(prefix);
+        boolean fromInclusive = true;
+        boolean toInclusive = true;
+        if (rangeBounds != null && rangeBounds.lower != null) {
+            from.add(rangeBounds.lower);
+            fromInclusive = rangeBounds.lowerInclusive;
+            selectivity *= RANGE_SELECTIVITY;
+            if (rangeBounds.upper == null) {
+                // nulls sort last and SQL doesn't consider them greater than anything
+                to.add(null);
+                toInclusive = false;
+            }
+        }
+        if (rangeBounds != null && rangeBounds.upper != null) {
+            to.add(rangeBounds.upper);
+            toInclusive = rangeBounds.upperInclusive;
+            selectivity *= RANGE_SELECTIVITY;
+        }
+
+        if (from.isEmpty() && to.isEmpty()) {
+            // this index doesn't help at all
+            return null;
+        }
+        return new IndexLookup(index.getName(), from.toArray(), fromInclusive, to.toArray(), toInclusive, selectivity, coveredColumnIndexes, isCovering);
+    }
+
+    // only comparisons of a column to a literal make it into bounds
+    private static void addBounds(RexNode node, Map<Integer, Bounds> columnBounds) {
+        if (!(node instanceof RexCall)) return;
+        RexCall call = (RexCall) node;
+        if (call.getOperands().size() != 2) return;
+        RexNode left = call.getOperands().get(0);
+        RexNode right = call.getOperands().get(1);
+        SqlKind kind = call.getKind();
+        if (left instanceof RexLiteral && right instanceof RexInputRef) {
+            // 5 < x is the same as x > 5
+            RexNode tmp = left;
+            left = right;
+            right = tmp;
+            kind = reverse(kind);
+        }
+        if (!(left instanceof RexInputRef) || !(right instanceof RexLiteral)) return;
+
+        Comparable value = ((RexLiteral) right).getValue();
+        if (value == null) return;
+        Bounds bounds = columnBounds.computeIfAbsent(((RexInputRef) left).getIndex(), idx -> new Bounds());
+        // the first predicate for a column wins
+        // the filter takes care of the others
+        switch (kind) {
+            case EQUALS:
+                if (bounds.equal == null) bounds.equal = value;
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+                if (bounds.lower == null) {
+                    bounds.lower = value;
+                    bounds.lowerInclusive = kind == SqlKind.GREATER_THAN_OR_EQUAL;
+                }
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+                if (bounds.upper == null) {
+                    bounds.upper = value;
+                    bounds.upperInclusive = kind == SqlKind.LESS_THAN_OR_EQUAL;
+                }
+                break;
+        }
+    }
+
+    private static SqlKind reverse(SqlKind kind) {
+        switch (kind) {
+            case GREATER_THAN:
+                return SqlKind.LESS_THAN;
+            case GREATER_THAN_OR_EQUAL:
+                return SqlKind.LESS_THAN_OR_EQUAL;
+            case LESS_THAN:
+                return SqlKind.GREATER_THAN;
+            case LESS_THAN_OR_EQUAL:
+                return SqlKind.GREATER_THAN_OR_EQUAL;
+            default:
+                return kind;
+        }
+    }
+
+    private static Class typeOf(Index index, String columnName) {
+        try {
+            return Class.forName((String) index.getColumnMetadataByColumnName(columnName).get(2));
+        } catch (ClassNotFoundException xcp) {
+            throw new IllegalArgumentException(xcp);
+        }
+    }
+
+    /**
+     * Converts a calcite literal into the type of an index column.
+     * Returns null if the literal doesn't fit into the column.
+     */
+    static Object toValue(Comparable literal, Class type) {
+        try {
+            if (literal instanceof BigDecimal) {
+                BigDecimal d = (BigDecimal) literal;
+                if (Integer.class.equals(type)) return d.intValueExact();
+                if (Long.class.equals(type)) return d.longValueExact();
+                if (Double.class.equals(type)) return d.doubleValue();
+            } else if (literal instanceof NlsString) {
+                if (String.class.equals(type)) return ((NlsString) literal).getValue();
+            } else if (literal instanceof Boolean) {
+                if (Boolean.class.equals(type)) return literal;
+            }
+        } catch (ArithmeticException xcp) {
+            // the literal doesn't fit into the type of the column
+        }
+        return null;
+    }
+
+    String getIndexName() {
+        return indexName;
+    }
+
+    Object[] getFromValues() {
+        return fromValues;
+    }
+
+    boolean isFromInclusive() {
+        return fromInclusive;
+    }
+
+    Object[] getToValues() {
+        return toValues;
+    }
+
+    boolean isToInclusive() {
+        return toInclusive;
+    }
+
+    double getSelectivity() {
+        return selectivity;
+    }
+
+    /**
+     * Whether the index has all of these table columns.
+     * In that case rows can be put together from the index alone.
+     */
+    boolean covers(List<Integer> columnIndexes) {
+        return isCovering && coveredColumnIndexes.containsAll(columnIndexes);
+    }
+
+    List<Integer> getCoveredColumnIndexes() {
+        return coveredColumnIndexes;
+    }
+
+    private static class Bounds {
+        private Comparable equal;
+        private Comparable lower;
+        private boolean lowerInclusive;
+        private Comparable upper;
+        private boolean upperInclusive;
+
+        private Object getEqualValue(Class type) {
+            return (equal != null) ? toValue(equal, type) : null;
+        }
+
+        // bounds with literals converted to the type of the column
+        // bounds that don't fit are dropped
+        private Bounds forType(Class type) {
+            Bounds b = new Bounds();
+            b.lower = (lower != null) ? (Comparable) toValue(lower, type) : null;
+            b.lowerInclusive = lowerInclusive;
+            b.upper = (upper != null) ? (Comparable) toValue(upper, type) : null;
+            b.upperInclusive = upperInclusive;
+            return b;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.carbon.copy.calcite;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.tree.Blocks;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rel.type.RelDataTypeField;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads rows by looking them up in an index as opposed to going through the entire table.
+ * The index narrows the rows down to the ones within the bounds of the lookup.
+ * Those rows still go through the filter since the index only takes care of parts of it.
+ * If the index covers all columns the query needs, rows are put together from the index alone
+ * and the table isn't touched at all.
+ */
+class IndexScan extends org.apache.calcite.rel.core.TableScan implements EnumerableRel {
+    private final IndexLookup lookup;
+    private final String javaFilterExpression;
+    private final List<Integer> columnIndexesForThePredicate;
+    private final List<Integer> columnIndexesToProjectTo;
+    private final boolean isIndexOnly;
+
+    IndexScan(RelOptCluster cluster, RelOptTable table, IndexLookup lookup, String javaFilterExpression, List<Integer> columnIndexesForThePredicate, boolean isIndexOnly) {
+        this(cluster, table, lookup, javaFilterExpression, columnIndexesForThePredicate, Collections.emptyList(), isIndexOnly);
+    }
+
+    IndexScan(RelOptCluster cluster, RelOptTable table, IndexLookup lookup, String javaFilterExpression, List<Integer> columnIndexesForThePredicate, List<Integer> columnIndexesToProjectTo, boolean isIndexOnly) {
+        super(cluster, cluster.traitSetOf(EnumerableConvention.INSTANCE), table);
+        this.lookup = lookup;
+        this.javaFilterExpression = javaFilterExpression;
+        this.columnIndexesForThePredicate = columnIndexesForThePredicate;
+        this.columnIndexesToProjectTo = columnIndexesToProjectTo;
+        this.isIndexOnly = isIndexOnly;
+    }
+
+    @Override
+    public RelDataType deriveRowType() {
+        final List<RelDataTypeField> fieldList = table.getRowType().getFieldList();
+        final RelDataTypeFactory.FieldInfoBuilder builder = getCluster().getTypeFactory().builder();
+        if (canDoProject()) {
+            for (int field : columnIndexesToProjectTo) {
+                builder.add(fieldList.get(field));
+            }
+        } else {
+            for (RelDataTypeField field : fieldList) {
+                builder.add(field);
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw)
+                .item("index", lookup.getIndexName())
+                .item("from", Arrays.toString(lookup.getFromValues()))
+                .item("fromInclusive", lookup.isFromInclusive())
+                .item("to", Arrays.toString(lookup.getToValues()))
+                .item("toInclusive", lookup.isToInclusive())
+                .item("indexOnly", isIndexOnly)
+                .item("javaFilterExpression", javaFilterExpression)
+                .item("columnIndexesForThePredicate", columnIndexesForThePredicate)
+                .item("columnIndexesToProjectTo", columnIndexesToProjectTo);
+    }
+
+    /**
+     * The index hands out a fraction of the rows of the table.
+     */
+    @Override
+    public double estimateRowCount(RelMetadataQuery mq) {
+        return Math.max(1.0, table.getRowCount() * lookup.getSelectivity());
+    }
+
+    /**
+     * The cost is driven by the number of rows the lookup finds (as opposed to all rows of the table for a scan)
+     * plus descending the index. Every row needs a trip to the table unless the index covers the query.
+     */
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        double rows = estimateRowCount(mq);
+        double cpu = rows + Math.log(table.getRowCount() + 1.0) / Math.log(2.0);
+        double io = isIndexOnly ? 0.0 : rows;
+        return planner.getCostFactory().makeCost(rows, cpu, io);
+    }
+
+    // this refers to a method in CarbonCopyTable that does the heavy lifting for us
+    private static final Method INDEX_SCAN_CALLBACK =
+            Types.lookupMethod(
+                    CarbonCopyTable.class,
+                    "indexScan",
+                    DataContext.class,
+                    String.class,
+                    Object[].class,
+                    Boolean.class,
+                    Object[].class,
+                    Boolean.class,
+                    String.class,
+                    Integer[].class,
+                    Integer[].class
+            );
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer prefer) {
+        PhysType physType =
+                PhysTypeImpl.of(
+                        implementor.getTypeFactory(),
+                        getRowType(),
+                        prefer.preferArray());
+
+        // an empty list of covered columns means rows come from the table
+        List<Integer> coveredColumnIndexes = isIndexOnly ? lookup.getCoveredColumnIndexes() : Collections.emptyList();
+        return implementor.result(
+                physType,
+                Blocks.toBlock(
+                        Expressions.call(table.getExpression(CarbonCopyTable.class),
+                                INDEX_SCAN_CALLBACK,
+                                implementor.getRootExpression(),
+                                Expressions.constant(lookup.getIndexName()),
+                                Expressions.constant(lookup.getFromValues()),
+                                Expressions.constant(lookup.isFromInclusive()),
+                                Expressions.constant(lookup.getToValues()),
+                                Expressions.constant(lookup.isToInclusive()),
+                                Expressions.constant(javaFilterExpression),
+                                Expressions.constant(columnIndexesToProjectTo.toArray(new Integer[columnIndexesToProjectTo.size()])),
+                                Expressions.constant(coveredColumnIndexes.toArray(new Integer[coveredColumnIndexes.size()]))
+                        )));
+    }
+
+    private boolean canDoProject() {
+        return columnIndexesToProjectTo != null && !columnIndexesToProjectTo.isEmpty();
+    }
+}
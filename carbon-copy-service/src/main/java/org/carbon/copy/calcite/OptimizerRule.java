@@ -15,9 +15,12 @@ import org.apache.calcite.rex.RexVisitorImpl;
 import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.commons.lang3.StringUtils;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 abstract class OptimizerRule extends RelOptRule {
 
@@ -30,6 +33,12 @@ abstract class OptimizerRule extends RelOptRule {
     static final OptimizerRule PROJECT_SCAN
             = new ProjectScanOptimizerRule();
 
+    static final OptimizerRule FILTER_INDEX_SCAN
+            = new FilterIndexScanOptimizerRule();
+
+    static final OptimizerRule PROJECT_FILTER_INDEX_SCAN
+            = new ProjectFilterIndexScanOptimizerRule();
+
     private OptimizerRule(RelOptRuleOperand rule, String description) {
         super(rule, "CarbonCopyOptimizerRule:" + description);
     }
@@ -124,6 +133,94 @@ abstract class OptimizerRule extends RelOptRule {
         }
     }
 
+    /**
+     * Turns a filter on top of a table into a lookup in one of the indexes of the table.
+     * This rule competes with the filter-scan rule and the optimizer picks whichever is cheaper.
+     */
+    private static class FilterIndexScanOptimizerRule extends OptimizerRule {
+        private FilterIndexScanOptimizerRule() {
+            super(operand(
+                    LogicalFilter.class,
+                    operand(TableScan.class, none())),
+                    "filter-index-scan");
+        }
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+            LogicalFilter filter = call.rel(0);
+            TableScan scan = call.rel(1);
+            if (!scan.isFullTableScan()) return;
+
+            IndexLookup lookup = scan.getCarbonCopyTable().findIndexLookup(filter.getCondition());
+            if (lookup == null) return;
+
+            RexToJavaPredicateTranslator translator = new RexToJavaPredicateTranslator();
+            String javaSource = filter.getCondition().accept(translator);
+            List<Integer> allColumnIndexes = IntStream.range(0, scan.getRowType().getFieldCount())
+                    .boxed()
+                    .collect(Collectors.toList());
+
+            call.transformTo(
+                    new IndexScan(
+                            scan.getCluster(),
+                            scan.getTable(),
+                            lookup,
+                            javaSource,
+                            translator.getColumnIndexesForPredicate(),
+                            lookup.covers(allColumnIndexes)
+                    )
+            );
+        }
+    }
+
+    /**
+     * Same as above with a projection on top of the filter.
+     * If the index has all columns of the projection and the filter, the table isn't touched at all.
+     */
+    private static class ProjectFilterIndexScanOptimizerRule extends OptimizerRule {
+        private ProjectFilterIndexScanOptimizerRule() {
+            super(operand(
+                    LogicalProject.class,
+                    operand(LogicalFilter.class,
+                            operand(TableScan.class, none()))
+            ), "project-filter-index-scan");
+        }
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+            LogicalProject project = call.rel(0);
+            LogicalFilter filter = call.rel(1);
+            TableScan scan = call.rel(2);
+            if (!scan.isFullTableScan()) return;
+            // the table scan rule can't deal with anything but plain columns either
+            if (!project.getChildExps().stream().allMatch(rexNode -> rexNode instanceof RexInputRef)) return;
+
+            IndexLookup lookup = scan.getCarbonCopyTable().findIndexLookup(filter.getCondition());
+            if (lookup == null) return;
+
+            List<Integer> columnIndexesToProjectTo = project.getChildExps().stream()
+                    .map(rexNode -> (RexInputRef)rexNode)
+                    .map(RexSlot::getIndex)
+                    .collect(Collectors.toList());
+            RexToJavaPredicateTranslator translator = new RexToJavaPredicateTranslator();
+            String javaSource = filter.getCondition().accept(translator);
+            List<Integer> neededColumnIndexes = new ArrayList<>(columnIndexesToProjectTo);
+            neededColumnIndexes.addAll(translator.getColumnIndexesForPredicate());
+
+            call.transformTo(
+                    new IndexScan(
+                            scan.getCluster(),
+                            scan.getTable(),
+                            lookup,
+                            javaSource,
+                            translator.getColumnIndexesForPredicate(),
+                            columnIndexesToProjectTo,
+                            lookup.covers(neededColumnIndexes)
+                    )
+            );
+        }
+    }
+
     /**
      * comment about this visitor converting the expression tree into java code
      */
@@ -166,6 +263,11 @@ abstract class OptimizerRule extends RelOptRule {
 
             // this code is only supposed to run in case we are dealing with an arithmetic operation
             // boolean operations "and" and "or" are never supposed to reach this code
+            String primitiveComparison = toPrimitiveComparison(call.getOperands().get(0), call.getOperands().get(1), op);
+            if (primitiveComparison != null) {
+                return primitiveComparison;
+            }
+
             Comparable<String> left = call.getOperands().get(0).accept(this);
             Comparable<String> right = call.getOperands().get(1).accept(this);
             // I want this to be java code ... something like this
@@ -173,6 +275,78 @@ abstract class OptimizerRule extends RelOptRule {
             return String.format("java.util.Objects.compare(%s, %s, org.carbon.copy.calcite.CarbonCopyComparator.COMPARATOR) %s 0", left, right, op);
         }
 
+        /**
+         * Comparing a column of a primitive type to a literal doesn't need to box anything.
+         * This generates java code along the lines of this:
+         * (!tuple.isNull(1) && tuple.getInt(1) > 5)
+         * SQL doesn't consider nulls to be greater, less or equal to anything.
+         * Returns null if the comparison can't be done on primitives.
+         */
+        private String toPrimitiveComparison(RexNode left, RexNode right, String op) {
+            if (left instanceof RexInputRef && right instanceof RexLiteral) {
+                String literal = toPrimitiveLiteral((RexInputRef) left, (RexLiteral) right, op);
+                return (literal != null) ? toPrimitiveComparison((RexInputRef) left, "%s " + op + " " + literal) : null;
+            } else if (left instanceof RexLiteral && right instanceof RexInputRef) {
+                String literal = toPrimitiveLiteral((RexInputRef) right, (RexLiteral) left, op);
+                return (literal != null) ? toPrimitiveComparison((RexInputRef) right, literal + " " + op + " %s") : null;
+            } else {
+                return null;
+            }
+        }
+
+        private String toPrimitiveComparison(RexInputRef inputRef, String comparisonTemplate) {
+            int idx = inputRef.getIndex();
+            columnIndexesForPredicate.add(idx);
+            String accessor;
+            switch (inputRef.getType().getSqlTypeName()) {
+                case INTEGER:
+                    accessor = "tuple.getInt(" + idx + ")";
+                    break;
+                case BIGINT:
+                    accessor = "tuple.getLong(" + idx + ")";
+                    break;
+                case DOUBLE:
+                    accessor = "tuple.getDouble(" + idx + ")";
+                    break;
+                default:
+                    // toPrimitiveLiteral only lets booleans through at this point
+                    accessor = "tuple.getBoolean(" + idx + ")";
+                    break;
+            }
+            return "(!tuple.isNull(" + idx + ") && " + String.format(comparisonTemplate, accessor) + ")";
+        }
+
+        private String toPrimitiveLiteral(RexInputRef inputRef, RexLiteral literal, String op) {
+            Comparable value = literal.getValue();
+            if (value == null) {
+                return null;
+            }
+
+            try {
+                switch (inputRef.getType().getSqlTypeName()) {
+                    case INTEGER:
+                        return (value instanceof BigDecimal) ? String.valueOf(((BigDecimal) value).intValueExact()) : null;
+                    case BIGINT:
+                        return (value instanceof BigDecimal) ? ((BigDecimal) value).longValueExact() + "L" : null;
+                    case DOUBLE:
+                        if (value instanceof BigDecimal) {
+                            double d = ((BigDecimal) value).doubleValue();
+                            return (!Double.isInfinite(d)) ? d + "d" : null;
+                        }
+                        return null;
+                    case BOOLEAN:
+                        // booleans can't be greater or less than anything in java
+                        return (value instanceof Boolean && ("==".equals(op) || "!=".equals(op))) ? value.toString() : null;
+                    default:
+                        return null;
+                }
+            } catch (ArithmeticException xcp) {
+                // the literal doesn't fit into the type of the column
+                // the boxed comparison will have to figure it out
+                return null;
+            }
+        }
+
         private String concatBooleansOperations(String operation, List<RexNode> operands) {
             List<String> strs = new LinkedList<>();
             for (RexNode rn : operands) {
@@ -74,6 +74,8 @@ class TableScan extends org.apache.calcite.rel.core.TableScan implements Enumera
         planner.addRule(OptimizerRule.FILTER_SCAN);
         planner.addRule(OptimizerRule.PROJECT_SCAN);
         planner.addRule(OptimizerRule.PROJECT_FILTER_SCAN);
+        planner.addRule(OptimizerRule.FILTER_INDEX_SCAN);
+        planner.addRule(OptimizerRule.PROJECT_FILTER_INDEX_SCAN);
     }
 
     /**
@@ -199,6 +201,14 @@ class TableScan extends org.apache.calcite.rel.core.TableScan implements Enumera
         }
     }
 
+    /**
+     * Whether this scan returns all columns of the table unfiltered.
+     * Only then column indexes in expressions on top of this scan point to table columns.
+     */
+    boolean isFullTableScan() {
+        return !canDoScan() && !canDoProject();
+    }
+
     private boolean canDoScan() {
         return javaFilterExpression != null && !javaFilterExpression.isEmpty()
                 && columnIndexesForThePredicate != null && !columnIndexesForThePredicate.isEmpty();
@@ -21,7 +21,13 @@ package org.carbon.copy.data.structures;
 import co.paralleluniverse.galaxy.Store;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  *  Modelled after the BTree by Robert Sedgewick and Kevin Wayne.
@@ -29,10 +35,14 @@ import java.util.Iterator;
  *  http://algs4.cs.princeton.edu
  */
 class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
-    // max children per B-tree node = MAX_NODE_SIZE - 1
-    // (must be even and greater than 2)
-    // this is gotta be >= 4
-    static final int MAX_NODE_SIZE = 4;
+    // nodes take as many entries as fit into a cache line
+    // a node has room for at least this many of the biggest entries we accept
+    // that way splitting a node always leaves us with two nodes that fit
+    private static final int MIN_ENTRIES_PER_NODE = 4;
+    // bulk loaded nodes leave a little room for inserts that come later
+    static final double DEFAULT_FILL_FACTOR = 0.9;
+    // number of leaves a range scan keeps loading in the background
+    static final int DEFAULT_READ_AHEAD = 8;
 
     private final InternalDataStructureFactory dsFactory;
     private BTreeNode<Key, Value> root;
@@ -43,9 +53,11 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
     BTree(Store store, InternalDataStructureFactory dsFactory, Txn txn) {
         super(store);
         this.dsFactory = dsFactory;
+        // the pointer to the root and the height
+        addToObjectSize(MAX_ID_SIZE);
+        addObjectToObjectSize(height);
         asyncUpsert(txn);
         root = newNode(0, txn);
-        addObjectToObjectSize(height);
         root.checkDataStructureRetrieved();
         txn.addToCreatedObjects(this);
     }
@@ -74,100 +86,381 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
     }
 
     public Iterable<Value> get(Key fromKey, Key toKey) {
-        Pair<BTreeNode<Key, Value>, Integer> pair = searchFirstLessThan(root, fromKey, height);
-        if (pair != null) {
-            return () -> new Iterator<Value>() {
-                private BTreeNode<Key, Value> node = pair.getLeft();
-                private int idx = pair.getRight();
-
-                @Override
-                public boolean hasNext() {
-                    final boolean lessOrEqual;
-                    // true if there is a next and the next is less than toKey
-                    if (idx < node.getNumChildren()) {
-                        // iterate inside a tree node
-                        lessOrEqual = lessOrEqual(node.getEntryAt(idx).getKey(), toKey);
-                    } else {
-                        // iterate to the next tree node
-                        BTreeNode<Key, Value> next = node.getNext();
-                        if (next != null) {
-                            next.asyncLoadForReads();
-                            // if there is a next, next has children, and the first childrens key
-                            // is lessOrEqual then my toKey
-                            lessOrEqual = next.getNumChildren() > 0 && lessOrEqual(next.getEntryAt(0).getKey(), toKey);
-                        } else {
-                            lessOrEqual = false;
-                        }
-                    }
+        return get(fromKey, toKey, DEFAULT_READ_AHEAD);
+    }
 
-                    return lessOrEqual;
-                }
+    /**
+     * Iterates over the values of all keys between fromKey and toKey (both inclusive)
+     * while loading up to readAhead leaves in the background.
+     */
+    public Iterable<Value> get(Key fromKey, Key toKey, int readAhead) {
+        if (fromKey == null || toKey == null) throw new IllegalArgumentException("Key cannot be null");
+        return scan(fromKey, true, toKey, true, true, readAhead);
+    }
 
-                @Override
-                public Value next() {
-                    if (idx >= node.getNumChildren()) {
-                        node = node.getNext();
-                        node.asyncLoadForReads();
-                        idx = 0;
-                    }
+    /**
+     * Iterates over the values of all keys between fromKey and toKey.
+     * Each bound is either inclusive or exclusive and a null bound leaves its end of the range open.
+     */
+    public Iterable<Value> get(Key fromKey, boolean fromInclusive, Key toKey, boolean toInclusive) {
+        return scan(fromKey, fromInclusive, toKey, toInclusive, true, DEFAULT_READ_AHEAD);
+    }
 
-                    node.checkDataStructureRetrieved();
-                    Value v = node.getEntryAt(idx).getValue();
-                    idx++;
-                    return v;
-                }
-            };
-        } else {
-            return () -> new Iterator<Value>() {
-                @Override
-                public boolean hasNext() {
-                    return false;
-                }
+    public Iterable<Value> getDescending(Key fromKey, Key toKey) {
+        return getDescending(fromKey, toKey, DEFAULT_READ_AHEAD);
+    }
 
-                @Override
-                public Value next() {
-                    return null;
-                }
-            };
-        }
+    /**
+     * Iterates over the values of all keys between fromKey and toKey (both inclusive)
+     * in descending order of their keys while loading up to readAhead leaves in the background.
+     */
+    public Iterable<Value> getDescending(Key fromKey, Key toKey, int readAhead) {
+        if (fromKey == null || toKey == null) throw new IllegalArgumentException("Key cannot be null");
+        return scan(fromKey, true, toKey, true, false, readAhead);
+    }
+
+    /**
+     * Same as get with inclusive or exclusive bounds only in descending order of the keys.
+     */
+    public Iterable<Value> getDescending(Key fromKey, boolean fromInclusive, Key toKey, boolean toInclusive) {
+        return scan(fromKey, fromInclusive, toKey, toInclusive, false, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * Iterates over the values of all keys in a range in either direction.
+     * Bounds don't need to be keys, they only need to know how they compare to keys.
+     * That's what allows an index to look up tuples by their leading fields.
+     * A null bound leaves its end of the range open.
+     */
+    Iterable<Value> scan(Comparable<Key> from, boolean fromInclusive, Comparable<Key> to, boolean toInclusive, boolean ascending, int readAhead) {
+        checkDataStructureRetrieved();
+        return range(from, fromInclusive, to, toInclusive, ascending, readAhead, BTreeEntry::getValue);
+    }
+
+    /**
+     * Same as scan above except that it hands keys and values to the extractor
+     * and iterates over whatever the extractor makes of them.
+     */
+    <T> Iterable<T> scan(Comparable<Key> from, boolean fromInclusive, Comparable<Key> to, boolean toInclusive, boolean ascending, int readAhead, BiFunction<Key, Value, T> extractor) {
+        checkDataStructureRetrieved();
+        return range(from, fromInclusive, to, toInclusive, ascending, readAhead, entry -> extractor.apply(entry.getKey(), entry.getValue()));
     }
 
     public void put(Key key, Value value, Txn txn) {
         if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        checkEntrySize(key, value);
         checkDataStructureRetrieved();
         txn.addToChangedObjects(this);
         innerPut(key, value, txn);
     }
 
+    void bulkLoad(Iterable<Pair<Key, Value>> entries, Txn txn) {
+        bulkLoad(entries, DEFAULT_FILL_FACTOR, txn);
+    }
+
+    /**
+     * Builds an empty tree bottom-up.
+     * The entries are sorted (if they aren't already) and packed into leaves until they
+     * reach the fill factor. The leaves are linked and every level of internal nodes
+     * is built in a single pass over the level below it.
+     * That way every node is written exactly once as opposed to descending from the root for every entry.
+     * If a key shows up multiple times, the last one wins (just like with put).
+     */
+    void bulkLoad(Iterable<Pair<Key, Value>> entries, double fillFactor, Txn txn) {
+        if (fillFactor <= 0.0 || fillFactor > 1.0) throw new IllegalArgumentException("Fill factor needs to be between 0 and 1");
+        checkDataStructureRetrieved();
+        root.checkDataStructureRetrieved();
+        if (height > 0 || root.getNumChildren() > 0) throw new IllegalStateException("Only empty trees can be bulk loaded");
+
+        List<Pair<Key, Value>> sortedEntries = new ArrayList<>();
+        boolean isSorted = true;
+        for (Pair<Key, Value> entry : entries) {
+            if (entry.getKey() == null) throw new IllegalArgumentException("Key cannot be null");
+            checkEntrySize(entry.getKey(), entry.getValue());
+            if (!sortedEntries.isEmpty() && lessOrEqual(entry.getKey(), sortedEntries.get(sortedEntries.size() - 1).getKey())) {
+                isSorted = false;
+            }
+            sortedEntries.add(entry);
+        }
+        if (!isSorted) {
+            // this sort is stable which keeps duplicates in the order they came in
+            sortedEntries.sort((e1, e2) -> e1.getKey().compareTo(e2.getKey()));
+        }
+
+        int maxFillSize = (int) (getMaxNodeByteSize() * fillFactor);
+        txn.addToChangedObjects(this);
+
+        // the empty root becomes the first leaf
+        List<BTreeNode<Key, Value>> level = new ArrayList<>();
+        BTreeNode<Key, Value> leaf = root;
+        level.add(leaf);
+        for (int i = 0; i < sortedEntries.size(); i++) {
+            Pair<Key, Value> entry = sortedEntries.get(i);
+            if (i + 1 < sortedEntries.size() && equal(entry.getKey(), sortedEntries.get(i + 1).getKey())) {
+                // a later entry overrides this one
+                continue;
+            }
+
+            BTreeEntry<Key, Value> leafEntry = newEntry(entry.getKey(), entry.getValue());
+            if (leaf.getNumChildren() > 0 && leaf.size() + BTreeNode.sizeOfEntry(leafEntry) > maxFillSize) {
+                BTreeNode<Key, Value> newLeaf = newNode(0, txn);
+                leaf.setNext(newLeaf);
+                leaf = newLeaf;
+                level.add(leaf);
+            }
+            leaf.insertEntryAt(leaf.getNumChildren(), leafEntry, txn);
+        }
+
+        int newHeight = 0;
+        while (level.size() > 1) {
+            List<BTreeNode<Key, Value>> nextLevel = new ArrayList<>();
+            BTreeNode<Key, Value> node = newNode(0, txn);
+            nextLevel.add(node);
+            for (BTreeNode<Key, Value> child : level) {
+                BTreeEntry<Key, Value> entry = newEntry(child.getEntryAt(0).getKey(), child);
+                if (node.getNumChildren() > 0 && node.size() + BTreeNode.sizeOfEntry(entry) > maxFillSize) {
+                    node = newNode(0, txn);
+                    nextLevel.add(node);
+                }
+                node.insertEntryAt(node.getNumChildren(), entry, txn);
+            }
+            // deletes can't rebalance the only child of a node
+            // the last node borrows a child from the one before it
+            if (nextLevel.size() > 1 && node.getNumChildren() == 1) {
+                BTreeNode<Key, Value> prev = nextLevel.get(nextLevel.size() - 2);
+                if (prev.getNumChildren() > 2) {
+                    node.insertEntryAt(0, prev.removeEntryAt(prev.getNumChildren() - 1, txn), txn);
+                }
+            }
+            level = nextLevel;
+            newHeight++;
+        }
+
+        root = level.get(0);
+        subtractObjectToObjectSize(height);
+        height = newHeight;
+        addObjectToObjectSize(height);
+    }
+
     public Iterable<Key> keys() {
-        BTreeNode<Key, Value> first = depthFirstSearch(root, height);
+        return keys(DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * Iterates over all keys while loading up to readAhead leaves in the background.
+     */
+    public Iterable<Key> keys(int readAhead) {
+        checkDataStructureRetrieved();
+        return range(null, true, null, true, true, readAhead, BTreeEntry::getKey);
+    }
 
-        return () -> new Iterator<Key>() {
-            BTreeNode<Key, Value> node = first;
-            int idx = 0;
+    public Iterable<Key> descendingKeys() {
+        checkDataStructureRetrieved();
+        return range(null, true, null, true, false, DEFAULT_READ_AHEAD, BTreeEntry::getKey);
+    }
+
+    private <T> Iterable<T> range(Comparable<Key> from, boolean fromInclusive, Comparable<Key> to, boolean toInclusive, boolean ascending, int readAhead, Function<BTreeEntry<Key, Value>, T> extractor) {
+        // keys are sorted which means there is a run of keys sitting before the range
+        // followed by the keys in the range followed by a run of keys sitting after the range
+        Predicate<Key> isBefore = isBefore(from, fromInclusive);
+        Predicate<Key> isAfter = isAfter(to, toInclusive);
+        int boundedReadAhead = Math.max(1, readAhead);
+        if (ascending) {
+            return () -> new EntryIterator<>(new LeafCursor(isBefore, true, boundedReadAhead), isAfter.negate(), extractor);
+        } else {
+            return () -> new EntryIterator<>(new LeafCursor(isAfter.negate(), false, boundedReadAhead), isBefore.negate(), extractor);
+        }
+    }
 
-            @Override
-            public boolean hasNext() {
-                return idx < node.getNumChildren() || node.getNext() != null;
+    private Predicate<Key> isBefore(Comparable<Key> from, boolean inclusive) {
+        if (from == null) {
+            return key -> false;
+        } else if (inclusive) {
+            return key -> from.compareTo(key) > 0;
+        } else {
+            return key -> from.compareTo(key) >= 0;
+        }
+    }
+
+    private Predicate<Key> isAfter(Comparable<Key> to, boolean inclusive) {
+        if (to == null) {
+            return key -> false;
+        } else if (inclusive) {
+            return key -> to.compareTo(key) < 0;
+        } else {
+            return key -> to.compareTo(key) <= 0;
+        }
+    }
+
+    /**
+     * Walks the entries in the leaves of the tree in either direction.
+     * Leaves only know the leaf after them which means we'd have to wait for a leaf to arrive
+     * before we can ask for the one after it. That's why the cursor keeps the path
+     * from the root to the current leaf around. The parent of the current leaf knows
+     * which leaves come next and the cursor keeps up to readAhead of them in flight
+     * while the current leaf is consumed.
+     */
+    private class LeafCursor {
+        private final int step;
+        private final int readAhead;
+        // the nodes from the root (at index 0) to the current leaf (at index height)
+        private final List<BTreeNode<Key, Value>> path;
+        // the index of the child we descended into for each internal node on the path
+        private final int[] childIdxs;
+        private int entryIdx;
+
+        /**
+         * Positions the cursor on the first entry of the range.
+         * isBefore is true for all keys that come before the first entry in the direction of the cursor.
+         * For ascending cursors that's the first entry isBefore is false for,
+         * for descending cursors it's the last entry isBefore is true for.
+         */
+        private LeafCursor(Predicate<Key> isBefore, boolean ascending, int readAhead) {
+            this.step = ascending ? 1 : -1;
+            this.readAhead = readAhead;
+            this.path = new ArrayList<>(height + 1);
+            this.childIdxs = new int[height];
+
+            BTreeNode<Key, Value> x = root;
+            x.checkDataStructureRetrieved();
+            path.add(x);
+            for (int level = 0; level < height; level++) {
+                childIdxs[level] = x.childIndexFor(isBefore);
+                x = x.getChildNodeAt(childIdxs[level]);
+                x.checkDataStructureRetrieved();
+                path.add(x);
             }
+            prefetch();
 
-            @Override
-            public Key next() {
-                if (idx >= node.getNumChildren()) {
-                    node = node.getNext();
-                    node.asyncLoadForReads();
-                    idx = 0;
+            int idx = leaf().partitionPoint(isBefore);
+            entryIdx = ascending ? idx : idx - 1;
+            skipExhaustedLeaves();
+        }
+
+        /**
+         * The entry the cursor points to or null if the cursor ran off the tree.
+         */
+        private BTreeEntry<Key, Value> current() {
+            BTreeNode<Key, Value> leaf = leaf();
+            return (entryIdx >= 0 && entryIdx < leaf.getNumChildren()) ? leaf.getEntryAt(entryIdx) : null;
+        }
+
+        private void moveNext() {
+            entryIdx += step;
+            skipExhaustedLeaves();
+        }
+
+        private void skipExhaustedLeaves() {
+            while ((entryIdx < 0 || entryIdx >= leaf().getNumChildren()) && nextLeaf()) {
+                entryIdx = firstIdx(leaf());
+            }
+        }
+
+        private boolean nextLeaf() {
+            // walk up until we find a node that has another child in our direction
+            int level = height - 1;
+            while (level >= 0) {
+                childIdxs[level] += step;
+                if (childIdxs[level] >= 0 && childIdxs[level] < path.get(level).getNumChildren()) {
+                    break;
+                }
+                level--;
+            }
+            if (level < 0) {
+                // put the indexes back where they were
+                // that way calling this again doesn't do any harm
+                for (int i = 0; i < height; i++) {
+                    childIdxs[i] -= step;
+                }
+                return false;
+            }
+
+            // and walk down again
+            for (; level < height; level++) {
+                BTreeNode<Key, Value> child = path.get(level).getChildNodeAt(childIdxs[level]);
+                child.checkDataStructureRetrieved();
+                path.set(level + 1, child);
+                if (level + 1 < height) {
+                    childIdxs[level + 1] = firstIdx(child);
                 }
+            }
+            prefetch();
+            return true;
+        }
 
-                Key k = node.getEntryAt(idx).getKey();
-                idx++;
-                return k;
+        private void prefetch() {
+            if (height == 0) return;
+            BTreeNode<Key, Value> parent = path.get(height - 1);
+            int idx = childIdxs[height - 1];
+            for (int i = 1; i <= readAhead; i++) {
+                int j = idx + i * step;
+                if (j < 0 || j >= parent.getNumChildren()) {
+                    // the window reaches past the parent
+                    // the parent next to it tells us about the leaves after that
+                    if (height > 1) {
+                        BTreeNode<Key, Value> grandParent = path.get(height - 2);
+                        int k = childIdxs[height - 2] + step;
+                        if (k >= 0 && k < grandParent.getNumChildren()) {
+                            grandParent.getChildNodeAt(k);
+                        }
+                    }
+                    return;
+                }
+                parent.getChildNodeAt(j);
             }
-        };
+        }
+
+        private int firstIdx(BTreeNode<Key, Value> node) {
+            return (step > 0) ? 0 : node.getNumChildren() - 1;
+        }
+
+        private BTreeNode<Key, Value> leaf() {
+            return path.get(height);
+        }
+    }
+
+    private class EntryIterator<T> implements Iterator<T> {
+        private final LeafCursor cursor;
+        // the keys are sorted, once we see a key out of range we're done
+        private final Predicate<Key> inRange;
+        private final Function<BTreeEntry<Key, Value>, T> extractor;
+
+        private EntryIterator(LeafCursor cursor, Predicate<Key> inRange, Function<BTreeEntry<Key, Value>, T> extractor) {
+            this.cursor = cursor;
+            this.inRange = inRange;
+            this.extractor = extractor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            BTreeEntry<Key, Value> entry = cursor.current();
+            return entry != null && inRange.test(entry.getKey());
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            T t = extractor.apply(cursor.current());
+            cursor.moveNext();
+            return t;
+        }
     }
 
     public void delete(Key key, Txn txn) {
-        put(key, null, txn);
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        checkDataStructureRetrieved();
+        innerDelete(key, txn);
+    }
+
+    /**
+     * Deletes the tree itself. Only empty trees can be deleted.
+     */
+    void deleteEmpty(Txn txn) {
+        checkDataStructureRetrieved();
+        root.checkDataStructureRetrieved();
+        if (height > 0 || root.getNumChildren() > 0) throw new IllegalStateException("Only empty trees can be deleted");
+        txn.addToDeletedObjects(root);
+        txn.addToDeletedObjects(this);
     }
 
     String dump() {
@@ -189,7 +482,121 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
         newNode.setEntryAt(1, newEntry(insertedNode.getEntryAt(0).getKey(), insertedNode), txn);
         root = newNode;
         txn.addToChangedObjects(this);
+        subtractObjectToObjectSize(height);
         height++;
+        addObjectToObjectSize(height);
+    }
+
+    private void innerDelete(Key key, Txn txn) {
+        if (!remove(root, key, height, txn)) return;
+
+        // the root lost all but one of its children
+        // that child becomes the new root and the tree gets shallower
+        while (height > 0 && root.getNumChildren() == 1) {
+            BTreeNode<Key, Value> oldRoot = root;
+            root = oldRoot.getChildNodeAt(0);
+            root.checkDataStructureRetrieved();
+            txn.addToDeletedObjects(oldRoot);
+            subtractObjectToObjectSize(height);
+            height--;
+            addObjectToObjectSize(height);
+        }
+        txn.addToChangedObjects(this);
+    }
+
+    private boolean remove(BTreeNode<Key, Value> x, Key key, int height, Txn txn) {
+        x.checkDataStructureRetrieved();
+        if (x.getNumChildren() == 0) return false;
+
+        if (height == 0) {
+            // leaf node
+            int j = x.search(key);
+            if (j < 0) return false;
+            x.removeEntryAt(j, txn);
+            return true;
+        } else {
+            // internal node
+            // separator keys don't need to change when the smallest key of a child goes away
+            // they are still less or equal to all keys in the child
+            int j = x.childIndexFor(key);
+            BTreeNode<Key, Value> child = x.getChildNodeAt(j);
+            if (!remove(child, key, height - 1, txn)) return false;
+            if (isUnderfull(child, height - 1)) {
+                rebalance(x, j, height - 1, txn);
+            }
+            return true;
+        }
+    }
+
+    private boolean isUnderfull(BTreeNode<Key, Value> node, int height) {
+        return node.getNumChildren() < minChildren(height) || node.size() < getMaxNodeByteSize() / MIN_ENTRIES_PER_NODE;
+    }
+
+    // an internal node with a single child is just in the way
+    private int minChildren(int height) {
+        return (height > 0) ? 2 : 1;
+    }
+
+    /**
+     * Merges an underfull child with one of its siblings if they fit into a single node together.
+     * If they don't, entries are moved over from the sibling until both are about the same size.
+     */
+    private void rebalance(BTreeNode<Key, Value> parent, int childIdx, int childHeight, Txn txn) {
+        if (parent.getNumChildren() < 2) return;
+
+        // we always merge the right node into the left one
+        // that way the next pointer of the leaf before the left one stays intact
+        int leftIdx = (childIdx + 1 < parent.getNumChildren()) ? childIdx : childIdx - 1;
+        int rightIdx = leftIdx + 1;
+        BTreeNode<Key, Value> left = parent.getChildNodeAt(leftIdx);
+        BTreeNode<Key, Value> right = parent.getChildNodeAt(rightIdx);
+        left.checkDataStructureRetrieved();
+        right.checkDataStructureRetrieved();
+        Key separator = parent.getEntryAt(rightIdx).getKey();
+
+        int minChildren = minChildren(childHeight);
+        if (childHeight > 0 && right.getNumChildren() > 0) {
+            // the first key of an internal node is never looked at when searching
+            // it might be stale and needs to be the separator from the parent before it moves
+            BTreeEntry<Key, Value> first = right.getEntryAt(0);
+            right.setEntryAt(0, newEntry(separator, first.getChildNode()), txn);
+        }
+
+        if (left.size() + right.size() <= getMaxNodeByteSize()) {
+            // merge
+            for (int i = 0; i < right.getNumChildren(); i++) {
+                left.insertEntryAt(left.getNumChildren(), right.getEntryAt(i), txn);
+            }
+            if (childHeight == 0) {
+                left.setNext(right.getNext());
+            }
+            parent.removeEntryAt(rightIdx, txn);
+            txn.addToDeletedObjects(right);
+        } else if (left.size() > right.size()) {
+            // borrow from the left
+            while (left.getNumChildren() > minChildren && left.size() - left.sizeOfEntryAt(left.getNumChildren() - 1) > right.size()) {
+                right.insertEntryAt(0, left.removeEntryAt(left.getNumChildren() - 1, txn), txn);
+            }
+            updateSeparator(parent, rightIdx, right, txn);
+        } else {
+            // borrow from the right
+            while (right.getNumChildren() > minChildren && right.size() - right.sizeOfEntryAt(0) > left.size()) {
+                left.insertEntryAt(left.getNumChildren(), right.removeEntryAt(0, txn), txn);
+            }
+            updateSeparator(parent, rightIdx, right, txn);
+        }
+    }
+
+    private void updateSeparator(BTreeNode<Key, Value> parent, int idx, BTreeNode<Key, Value> child, Txn txn) {
+        parent.setEntryAt(idx, newEntry(child.getEntryAt(0).getKey(), child), txn);
+    }
+
+    private void checkEntrySize(Key key, Value value) {
+        // the key might end up in an internal node too
+        int entrySize = sizeOfObject(key) + sizeOfObject(value) + MAX_ID_SIZE;
+        if (entrySize > getMaxNodeByteSize() / MIN_ENTRIES_PER_NODE) {
+            throw new IllegalStateException("Entry size is " + entrySize + " bytes and exceeds the limit of " + (getMaxNodeByteSize() / MIN_ENTRIES_PER_NODE) + " bytes");
+        }
     }
 
     private BTreeNode<Key, Value> newNode(int numChildren, Txn txn) {
@@ -206,59 +613,17 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
 
     private Pair<BTreeNode<Key, Value>, Integer> search(BTreeNode<Key, Value> x, Key key, int height) {
         x.checkDataStructureRetrieved();
+        if (x.getNumChildren() == 0) return null;
         if (height > 0) {
             // internal node
             // find the right child node to descend to
-            for (int j = 0; j < x.getNumChildren(); j++) {
-                if (j + 1 == x.getNumChildren() || lessThan(key, x.getEntryAt(j + 1).getKey())) {
-                    return search(x.getChildNodeAt(j), key, height - 1);
-                }
-            }
+            return search(x.getChildNodeAt(x.childIndexFor(key)), key, height - 1);
         } else {
             // leaf node
             // find the right key (if it's there) and return it
-            for (int j = 0; j < x.getNumChildren(); j++) {
-                if (equal(key, x.getEntryAt(j).getKey())) {
-                    return Pair.of(x, j);
-                }
-            }
+            int j = x.search(key);
+            return (j >= 0) ? Pair.of(x, j) : null;
         }
-        return null;
-    }
-
-    private Pair<BTreeNode<Key, Value>, Integer> searchFirstLessThan(BTreeNode<Key, Value> x, Key key, int height) {
-        x.checkDataStructureRetrieved();
-        if (height > 0) {
-            // internal node
-            // find the right child node to descend to
-            for (int j = 0; j < x.getNumChildren(); j++) {
-                if (j + 1 == x.getNumChildren() || lessThan(key, x.getEntryAt(j + 1).getKey())) {
-                    return searchFirstLessThan(x.getChildNodeAt(j), key, height - 1);
-                }
-            }
-        } else {
-            // leaf node
-            // find the right key (if it's there) and return it
-            for (int j = 0; j < x.getNumChildren(); j++) {
-                if (lessOrEqual(key, x.getEntryAt(j).getKey())) {
-                    return Pair.of(x, j);
-                }
-            }
-
-            // yea, alright
-            // if "key" happens to be the first entry in a node,
-            // then we need to search all the way through the previous node
-            // just to see that we don't find what we're looking for in the previous node
-            // in this case we allow this code to recursively call itself once (and only once) more
-            // in the extra recursion we will find that "key" is the first node and
-            // greater than what we're looking for
-            if (height > -1) {
-                BTreeNode<Key, Value> nextNode = x.getNext();
-                nextNode.asyncLoadForReads();
-                return searchFirstLessThan(nextNode, key, height - 1);
-            }
-        }
-        return null;
     }
 
     private BTreeNode<Key, Value> insert(BTreeNode<Key, Value> x, Key key, Value value, int height, Txn txn) {
@@ -268,48 +633,51 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
 
         if (height > 0 ) {
             // internal node
-            for (j = 0; j < x.getNumChildren(); j++) {
-                if ((j + 1 == x.getNumChildren()) || lessThan(key, x.getEntryAt(j + 1).getKey())) {
-                    BTreeNode<Key, Value> insertedNode = insert(x.getChildNodeAt(j++), key, value, height - 1, txn);
-                    // we're done, bubble up through recursion
-                    if (insertedNode == null) return null;
-                    entryToInsert.setKey(insertedNode.getEntryAt(0).getKey());
-                    entryToInsert.setChildNode(insertedNode);
-                    break;
-                }
-            }
+            j = x.childIndexFor(key);
+            BTreeNode<Key, Value> insertedNode = insert(x.getChildNodeAt(j++), key, value, height - 1, txn);
+            // we're done, bubble up through recursion
+            if (insertedNode == null) return null;
+            entryToInsert.setKey(insertedNode.getEntryAt(0).getKey());
+            entryToInsert.setChildNode(insertedNode);
         } else {
             // leaf node
-            for (j = 0; j < x.getNumChildren(); j++) {
-                if (lessOrEqual(key, x.getEntryAt(j).getKey())) {
-                    break;
-                }
-            }
+            j = x.lowerBound(key);
         }
 
         if (height == 0 && x.getEntryAt(j) != null && equal(key, x.getEntryAt(j).getKey())) {
             x.setEntryAt(j, entryToInsert, txn);
         } else {
-            // move all children over one slot
-            for (int i = x.getNumChildren(); i > j; i--) {
-                x.setEntryAt(i, x.getEntryAt(i - 1), txn);
-            }
             // drop the new one into the right spot
-            x.setEntryAt(j, entryToInsert, txn);
-            x.setNumChildren(x.getNumChildren() + 1);
+            // and move all children behind it over one slot
+            x.insertEntryAt(j, entryToInsert, txn);
         }
 
         // if we have space, end recursion
         // if not, split the node
-        return (x.getNumChildren() < MAX_NODE_SIZE) ? null : split(x, height, txn);
+        return (x.size() <= getMaxNodeByteSize()) ? null : split(x, height, txn);
     }
 
+    /**
+     * Moves the upper half of the bytes (not entries) of a node over into a new node.
+     */
     private BTreeNode<Key, Value> split(BTreeNode<Key, Value> oldNode, int height, Txn txn) {
-        BTreeNode<Key, Value> newNode = newNode(MAX_NODE_SIZE / 2, txn);
-        oldNode.setNumChildren(MAX_NODE_SIZE / 2);
-        for (int j = 0; j < MAX_NODE_SIZE / 2; j++) {
-            newNode.setEntryAt(j, oldNode.getEntryAt((MAX_NODE_SIZE / 2) + j), txn);
+        int numChildren = oldNode.getNumChildren();
+        int halfSize = oldNode.size() / 2;
+        int splitIdx = numChildren;
+        int movedSize = 0;
+        // both nodes keep at least one entry
+        // and the old one never ends up as an internal node with a single child
+        while (splitIdx > minChildren(height) && movedSize < halfSize) {
+            splitIdx--;
+            movedSize += oldNode.sizeOfEntryAt(splitIdx);
         }
+
+        BTreeNode<Key, Value> newNode = newNode(numChildren - splitIdx, txn);
+        for (int j = 0; j < numChildren - splitIdx; j++) {
+            newNode.setEntryAt(j, oldNode.getEntryAt(splitIdx + j), txn);
+        }
+        // this drops the entries that moved over to the new node
+        oldNode.setNumChildren(splitIdx);
         if (height == 0) {
             newNode.setNext(oldNode.getNext());
             oldNode.setNext(newNode);
@@ -317,15 +685,6 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
         return newNode;
     }
 
-    private BTreeNode<Key, Value> depthFirstSearch(BTreeNode<Key, Value> node, int height) {
-        if (height > 0 && node.getNumChildren() > 0) {
-            BTreeNode<Key, Value> child = node.getChildNodeAt(0);
-            return depthFirstSearch(child, height - 1);
-        } else {
-            return node;
-        }
-    }
-
     private String dump(BTreeNode<Key, Value> x, int height, String indent) {
         StringBuilder sb = new StringBuilder();
         x.checkDataStructureRetrieved();
@@ -348,8 +707,9 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
         return sb.toString();
     }
 
-    private boolean lessThan(Key k1, Key k2) {
-        return k1.compareTo(k2) < 0;
+    // this is a method so that tests can play with smaller nodes
+    int getMaxNodeByteSize() {
+        return getMaxByteSize();
     }
 
     private boolean equal(Key k1, Key k2) {
@@ -364,6 +724,13 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
     //////////////////////////////////////////////
     // galaxy-specific serialization overrides
 
+    // a tree only carries a pointer to its root and its height
+    // compressing a handful of bytes is a waste of cpu
+    @Override
+    CompressionPolicy compressionPolicy() {
+        return CompressionPolicy.NEVER;
+    }
+
     @Override
     void serialize(SerializerOutputStream out) {
         if (root != null) {
@@ -380,5 +747,9 @@ class BTree<Key extends Comparable<Key>, Value> extends DataStructure {
         }
         Integer height = (Integer) in.readObject();
         this.height = (height != null) ? height : 0;
+        if (rootId != null) {
+            addToObjectSize(MAX_ID_SIZE);
+            addObjectToObjectSize(this.height);
+        }
     }
 }
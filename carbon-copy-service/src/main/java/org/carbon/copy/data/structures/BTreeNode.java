@@ -22,35 +22,41 @@ import co.paralleluniverse.galaxy.Store;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Vector;
+import java.util.List;
+import java.util.function.Predicate;
 
 /**
- * Helper and container for a bunch of items that belong into a tree
+ * Helper and container for a bunch of items that belong into a tree.
+ * Nodes don't have a fixed number of entries. They take as many as fit into a cache line.
  */
 class BTreeNode<Key extends Comparable<Key>, Value> extends DataStructure {
     private int numChildren;
     // list of entries
+    // this grows as entries are added and might be shorter than numChildren for a little while
     private ArrayList<BTreeEntry<Key, Value>> entries;
     // next node
     private BTreeNode<Key, Value> next;
 
     private final InternalDataStructureFactory dsFactory;
+    // decoded internal nodes are shared between trees through this cache
+    // it might be null in which case nodes are always read from Galaxy
+    private final BTreeNodeCache nodeCache;
+    // the id of the node while it is being read from Galaxy for the cache
+    private long pendingReadId = -1;
 
     BTreeNode(Store store, InternalDataStructureFactory dsFactory, long id) {
-        super(store, id);
-        Vector<BTreeEntry<Key, Value>> v = new Vector<>(BTree.MAX_NODE_SIZE);
-        v.setSize(BTree.MAX_NODE_SIZE);
-        entries = new ArrayList<>(v);
-        this.dsFactory = dsFactory;
-        asyncLoadForReads();
+        this(store, dsFactory, null, id, true);
     }
 
     BTreeNode(Store store, InternalDataStructureFactory dsFactory, long id, boolean shouldLoad) {
+        this(store, dsFactory, null, id, shouldLoad);
+    }
+
+    BTreeNode(Store store, InternalDataStructureFactory dsFactory, BTreeNodeCache nodeCache, long id, boolean shouldLoad) {
         super(store, id);
-        Vector<BTreeEntry<Key, Value>> v = new Vector<>(BTree.MAX_NODE_SIZE);
-        v.setSize(BTree.MAX_NODE_SIZE);
-        entries = new ArrayList<>(v);
+        entries = new ArrayList<>();
         this.dsFactory = dsFactory;
+        this.nodeCache = nodeCache;
         if (shouldLoad) {
             asyncLoadForReads();
         }
@@ -58,15 +64,16 @@ class BTreeNode<Key extends Comparable<Key>, Value> extends DataStructure {
 
     BTreeNode(Store store, InternalDataStructureFactory dsFactory, int numChildren, Txn txn) {
         super(store);
-        Vector<BTreeEntry<Key, Value>> v = new Vector<>(BTree.MAX_NODE_SIZE);
-        v.setSize(BTree.MAX_NODE_SIZE);
-        entries = new ArrayList<>(v);
+        entries = new ArrayList<>();
         this.numChildren = numChildren;
         this.dsFactory = dsFactory;
-        asyncUpsert(txn);
-
-        // happens after upsert is kicked off
+        this.nodeCache = null;
+        // sizes are exact
+        // they need to be in place before the upsert is kicked off
         addObjectToObjectSize(numChildren);
+        // the pointer to the next node is always there
+        addToObjectSize(MAX_ID_SIZE);
+        asyncUpsert(txn);
         txn.addToCreatedObjects(this);
     }
 
@@ -76,26 +83,170 @@ class BTreeNode<Key extends Comparable<Key>, Value> extends DataStructure {
     }
 
     void setNumChildren(int newNumChildren) {
+        subtractObjectToObjectSize(numChildren);
+        addObjectToObjectSize(newNumChildren);
+        // entries past the number of children are never written
+        // we better forget about them
+        for (int i = entries.size() - 1; i >= newNumChildren; i--) {
+            BTreeEntry<Key, Value> entry = entries.remove(i);
+            if (entry != null) {
+                subtractFromObjectSize(sizeOfEntry(entry));
+            }
+        }
         this.numChildren = newNumChildren;
     }
 
     void setEntryAt(int idx, BTreeEntry<Key, Value> entry, Txn txn) {
         checkDataStructureRetrieved();
         txn.addToChangedObjects(this);
-        if (entries.get(idx) == null) {
-            addObjectToObjectSize(entry.getKey());
-            addObjectToObjectSize(entry.getValue());
-            addObjectToObjectSize((entry.getChildNode() != null) ? entry.getChildNode().getId() : null);
-        } else {
-            subtractObjectToObjectSize(entries.get(idx).getValue());
-            addObjectToObjectSize(entry.getValue());
+        while (entries.size() <= idx) {
+            entries.add(null);
         }
+        BTreeEntry<Key, Value> existingEntry = entries.get(idx);
+        if (existingEntry != null) {
+            subtractFromObjectSize(sizeOfEntry(existingEntry));
+        }
+        addToObjectSize(sizeOfEntry(entry));
         entries.set(idx, entry);
     }
 
+    /**
+     * Inserts an entry and moves all entries behind it over by one.
+     */
+    void insertEntryAt(int idx, BTreeEntry<Key, Value> entry, Txn txn) {
+        checkDataStructureRetrieved();
+        txn.addToChangedObjects(this);
+        while (entries.size() < idx) {
+            entries.add(null);
+        }
+        entries.add(idx, entry);
+        addToObjectSize(sizeOfEntry(entry));
+        setNumChildren(numChildren + 1);
+    }
+
+    /**
+     * Removes an entry and moves all entries behind it up by one.
+     */
+    BTreeEntry<Key, Value> removeEntryAt(int idx, Txn txn) {
+        checkDataStructureRetrieved();
+        txn.addToChangedObjects(this);
+        BTreeEntry<Key, Value> entry = (idx < entries.size()) ? entries.remove(idx) : null;
+        if (entry != null) {
+            subtractFromObjectSize(sizeOfEntry(entry));
+        }
+        setNumChildren(numChildren - 1);
+        return entry;
+    }
+
+    /**
+     * Binary search over the keys of this node.
+     * Works like Collections.binarySearch: returns the index of the key if it's there
+     * and (-(insertion point) - 1) if it's not.
+     */
+    int search(Key key) {
+        checkDataStructureRetrieved();
+        int lo = 0;
+        int hi = Math.min(numChildren, entries.size()) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = entries.get(mid).getKey().compareTo(key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * The index of the first entry with a key greater or equal to the key.
+     * This is numChildren if there is no such entry.
+     */
+    int lowerBound(Key key) {
+        int idx = search(key);
+        return (idx >= 0) ? idx : -(idx + 1);
+    }
+
+    /**
+     * The index of the child of an internal node the key belongs into.
+     * That's the last entry with a key less or equal to the key (or the first entry).
+     * The key of the first entry is never looked at. Keys smaller than it
+     * end up in the first child which makes that key go stale.
+     */
+    int childIndexFor(Key key) {
+        checkDataStructureRetrieved();
+        int lo = 1;
+        int hi = Math.min(numChildren, entries.size()) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).getKey().compareTo(key) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * The index of the first entry with a key that doesn't sit before a range.
+     * isBefore has to be true for the smallest keys (if any) and false for all keys after them.
+     * This is numChildren if there is no such entry.
+     */
+    int partitionPoint(Predicate<Key> isBefore) {
+        checkDataStructureRetrieved();
+        int lo = 0;
+        int hi = Math.min(numChildren, entries.size()) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (isBefore.test(entries.get(mid).getKey())) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The index of the child of an internal node the first key that doesn't sit before a range belongs into.
+     * That's the last entry with a key before the range (or the first entry).
+     * Just like above the key of the first entry is never looked at.
+     */
+    int childIndexFor(Predicate<Key> isBefore) {
+        checkDataStructureRetrieved();
+        int lo = 1;
+        int hi = Math.min(numChildren, entries.size()) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (isBefore.test(entries.get(mid).getKey())) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo - 1;
+    }
+
+    int sizeOfEntryAt(int idx) {
+        BTreeEntry<Key, Value> entry = getEntryAt(idx);
+        return (entry != null) ? sizeOfEntry(entry) : 0;
+    }
+
+    // child nodes might not have an id yet
+    // which is why we always reserve space for the biggest id there is
+    static int sizeOfEntry(BTreeEntry<?, ?> entry) {
+        return sizeOfObject(entry.getKey())
+                + sizeOfObject(entry.getValue())
+                + ((entry.getChildNode() != null) ? MAX_ID_SIZE : NULL_SIZE);
+    }
+
     BTreeEntry<Key, Value> getEntryAt(int idx) {
         checkDataStructureRetrieved();
-        return entries.get(idx);
+        return (idx < entries.size()) ? entries.get(idx) : null;
     }
 
     //
@@ -107,9 +258,8 @@ class BTreeNode<Key extends Comparable<Key>, Value> extends DataStructure {
         // we might be reading an uncommitted BTreeNode here
         // the uncommitted node will be present but empty
         // that will practically throw away all data in it
-        if (!node.isLoaded()) {
-            node.asyncLoadForReads();
-        }
+        // range scans might have started loading this node already
+        node.prefetchForReads();
         return node;
     }
 
@@ -122,9 +272,7 @@ class BTreeNode<Key extends Comparable<Key>, Value> extends DataStructure {
     }
 
     void setNext(BTreeNode<Key, Value> next) {
-        if (next == null) {
-            addObjectToObjectSize(getId());
-        }
+        // the pointer to the next node is accounted for already
         this.next = next;
     }
 
@@ -147,35 +295,69 @@ class BTreeNode<Key extends Comparable<Key>, Value> extends DataStructure {
         out.writeObject((next != null) ? next.getId() : null);
     }
 
-    @SuppressWarnings("unchecked")
+    @Override
+    boolean loadFromLocalCache() {
+        if (nodeCache == null) return false;
+
+        long id = getId();
+        BTreeNodeCache.Snapshot snapshot = nodeCache.get(id);
+        if (snapshot != null) {
+            restore(snapshot);
+            return true;
+        } else {
+            pendingReadId = id;
+            nodeCache.startRead(id);
+            return false;
+        }
+    }
+
     @Override
     void deserialize(SerializerInputStream in) {
         try {
             // the leading byte is the size of the hash table
             Integer tmp = (Integer) in.readObject();
-            numChildren = (tmp != null) ? tmp : 0;
-
-            for (int i = 0; i < numChildren && in.available() > 0; i++) {
-                Key key = (Key) in.readObject();
-                Value value = (Value) in.readObject();
-                Long id = (Long) in.readObject();
+            int n = (tmp != null) ? tmp : 0;
+            List<Object> keys = new ArrayList<>(n);
+            List<Object> values = new ArrayList<>(n);
+            List<Long> childIds = new ArrayList<>(n);
 
-                addObjectToObjectSize(key);
-                addObjectToObjectSize(value);
-                addObjectToObjectSize(id);
-
-                BTreeNode<Key, Value> node = (id != null) ? dsFactory.loadBTreeNodeProxy(id) : null;
-                BTreeEntry<Key, Value> entry = new BTreeEntry<>(key, value, node);
-                entries.set(i, entry);
+            for (int i = 0; i < n && in.available() > 0; i++) {
+                keys.add(in.readObject());
+                values.add(in.readObject());
+                childIds.add((Long) in.readObject());
             }
 
             Long nextId = (Long) in.readObject();
-            addObjectToObjectSize(nextId);
-            if (nextId != null) {
-                next = dsFactory.loadBTreeNodeProxy(nextId);
+            BTreeNodeCache.Snapshot snapshot = new BTreeNodeCache.Snapshot(keys, values, childIds, nextId);
+            restore(snapshot);
+            if (pendingReadId != -1) {
+                // this is only set when we're reading for the cache
+                nodeCache.finishRead(pendingReadId, snapshot, size());
+                pendingReadId = -1;
             }
         } catch (IOException xcp) {
             throw new RuntimeException(xcp);
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private void restore(BTreeNodeCache.Snapshot snapshot) {
+        numChildren = snapshot.getNumChildren();
+        addObjectToObjectSize(numChildren);
+        entries = new ArrayList<>(numChildren);
+
+        for (int i = 0; i < numChildren; i++) {
+            Long id = snapshot.getChildId(i);
+            BTreeNode<Key, Value> node = (id != null) ? dsFactory.loadBTreeNodeProxy(id) : null;
+            BTreeEntry<Key, Value> entry = new BTreeEntry<>((Key) snapshot.getKey(i), (Value) snapshot.getValue(i), node);
+            entries.add(entry);
+            addToObjectSize(sizeOfEntry(entry));
+        }
+
+        addToObjectSize(MAX_ID_SIZE);
+        Long nextId = snapshot.getNextId();
+        if (nextId != null) {
+            next = dsFactory.loadBTreeNodeProxy(nextId);
+        }
+    }
 }
@@ -0,0 +1,187 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import co.paralleluniverse.galaxy.Cache;
+import co.paralleluniverse.galaxy.CacheListener;
+import co.paralleluniverse.galaxy.Store;
+import com.google.common.cache.CacheBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-local cache of decoded internal BTree nodes.
+ * The upper levels of a tree are read by every lookup but change rarely.
+ * Keeping them around decoded saves us deserializing them over and over again
+ * and hot lookups only need to fetch the leaf.
+ *
+ * The cache holds immutable snapshots of nodes (as opposed to the nodes themselves).
+ * Every node restored from a snapshot gets its own entries and fresh proxies for its children.
+ * That way a writer can change its copy of a node without other readers ever seeing that change.
+ *
+ * Snapshots are tied to the version of the cache line they were read from.
+ * Galaxy tells us when a cache line is invalidated or evicted and the snapshot goes away.
+ */
+class BTreeNodeCache {
+    // the sum of the sizes of all cached nodes
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final Store store;
+    private final com.google.common.cache.Cache<Long, CachedNode> nodes;
+    // cache lines that are being read and haven't been invalidated since
+    // we only cache what we read if nobody changed it in the meantime
+    private final Set<Long> pendingReads = ConcurrentHashMap.newKeySet();
+
+    private final CacheListener listener = new CacheListener() {
+        @Override
+        public void invalidated(Cache cache, long id) {
+            invalidate(id);
+        }
+
+        @Override
+        public void received(Cache cache, long id, long version, ByteBuffer data) {
+            CachedNode node = nodes.getIfPresent(id);
+            if (node != null && node.version != version) {
+                invalidate(id);
+            }
+        }
+
+        @Override
+        public void evicted(Cache cache, long id) {
+            invalidate(id);
+        }
+
+        @Override
+        public void messageReceived(byte[] message) {}
+    };
+
+    BTreeNodeCache(Store store) {
+        this(store, DEFAULT_MAX_BYTES);
+    }
+
+    BTreeNodeCache(Store store, long maxBytes) {
+        this.store = store;
+        this.nodes = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long id, CachedNode node) -> node.size)
+                .build();
+    }
+
+    /**
+     * Returns the snapshot of a node if it's still current.
+     */
+    Snapshot get(long id) {
+        CachedNode node = nodes.getIfPresent(id);
+        if (node == null) {
+            return null;
+        } else if (node.version != store.getVersion(id)) {
+            nodes.invalidate(id);
+            return null;
+        } else {
+            return node.snapshot;
+        }
+    }
+
+    /**
+     * Needs to be called before a node is read from Galaxy.
+     * Changes to the cache line that happen while the read is in flight
+     * prevent the node from being cached.
+     */
+    synchronized void startRead(long id) {
+        pendingReads.add(id);
+        store.setListener(id, listener);
+    }
+
+    /**
+     * Caches a node that has been read from Galaxy.
+     * Only internal nodes are kept. Leaves change too often to be worth it.
+     */
+    synchronized void finishRead(long id, Snapshot snapshot, int size) {
+        if (pendingReads.remove(id) && snapshot.isInternal()) {
+            nodes.put(id, new CachedNode(snapshot, store.getVersion(id), size));
+        }
+    }
+
+    synchronized void invalidate(long id) {
+        pendingReads.remove(id);
+        nodes.invalidate(id);
+    }
+
+    long size() {
+        return nodes.size();
+    }
+
+    private static class CachedNode {
+        private final Snapshot snapshot;
+        private final long version;
+        private final int size;
+
+        private CachedNode(Snapshot snapshot, long version, int size) {
+            this.snapshot = snapshot;
+            this.version = version;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The decoded contents of a node.
+     * Child nodes are only referenced by their ids.
+     */
+    static class Snapshot {
+        private final List<Object> keys;
+        private final List<Object> values;
+        private final List<Long> childIds;
+        private final Long nextId;
+
+        Snapshot(List<Object> keys, List<Object> values, List<Long> childIds, Long nextId) {
+            this.keys = Collections.unmodifiableList(keys);
+            this.values = Collections.unmodifiableList(values);
+            this.childIds = Collections.unmodifiableList(childIds);
+            this.nextId = nextId;
+        }
+
+        int getNumChildren() {
+            return keys.size();
+        }
+
+        Object getKey(int idx) {
+            return keys.get(idx);
+        }
+
+        Object getValue(int idx) {
+            return values.get(idx);
+        }
+
+        Long getChildId(int idx) {
+            return childIds.get(idx);
+        }
+
+        Long getNextId() {
+            return nextId;
+        }
+
+        private boolean isInternal() {
+            return !childIds.isEmpty() && childIds.get(0) != null;
+        }
+    }
+}
@@ -4,19 +4,47 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.UUID;
-
 import static org.carbon.copy.data.structures.DataStructure.kryoPool;
 
+/**
+ * Every message starts with a small header followed by whatever the message writes itself.
+ * Header:
+ *  1. message type (one byte)
+ *  2. request id (variable-length long)
+ * Request ids are handed out by the sender counting up from a random int which is why they
+ * mostly take four or five bytes on the wire.
+ */
 abstract class BaseMessage {
-
-    protected UUID requestId;
-
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    // buffers that grew bigger than this while writing a message aren't kept around
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    // every thread writes its messages into the same buffer over and over again
+    // messages never write other messages while they are being written
+    private static final ThreadLocal<Output> outputs = ThreadLocal.withInitial(BaseMessage::newOutput);
+
+    protected long requestId;
+
+    /**
+     * Reads the header and leaves the input at the first byte the message wrote.
+     */
     In getIn(byte[] bytes) {
-        return new In(kryoPool.borrow(), new Input(new ByteArrayInputStream(bytes)));
+        Input input = new Input(bytes);
+        byte messageType = input.readByte();
+        if (messageType != getMessageType()) {
+            throw new IllegalArgumentException("Expected message of type " + getMessageType() + " but got " + messageType);
+        }
+        requestId = input.readLong(true);
+        return new In(kryoPool.borrow(), input);
+    }
+
+    /**
+     * Reads only the request id out of the header of a message.
+     */
+    static long readRequestId(byte[] bytes) {
+        Input input = new Input(bytes);
+        // skip the message type
+        input.readByte();
+        return input.readLong(true);
     }
 
     void send(co.paralleluniverse.galaxy.Messenger messenger, short nodeId) {
@@ -24,30 +52,39 @@ abstract class BaseMessage {
     }
 
     byte[] toByteArray() {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            try (Output out = new Output(baos)) {
-                Kryo kryo = kryoPool.borrow();
-                try {
-                    toBytes(new Out(kryo, out));
-                } finally {
-                    kryoPool.release(kryo);
-                }
-            }
+        Output out = outputs.get();
+        out.clear();
+        out.writeByte(getMessageType());
+        out.writeLong(requestId, true);
+        Kryo kryo = kryoPool.borrow();
+        try {
+            toBytes(new Out(kryo, out));
+        } finally {
+            kryoPool.release(kryo);
+        }
 
-            return baos.toByteArray();
-        } catch (IOException xcp) {
-            throw new RuntimeException(xcp);
+        byte[] bytes = out.toBytes();
+        if (out.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+            outputs.set(newOutput());
         }
+        return bytes;
+    }
+
+    private static Output newOutput() {
+        return new Output(INITIAL_BUFFER_SIZE, -1);
     }
 
-    void setRequestId(UUID requestId) {
+    void setRequestId(long requestId) {
         this.requestId = requestId;
     }
 
     abstract String getTopic();
+    abstract byte getMessageType();
     abstract void toBytes(Out out);
 
-    static class Out implements AutoCloseable {
+    // the kryo instance and the buffer belong to toByteArray
+    // it hands them out for the duration of toBytes and takes care of them afterwards
+    static class Out {
         private final Kryo kryo;
         private final Output out;
 
@@ -64,15 +101,6 @@ abstract class BaseMessage {
             kryo.writeClass(out, klass);
             kryo.writeObjectOrNull(out, o, klass);
         }
-
-        @Override
-        public void close() throws Exception {
-            try {
-                kryoPool.release(kryo);
-            } finally {
-                out.close();
-            }
-        }
     }
 
     static class In implements AutoCloseable {
@@ -1,16 +1,70 @@
 package org.carbon.copy.data.structures;
 
 import co.paralleluniverse.galaxy.MessageListener;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Basic listener wrapper that adds error handling.
+ * Galaxy delivers all messages on the same thread.
+ * Listeners that do real work (open transactions, load data structures, ...) should hand
+ * messages off to an executor so that one slow request doesn't hold up all others.
+ * Listeners without an executor handle messages right away on galaxys thread.
+ * That's what responses want since all they do is release the caller.
  */
 abstract class BaseMessageListener implements MessageListener {
     private static Logger logger = LoggerFactory.getLogger(BaseMessageListener.class);
+
+    static final int DEFAULT_REQUEST_HANDLER_THREADS = 8;
+    static final int DEFAULT_REQUEST_HANDLER_QUEUE_SIZE = 1024;
+
+    private final Executor executor;
+
+    BaseMessageListener() {
+        this(null);
+    }
+
+    BaseMessageListener(Executor executor) {
+        this.executor = executor;
+    }
+
     @Override
     public void messageReceived(short fromNode, byte[] bytes) {
+        if (executor == null) {
+            handleAndLog(fromNode, bytes);
+        } else {
+            try {
+                executor.execute(() -> handleAndLog(fromNode, bytes));
+            } catch (RejectedExecutionException xcp) {
+                // the queue of the pool is full or the pool has been shut down
+                // either way galaxys thread isn't going to handle the message itself
+                try {
+                    rejected(fromNode, bytes);
+                } catch (Exception xcp2) {
+                    logger.error("Rejecting a message from node {} failed", fromNode, xcp2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on galaxys thread when the executor doesn't take on any more messages.
+     * Listeners that handle requests override this to tell the sender right away
+     * instead of letting the request time out.
+     */
+    protected void rejected(short fromNode, byte[] bytes) {
+        logger.warn("Dropping message from node {}", fromNode);
+    }
+
+    private void handleAndLog(short fromNode, byte[] bytes) {
         try {
             handle(fromNode, bytes);
         } catch (Exception xcp) {
@@ -19,4 +73,26 @@ abstract class BaseMessageListener implements MessageListener {
     }
 
     protected abstract void handle(short fromNode, byte[] bytes) throws Exception;
+
+    /**
+     * A bounded pool for listeners that handle requests.
+     * When the queue is full the pool rejects messages and listeners turn them away (see rejected).
+     * That way galaxys thread never ends up doing the work of a request and senders back off sooner.
+     */
+    static ExecutorService newRequestHandlerExecutor(int numThreads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                numThreads,
+                numThreads,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("carbon-copy-request-handler-%d")
+                        .setDaemon(true)
+                        .build(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
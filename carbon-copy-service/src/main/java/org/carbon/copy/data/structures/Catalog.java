@@ -19,10 +19,18 @@
 package org.carbon.copy.data.structures;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 public interface Catalog {
     void create(TopLevelDataStructure ds, Txn txn) throws IOException;
     <T extends TopLevelDataStructure> T get(String name, Class<T> klass);
     Map<String, Table> listTables() throws IOException;
+
+    /**
+     * Registers an index and remembers the table it belongs to.
+     * The table fills the index with the tuples it has already and maintains it on every insert and delete.
+     */
+    void create(Index index, Table table, Txn txn) throws IOException;
+    List<Index> listIndexes(Table table) throws IOException;
 }
@@ -27,7 +27,12 @@ import com.google.common.primitives.Longs;
 import com.google.inject.Inject;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -43,7 +48,7 @@ import java.util.stream.StreamSupport;
  *   | Index |  Usage                            | Date Type |
  *   +-------+-----------------------------------+-----------+
  *   |   0   | id for names to ids               | long      |
- *   |   1   | id for index names to table names | long      |
+ *   |   1   | id for table names to index names | long      |
  */
 class CatalogImpl implements Catalog {
     private static final String CATALOG_ROOT_NAME = "CATALOG_ROOT";
@@ -57,14 +62,10 @@ class CatalogImpl implements Catalog {
     private Long catalogRootId;
     // this map contains all high-level objects
     // it maps their names to the galaxy ids that are their roots
-    // this map contains the names of all tables and which indexes "they own"
     private Long namesToIdsId;
-    // TODO -- actually build logic around this
-    // I might need to two way mapping:
-    //   - during query planning give me all the indexes for a table
-    //     - table name -> list of index names
-    //   - which table does an index belong to?
-    //     - index name -> table name
+    // this map contains the names of all tables and which indexes "they own"
+    // during query planning it gives me all the indexes of a table
+    // it maps table names to a tuple of index names
     private Long tablesToIndexesId;
 
     @Inject
@@ -100,7 +101,34 @@ class CatalogImpl implements Catalog {
         }
 
         ChainingHash<String, Long> namesToIds = dsFactory.loadChainingHashForWrites(namesToIdsId, txn);
-        namesToIds.put(ds.getName(), ds.getId(), txn);
+        // lookups are case-insensitive
+        namesToIds.put(ds.getName().toUpperCase(), ds.getId(), txn);
+    }
+
+    @Override
+    public void create(Index index, Table table, Txn txn) throws IOException {
+        create(index, txn);
+        // the table keeps the index up to date from now on
+        table.addIndex(index, txn);
+        ChainingHash<String, Tuple> tablesToIndexes = dsFactory.loadChainingHashForWrites(tablesToIndexesId, txn);
+        String tableName = table.getName().toUpperCase();
+        Tuple indexNames = tablesToIndexes.get(tableName);
+        int numIndexes = (indexNames != null) ? indexNames.getTupleSize() : 0;
+        Tuple newIndexNames = new Tuple(numIndexes + 1);
+        for (int i = 0; i < numIndexes; i++) {
+            newIndexNames.put(i, indexNames.get(i));
+        }
+        newIndexNames.put(numIndexes, index.getName().toUpperCase());
+        tablesToIndexes.put(tableName, newIndexNames, txn);
+    }
+
+    @Override
+    public List<Index> listIndexes(Table table) throws IOException {
+        List<Index> indexes = new ArrayList<>();
+        for (String indexName : getIndexNamesFor(table.getName().toUpperCase())) {
+            indexes.add(get(indexName, Index.class));
+        }
+        return indexes;
     }
 
     @Override
@@ -114,22 +142,38 @@ class CatalogImpl implements Catalog {
         }
 
         ChainingHash<String, Long> namesToIds = dsFactory.loadChainingHash(namesToIdsId);
+        // indexes live in the same namespace as tables
+        Set<String> indexNames = new HashSet<>();
+        ChainingHash<String, Tuple> tablesToIndexes = dsFactory.loadChainingHash(tablesToIndexesId);
+        for (String tableName : tablesToIndexes.keys()) {
+            indexNames.addAll(getIndexNamesFor(tableName));
+        }
         return StreamSupport.stream(namesToIds.keys().spliterator(), false)
+                .filter(name -> !indexNames.contains(name))
                 .collect(Collectors.toMap(
                         Function.identity(),
                         name -> get(name, Table.class)
                 ));
     }
 
-//    public List<String> getIndexesFor(Table table) throws TimeoutException, IOException {
-//        if (tablesToIndexes == null) {
-//            if (catalogRootId == null) {
-//                initCatalogRootId();
-//            }
-//            tablesToIndexes = dsFactory.loadChainingHash(tablesToIndexesId);
-//        }
-//        return Collections.emptyList();
-//    }
+    private List<String> getIndexNamesFor(String tableName) throws IOException {
+        if (catalogRootId == null) {
+            try {
+                initCatalogRootId();
+            } catch (TimeoutException xcp) {
+                throw new IOException(xcp);
+            }
+        }
+
+        ChainingHash<String, Tuple> tablesToIndexes = dsFactory.loadChainingHash(tablesToIndexesId);
+        Tuple indexNames = tablesToIndexes.get(tableName);
+        if (indexNames == null) return Collections.emptyList();
+        List<String> names = new ArrayList<>(indexNames.getTupleSize());
+        for (int i = 0; i < indexNames.getTupleSize(); i++) {
+            names.add((String) indexNames.get(i));
+        }
+        return names;
+    }
 
     ///////////////////////////////////////////////////////////
     //////////////////////////////////////////////
@@ -21,16 +21,43 @@ package org.carbon.copy.data.structures;
 import co.paralleluniverse.galaxy.Store;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Vector;
-
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This is an extendible hash.
+ * The hash table is a directory of 2^globalDepth buckets. Each data block sits behind
+ * 2^(globalDepth - localDepth) buckets that share the lowest localDepth bits of their index.
+ * When a data block fills up, only this very data block is split in two.
+ * If the data block is already pointed to by a single bucket, the directory doubles
+ * which only copies pointers. Either way an insert touches at most two data blocks and the hash.
+ *
+ * The directory itself is spread across directory pages so that it isn't limited
+ * by the size of a single cache line. Only the ids of the pages live in the cache line
+ * of the hash. Pages are loaded when they're needed for the first time and are kept around after that.
+ */
 class ChainingHash<Key extends Comparable<Key>, Value> extends DataStructure {
-    private static final int EXPANSION_FACTOR = 3;
     static final int DEFAULT_NUM_BUCKETS = 4;
+    // a page with this many buckets fills about three quarters of a cache line
+    static final int MAX_BUCKETS_PER_PAGE = 2048;
+    // number of data blocks a scan keeps loading in the background
+    static final int DEFAULT_READ_AHEAD = 8;
 
     private int hashTableSize;
-    private ArrayList<DataBlock<Key, Value>> hashTable;
+    private ArrayList<DirectoryPage<Key, Value>> directory;
+    // buckets in different pages can point to the same data block
+    // they need to share the same proxy or they'd see different versions of it
+    // concurrent readers of the same hash create proxies while loading directory pages
+    private final Map<Long, DataBlock<Key, Value>> dataBlockProxies = new ConcurrentHashMap<>();
+    // lazy data blocks only decode the values that are being asked for
+    // that pays off for big values that are mostly looked up by key
+    private boolean lazyDataBlocks;
 
     private final InternalDataStructureFactory dsFactory;
 
@@ -39,18 +66,24 @@ class ChainingHash<Key extends Comparable<Key>, Value> extends DataStructure {
     }
 
     ChainingHash(Store store, InternalDataStructureFactory dsFactory, int initNumBuckets, Txn txn) {
+        this(store, dsFactory, initNumBuckets, false, txn);
+    }
+
+    ChainingHash(Store store, InternalDataStructureFactory dsFactory, int initNumBuckets, boolean lazyDataBlocks, Txn txn) {
         super(store);
         this.dsFactory = dsFactory;
-        asyncUpsert(txn);
-        this.hashTableSize = initNumBuckets;
-        Vector<DataBlock<Key, Value>> v = new Vector<>(initNumBuckets);
-        v.setSize(initNumBuckets);
-        this.hashTable = new ArrayList<>(v);
-        // increment object (this is the hash) since we allocate
-        // a DataBlock pointer (which is a Long)
-        for (int i = 0; i < initNumBuckets; i++) {
-            addObjectToObjectSize(Long.MAX_VALUE);
+        // the directory always has a power of two buckets
+        this.hashTableSize = (initNumBuckets <= 1) ? 1 : Integer.highestOneBit(initNumBuckets - 1) << 1;
+        this.lazyDataBlocks = lazyDataBlocks;
+        int numPages = numPages(hashTableSize);
+        this.directory = new ArrayList<>(numPages);
+        for (int i = 0; i < numPages; i++) {
+            directory.add(newDirectoryPage(Math.min(hashTableSize, getMaxBucketsPerPage()), globalDepth(), txn));
         }
+        // sizes are exact
+        // they need to be in place before the upsert is kicked off
+        addToObjectSize(sizeOfHashTable(hashTableSize));
+        asyncUpsert(txn);
         // make sure we have an id before we add this to the txn
         checkDataStructureRetrieved();
         txn.addToChangedObjects(this);
@@ -94,35 +127,67 @@ class ChainingHash<Key extends Comparable<Key>, Value> extends DataStructure {
     }
 
     public Iterable<Key> keys() {
-        return () -> new Iterator<Key>() {
-            private int i = 0;
-            private Iterator<Key> dbIter;
-
-            @Override
-            public boolean hasNext() {
-                if (dbIter == null || !dbIter.hasNext()) {
-                    while (i < hashTableSize && (dbIter == null || !dbIter.hasNext())) {
-                        DataBlock<Key, Value> db = getDataBlock(i);
-                        i++;
-                        if (db != null) {
-                            dbIter = db.keys().iterator();
-                            if (dbIter.hasNext()) {
-                                return true;
-                            }
-                        }
-                    }
+        return keys(DEFAULT_READ_AHEAD);
+    }
 
+    /**
+     * Iterates over all keys while loading up to readAhead data blocks in the background.
+     */
+    public Iterable<Key> keys(int readAhead) {
+        return () -> new KeyIterator(Math.max(1, readAhead));
+    }
+
+    /**
+     * Galaxy loads cache lines asynchronously.
+     * This iterator keeps a window of data blocks in flight and only blocks
+     * when it reaches a data block that hasn't arrived yet.
+     */
+    private class KeyIterator implements Iterator<Key> {
+        private final int readAhead;
+        // data blocks that are being loaded in the order we're going to visit them
+        private final ArrayDeque<DataBlock<Key, Value>> window;
+        private int nextBucketToLoad = 0;
+        private Iterator<Key> dbIter = Collections.emptyIterator();
+
+        private KeyIterator(int readAhead) {
+            this.readAhead = readAhead;
+            this.window = new ArrayDeque<>(readAhead);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!dbIter.hasNext()) {
+                fillWindow();
+                DataBlock<Key, Value> db = window.pollFirst();
+                if (db == null) {
                     return false;
-                } else {
-                    return true;
                 }
+                db.checkDataStructureRetrieved();
+                dbIter = db.keys().iterator();
             }
+            return true;
+        }
+
+        @Override
+        public Key next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return dbIter.next();
+        }
 
-            @Override
-            public Key next() {
-                return dbIter.next();
+        private void fillWindow() {
+            while (window.size() < readAhead && nextBucketToLoad < hashTableSize) {
+                int i = nextBucketToLoad++;
+                // data blocks sit behind multiple buckets
+                // we only visit them through the first of their buckets
+                if (isFirstBucketOfDataBlock(i)) {
+                    DataBlock<Key, Value> db = getPage(i).getDataBlock(slot(i));
+                    if (db != null) {
+                        db.prefetchForReads();
+                        window.addLast(db);
+                    }
+                }
             }
-        };
+        }
     }
 
     /////////////////////////////////////////////////////////////
@@ -134,16 +199,25 @@ class ChainingHash<Key extends Comparable<Key>, Value> extends DataStructure {
 
         int i = hash(key);
         DataBlock<Key, Value> db = getDataBlock(i, txn);
+        while (db != null && !db.putIfPossible(key, val, txn)) {
+            if (!db.keys().iterator().hasNext()) {
+                // splitting doesn't make any room if there's nothing in the data block to begin with
+                throw new IllegalStateException("Key " + key + " and its value don't fit into an empty data block");
+            }
+            // the data block is full
+            // split it and try again with whatever half the key ends up in
+            split(i, txn);
+            i = hash(key);
+            db = getDataBlock(i, txn);
+        }
+
         if (db == null) {
-            DataBlock<Key, Value> newDB = newDataBlock(txn);
+            DataBlock<Key, Value> newDB = newLazyOrEagerDataBlock(txn);
             // I could use putIfPossible here as well
             newDB.put(key, val, txn);
-            hashTable.set(i, newDB);
-        } else {
-            if (!db.putIfPossible(key, val, txn)) {
-                resize(hashTableSize * EXPANSION_FACTOR, txn);
-                put(key, val, txn);
-            }
+            // empty buckets don't share anything with other buckets
+            // hence the new data block is only pointed to by this bucket
+            getPage(i, txn).setBucket(slot(i), newDB, globalDepth(), txn);
         }
     }
 
@@ -159,29 +233,116 @@ class ChainingHash<Key extends Comparable<Key>, Value> extends DataStructure {
     }
 
     private int hash(Key key) {
-        return (key.hashCode() & 0x7fffffff) % hashTableSize;
+        return spread(key) & (hashTableSize - 1);
+    }
+
+    private static int spread(Object key) {
+        int h = key.hashCode();
+        // spread the high bits to the bottom
+        // we only ever look at the lowest few bits
+        return h ^ (h >>> 16);
     }
 
-    private void resize(int newNumBuckets, Txn txn) {
-        // resizing by copying
-        ChainingHash<Key, Value> temp = dsFactory.newChainingHashWithNumBuckets(newNumBuckets, txn);
-        for (int i = 0; i < hashTableSize; i++) {
-            DataBlock<Key, Value> db = getDataBlock(i);
-            if (db != null) {
-                db.keys().forEach(k -> temp.put(k, db.get(k), txn));
-                txn.addToDeletedObjects(db);
+    private int globalDepth() {
+        return Integer.numberOfTrailingZeros(hashTableSize);
+    }
+
+    private boolean isFirstBucketOfDataBlock(int bucket) {
+        return bucket < (1 << getPage(bucket).getLocalDepth(slot(bucket)));
+    }
+
+    /**
+     * Splits the data block behind a bucket in two.
+     * Keys that have the next bit of their hash set move to a new data block.
+     */
+    private void split(int bucket, Txn txn) {
+        int localDepth = getPage(bucket, txn).getLocalDepth(slot(bucket));
+        if (localDepth == globalDepth()) {
+            doubleHashTable(txn);
+        }
+
+        DataBlock<Key, Value> db = getDataBlock(bucket, txn);
+        DataBlock<Key, Value> newDB = newLazyOrEagerDataBlock(txn);
+
+        // all buckets pointing to this data block share the lowest localDepth bits
+        // the ones that have the next bit set point to the new data block from now on
+        int splitBit = 1 << localDepth;
+        for (int i = bucket & (splitBit - 1); i < hashTableSize; i += splitBit) {
+            DirectoryPage<Key, Value> page = getPage(i, txn);
+            if ((i & splitBit) != 0) {
+                page.setBucket(slot(i), newDB, localDepth + 1, txn);
+            } else {
+                page.setLocalDepth(slot(i), localDepth + 1, txn);
             }
         }
 
-        this.hashTableSize  = temp.hashTableSize;
-        this.hashTable = temp.hashTable;
-        setObjectSize(temp.size());
-        txn.addToDeletedObjects(temp);
+        List<Key> keys = new ArrayList<>();
+        db.keys().forEach(keys::add);
+        for (Key k : keys) {
+            if ((spread(k) & splitBit) != 0) {
+                newDB.put(k, db.get(k), txn);
+                db.innerDelete(k);
+            }
+        }
+
+        txn.addToChangedObjects(db);
         txn.addToChangedObjects(this);
     }
 
+    /**
+     * Doubling the hash table doesn't touch data blocks.
+     * Every new bucket points to the same data block as its twin in the lower half.
+     */
+    private void doubleHashTable(Txn txn) {
+        int newHashTableSize = hashTableSize * 2;
+        int sizeIncrease = sizeOfHashTable(newHashTableSize) - sizeOfHashTable(hashTableSize);
+        if (!isUnderMaxByteSize(sizeIncrease)) {
+            throw new IllegalStateException("Hash table with " + hashTableSize + " buckets can't grow any further");
+        }
+
+        if (directory.size() == 1 && hashTableSize < getMaxBucketsPerPage()) {
+            // the directory still fits into a single page
+            getPage(0, txn).doubleBuckets(txn);
+        } else {
+            int numPages = directory.size();
+            for (int i = 0; i < numPages; i++) {
+                DirectoryPage<Key, Value> newPage = newDirectoryPage(0, 0, txn);
+                newPage.copyBucketsFrom(getPage(i * getMaxBucketsPerPage(), txn), txn);
+                directory.add(newPage);
+            }
+        }
+
+        hashTableSize = newHashTableSize;
+        addToObjectSize(sizeIncrease);
+        txn.addToChangedObjects(this);
+    }
+
+    private DirectoryPage<Key, Value> getPage(int bucket, Txn txn) {
+        DirectoryPage<Key, Value> page = directory.get(bucket / getMaxBucketsPerPage());
+        // pages are loaded when they're needed for the first time
+        if (!page.isLoaded()) {
+            page.asyncLoadForWrites(txn);
+            page.checkDataStructureRetrieved();
+        }
+        return page;
+    }
+
+    private DirectoryPage<Key, Value> getPage(int bucket) {
+        DirectoryPage<Key, Value> page = directory.get(bucket / getMaxBucketsPerPage());
+        // pages are loaded when they're needed for the first time
+        if (!page.isLoaded()) {
+            page.asyncLoadForReads();
+            page.checkDataStructureRetrieved();
+        }
+        return page;
+    }
+
+    private int slot(int bucket) {
+        return bucket % getMaxBucketsPerPage();
+    }
+
     private DataBlock<Key, Value> getDataBlock(int hash, Txn txn) {
-        DataBlock<Key, Value> db = hashTable.get(hash);
+        DataBlock<Key, Value> db = getPage(hash, txn).getDataBlock(slot(hash));
         // since loading the hash doesn't automatically
         // pull in all data blocks, we need to double-check whether a data block
         // has been loaded by hash or not
@@ -193,21 +354,65 @@ class ChainingHash<Key extends Comparable<Key>, Value> extends DataStructure {
     }
 
     private DataBlock<Key, Value> getDataBlock(int hash) {
-        DataBlock<Key, Value> db = hashTable.get(hash);
+        DataBlock<Key, Value> db = getPage(hash).getDataBlock(slot(hash));
         // since loading the hash doesn't automatically
         // pull in all data blocks, we need to double-check whether a data block
         // has been loaded by hash or not
         if (db != null && !db.isLoaded()) {
-            db.asyncLoadForReads();
+            // a scan might have started loading this data block already
+            db.prefetchForReads();
             db.checkDataStructureRetrieved();
         }
         return db;
     }
 
+    private DataBlock<Key, Value> getDataBlockProxy(long id) {
+        return dataBlockProxies.computeIfAbsent(id, i -> {
+            DataBlock<Key, Value> db = dsFactory.loadDataBlockProxy(i);
+            // proxies don't load data until they're being used
+            db.setLazy(lazyDataBlocks);
+            return db;
+        });
+    }
+
+    private DataBlock<Key, Value> newLazyOrEagerDataBlock(Txn txn) {
+        DataBlock<Key, Value> db = newDataBlock(txn);
+        db.setLazy(lazyDataBlocks);
+        db.checkDataStructureRetrieved();
+        long id = db.getId();
+        if (id != -1) {
+            dataBlockProxies.put(id, db);
+        }
+        return db;
+    }
+
+    private DirectoryPage<Key, Value> newDirectoryPage(int numBuckets, int localDepth, Txn txn) {
+        DirectoryPage<Key, Value> page = dsFactory.newDirectoryPage(numBuckets, localDepth, txn);
+        page.setDataBlockLoader(this::getDataBlockProxy);
+        // make sure we have an id before the hash is written
+        page.checkDataStructureRetrieved();
+        return page;
+    }
+
+    private int numPages(int numBuckets) {
+        return Math.max(1, numBuckets / getMaxBucketsPerPage());
+    }
+
+    // the hash table size goes first followed by the format of the data blocks
+    // and a DirectoryPage pointer (which is a Long) per page
+    private int sizeOfHashTable(int numBuckets) {
+        return sizeOfObject(numBuckets) + sizeOfObject(Boolean.TRUE) + numPages(numBuckets) * MAX_ID_SIZE;
+    }
+
     DataBlock<Key, Value> newDataBlock(Txn txn) {
         return dsFactory.newDataBlock(txn);
     }
 
+    // this is a power of two
+    int getMaxBucketsPerPage() {
+        return MAX_BUCKETS_PER_PAGE;
+    }
+
     /////////////////////////////////////////////////////////////
     //////////////////////////////////////////////
     // galaxy-specific serialization overrides
@@ -216,9 +421,9 @@ class ChainingHash<Key extends Comparable<Key>, Value> extends DataStructure {
     void serialize(SerializerOutputStream out) {
         // stick in the hash table size as leading byte
         out.writeObject(hashTableSize);
-        for (int i = 0; i < hashTableSize; i++) {
-            DataBlock<Key, Value> db = getDataBlock(i);
-            out.writeObject((db != null) ? db.getId() : null);
+        out.writeObject(lazyDataBlocks);
+        for (DirectoryPage<Key, Value> page : directory) {
+            out.writeObject(page.getId());
         }
     }
 
@@ -229,16 +434,18 @@ class ChainingHash<Key extends Comparable<Key>, Value> extends DataStructure {
             // the leading byte is the size of the hash table
             tmp = (Integer) in.readObject();
             hashTableSize = (tmp != null) ? tmp : 0;
+            Boolean lazy = (Boolean) in.readObject();
+            lazyDataBlocks = (lazy != null) && lazy;
+            addToObjectSize(sizeOfHashTable(hashTableSize));
 
-            Vector<DataBlock<Key, Value>> v = new Vector<>(hashTableSize);
-            v.setSize(hashTableSize);
-            hashTable = new ArrayList<>(v);
-
-            for (int i = 0; i < hashTableSize && in.available() > 0; i++) {
+            int numPages = numPages(hashTableSize);
+            directory = new ArrayList<>(numPages);
+            for (int i = 0; i < numPages && in.available() > 0; i++) {
                 Long id = (Long) in.readObject();
-                DataBlock<Key, Value> db = (id != null) ? dsFactory.loadDataBlockProxy(id) : null;
-                hashTable.set(i, db);
-                addObjectToObjectSize(id);
+                DirectoryPage<Key, Value> page = dsFactory.loadDirectoryPageProxy(id);
+                // pages don't load data until they're being used
+                page.setDataBlockLoader(this::getDataBlockProxy);
+                directory.add(page);
             }
         } catch (IOException xcp) {
             throw new RuntimeException(xcp);
@@ -0,0 +1,88 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import co.paralleluniverse.galaxy.Cluster;
+import co.paralleluniverse.galaxy.cluster.NodeChangeListener;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * Routes keys to the nodes that are currently in the cluster.
+ * Galaxy tells this class whenever nodes join or leave and only then the rendez-vous router is rebuilt.
+ * Routing a key doesn't look at the cluster at all.
+ */
+class ClusterRouter implements NodeChangeListener {
+    private final Cluster cluster;
+    private volatile RendezVousRouter router;
+
+    private ClusterRouter(Cluster cluster) {
+        this.cluster = cluster;
+        this.router = newRouter();
+    }
+
+    /**
+     * Creates a router for the nodes that are in the cluster right now
+     * and keeps it up to date as the cluster changes.
+     */
+    static ClusterRouter listenTo(Cluster cluster) {
+        ClusterRouter clusterRouter = new ClusterRouter(cluster);
+        cluster.addNodeChangeListener(clusterRouter);
+        // nodes might have come or gone before the listener was in place
+        clusterRouter.rebuild();
+        return clusterRouter;
+    }
+
+    short route(Object key) {
+        return router.route(key);
+    }
+
+    int getNumNodes() {
+        return router.getNumNodes();
+    }
+
+    @Override
+    public void nodeAdded(short id) {
+        rebuild();
+    }
+
+    @Override
+    public void nodeSwitched(short id) {
+        // a slave took over for its master
+        // the node id stays the same and so do all routes
+    }
+
+    @Override
+    public void nodeRemoved(short id) {
+        rebuild();
+    }
+
+    // callbacks might come in concurrently
+    // whoever rebuilds last needs to see the latest set of nodes
+    private synchronized void rebuild() {
+        router = newRouter();
+    }
+
+    private RendezVousRouter newRouter() {
+        Set<Short> nodes = cluster.getNodes();
+        // a node that is on its own owns all keys
+        return new RendezVousRouter((nodes.size() > 0) ? nodes : ImmutableSet.of(cluster.getMyNodeId()));
+    }
+}
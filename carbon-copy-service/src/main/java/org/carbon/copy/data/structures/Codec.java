@@ -0,0 +1,124 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Every cache line starts with a single byte identifying the codec its payload was written with.
+ * This way each cache line can be compressed (or not) independently of all others.
+ *
+ * All codecs read from the position to the limit of their source buffer and
+ * write to their destination buffer starting at its position. They leave the
+ * positions of both buffers alone and return the number of bytes they've written.
+ * Codecs that go through snappy require direct buffers.
+ */
+enum Codec {
+    NONE((byte) 0) {
+        @Override
+        int maxEncodedLength(int length) {
+            return length;
+        }
+
+        @Override
+        int encode(ByteBuffer src, ByteBuffer dst) {
+            return copy(src, dst);
+        }
+
+        @Override
+        int decodedLength(ByteBuffer src) {
+            return src.remaining();
+        }
+
+        @Override
+        int decode(ByteBuffer src, ByteBuffer dst) {
+            return copy(src, dst);
+        }
+
+        private int copy(ByteBuffer src, ByteBuffer dst) {
+            int length = src.remaining();
+            ByteBuffer d = dst.duplicate();
+            d.put(src.duplicate());
+            return length;
+        }
+    },
+
+    SNAPPY((byte) 1) {
+        @Override
+        int maxEncodedLength(int length) {
+            return Snappy.maxCompressedLength(length);
+        }
+
+        @Override
+        int encode(ByteBuffer src, ByteBuffer dst) throws IOException {
+            return Snappy.compress(src, dst);
+        }
+
+        @Override
+        int decodedLength(ByteBuffer src) throws IOException {
+            return Snappy.uncompressedLength(src);
+        }
+
+        @Override
+        int decode(ByteBuffer src, ByteBuffer dst) throws IOException {
+            return Snappy.uncompress(src, dst);
+        }
+    };
+
+    // LZ4 and zstd would go here
+    // the header byte leaves plenty of room for more codecs
+
+    static final int HEADER_SIZE = 1;
+
+    private static final Codec[] codecsById;
+    static {
+        codecsById = new Codec[values().length];
+        for (Codec c : values()) {
+            codecsById[c.id] = c;
+        }
+    }
+
+    private final byte id;
+
+    Codec(byte id) {
+        this.id = id;
+    }
+
+    byte getId() {
+        return id;
+    }
+
+    static Codec forId(byte id) {
+        if (id < 0 || id >= codecsById.length) {
+            throw new IllegalStateException("Unknown codec with id " + id);
+        }
+        return codecsById[id];
+    }
+
+    /**
+     * The biggest number of bytes this codec will ever produce for an input of the given length.
+     */
+    abstract int maxEncodedLength(int length);
+    abstract int encode(ByteBuffer src, ByteBuffer dst) throws IOException;
+    abstract int decodedLength(ByteBuffer src) throws IOException;
+    abstract int decode(ByteBuffer src, ByteBuffer dst) throws IOException;
+}
@@ -0,0 +1,109 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A compression policy decides which codec a cache line is written with.
+ * Compressing tiny cache lines (think of a tree root that holds two ids) costs CPU
+ * on every read and sometimes makes the cache line bigger than it was before.
+ * That's why data structures get to pick the policy that suits them best.
+ *
+ * No matter what the policy picks, writers always fall back to storing data uncompressed
+ * if compression didn't make the data any smaller. That means a cache line never takes up
+ * more space than its uncompressed data (plus the codec header).
+ */
+abstract class CompressionPolicy {
+    // cache lines smaller than this are never worth compressing
+    static final int MIN_COMPRESSIBLE_SIZE = 64;
+
+    static final CompressionPolicy NEVER = new CompressionPolicy() {
+        @Override
+        Codec choose(int uncompressedSize) {
+            return Codec.NONE;
+        }
+    };
+
+    // one adaptive policy per data structure type
+    // different types compress very differently and we want to learn about them separately
+    private static final ConcurrentHashMap<Class<?>, CompressionPolicy> adaptivePolicies = new ConcurrentHashMap<>();
+
+    static CompressionPolicy adaptive(Class<?> klass) {
+        return adaptivePolicies.computeIfAbsent(klass, k -> new AdaptiveCompressionPolicy(Codec.SNAPPY));
+    }
+
+    /**
+     * Picks the codec for a cache line with the given number of uncompressed bytes.
+     */
+    abstract Codec choose(int uncompressedSize);
+
+    /**
+     * Writers report back how well compression went.
+     */
+    void observe(int uncompressedSize, int compressedSize) { }
+
+    /**
+     * This policy keeps track of how well cache lines of a particular type compress.
+     * Once compression stops paying off, it only compresses every so often
+     * in order to find out whether the data became compressible again.
+     */
+    static class AdaptiveCompressionPolicy extends CompressionPolicy {
+        // if compression saves less than 10% we stop bothering
+        static final double MAX_WORTHWHILE_RATIO = 0.9;
+        // while we don't bother we still try every n-th cache line
+        static final int SAMPLING_INTERVAL = 32;
+        // weight of the latest observation in the moving average
+        private static final double DECAY = 0.1;
+
+        private final Codec codec;
+        private final AtomicInteger skipped = new AtomicInteger();
+        // the moving average of compressed size / uncompressed size
+        // updates might race each other but this is only ever an approximation anyways
+        private volatile double compressionRatio = 0.5;
+
+        AdaptiveCompressionPolicy(Codec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        Codec choose(int uncompressedSize) {
+            if (uncompressedSize < MIN_COMPRESSIBLE_SIZE) {
+                return Codec.NONE;
+            } else if (compressionRatio > MAX_WORTHWHILE_RATIO && skipped.incrementAndGet() % SAMPLING_INTERVAL != 0) {
+                return Codec.NONE;
+            } else {
+                return codec;
+            }
+        }
+
+        @Override
+        void observe(int uncompressedSize, int compressedSize) {
+            if (uncompressedSize > 0) {
+                double ratio = (double) compressedSize / uncompressedSize;
+                compressionRatio = (1.0 - DECAY) * compressionRatio + DECAY * ratio;
+            }
+        }
+
+        double getCompressionRatio() {
+            return compressionRatio;
+        }
+    }
+}
@@ -19,39 +19,49 @@
 package org.carbon.copy.data.structures;
 
 import co.paralleluniverse.galaxy.Store;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
 
 /**
  * The foundation of all other data structures.
- * It's merely a linked list of keys and values that is being shoved into a blob of data.
+ * It's merely a sorted array of keys and values that is being shoved into a blob of data.
+ * search is O(log n)
+ * insertion / deletion is O(log n) plus shifting the entries behind it
+ *
+ * Lazy blocks write every value prefixed with its length in bytes.
+ * That way they can skip over values when they are loaded and only decode the ones somebody asks for.
  */
 class DataBlock<Key extends Comparable<Key>, Value> extends DataStructure {
     /**
-     * Internal node implementing a linked list
-     * insertion is O(1)
-     * search / deletion is O(n)
+     * Placeholder for a value of a lazy block that hasn't been decoded yet.
+     * It points into the payload the block was read from.
      */
-    private class Node {
-        Key key;
-        Value value;
-        Node next;
-
-        Node(Key key, Value value, Node next) {
-            this.key = key;
-            this.value = value;
-            this.next = next;
-        }
+    private static final class Encoded {
+        final int offset;
+        final int length;
+        // readers remember the decoded value here as opposed to in the list of values
+        // the list isn't safe to change from multiple threads
+        // the volatile makes sure other readers never see a half-built value
+        volatile Object decoded;
 
-        // mostly done for debugging purposes
-        // remove this if it's too much
-        @Override
-        public String toString() {
-            return key.toString() + " - " + value.toString();
+        Encoded(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
         }
     }
 
-    private Node first;
+    // keys are kept in sorted order
+    // the value of a key lives at the same index as the key
+    private ArrayList<Key> keys = new ArrayList<>();
+    // values are either decoded values or Encoded placeholders
+    private ArrayList<Object> values = new ArrayList<>();
+    private boolean isLazy = false;
+    // the bytes a lazy block was read from
+    // Encoded placeholders point into this array
+    private byte[] payload;
 
     DataBlock(Store store, Txn txn) {
         super(store);
@@ -76,14 +86,8 @@ class DataBlock<Key extends Comparable<Key>, Value> extends DataStructure {
     public Value get(Key key) {
         if (key == null) throw new IllegalArgumentException("key can't be null");
         checkDataStructureRetrieved();
-        Node x = first;
-        while (x != null) {
-            if (x.key.equals(key)) {
-                return x.value;
-            }
-            x = x.next;
-        }
-        return null;
+        int idx = indexOf(key);
+        return (idx >= 0) ? valueAt(idx) : null;
     }
 
     public void put(Key key, Value val, Txn txn) {
@@ -91,7 +95,7 @@ class DataBlock<Key extends Comparable<Key>, Value> extends DataStructure {
         checkDataStructureRetrieved();
         txn.addToChangedObjects(this);
         if (!innerPutIfPossible(key, val)) {
-            int size = sizeOfObject(key) + sizeOfObject(val);
+            int size = sizeOfEntry(key, val);
             throw new IllegalStateException("Object size is " + (size + size()) + " bytes and exceeds the limit of " + getMaxByteSize() + " bytes");
         }
     }
@@ -116,23 +120,28 @@ class DataBlock<Key extends Comparable<Key>, Value> extends DataStructure {
         return didDelete;
     }
 
+    /**
+     * Keys come out in sorted order.
+     */
     public Iterable<Key> keys() {
         checkDataStructureRetrieved();
-        return () -> new Iterator<Key>() {
-            Node x = first;
+        return Collections.unmodifiableList(keys);
+    }
 
-            @Override
-            public boolean hasNext() {
-                return x != null;
-            }
+    /**
+     * Lazy blocks decode their keys when they are loaded but leave values alone
+     * until they are asked for. Decoded values are kept around for the next time.
+     * Lazy and eager blocks have different formats, hence whoever owns a block
+     * needs to pick the mode before the block is loaded or data is put into it.
+     */
+    void setLazy(boolean isLazy) {
+        if (this.isLazy == isLazy) return;
+        if (!keys.isEmpty()) throw new IllegalStateException("Can't change the format of a block that has data in it");
+        this.isLazy = isLazy;
+    }
 
-            @Override
-            public Key next() {
-                Node n = x;
-                x = x.next;
-                return n.key;
-            }
-        };
+    boolean isLazy() {
+        return isLazy;
     }
 
     /////////////////////////////////////////////////////////////
@@ -141,28 +150,26 @@ class DataBlock<Key extends Comparable<Key>, Value> extends DataStructure {
 
     void innerPut(Key key, Value val) {
         if (key == null) throw new IllegalArgumentException("key can't be null");
-        addObjectToObjectSize(key);
-        addObjectToObjectSize(val);
-
-        Node x = first;
-        // iterate through all keys :/
-        // I know, I know
-        while (x != null) {
-            if (x.key.equals(key)) {
-                x.value = val;
-                // we're done...let's get out of here
-                return;
-            }
-            x = x.next;
-        }
+        upsert(key, val);
+    }
 
-        // we reached here that means, there is no node with the key in question
-        // hence we go and create a new node
-        first = new Node(key, val, first);
+    private void upsert(Key key, Object val) {
+        int idx = indexOf(key);
+        if (idx >= 0) {
+            subtractFromObjectSize(sizeOfValue(values.get(idx)));
+            addToObjectSize(sizeOfValue(val));
+            values.set(idx, val);
+        } else {
+            // there is no entry with the key in question
+            // binary search tells us where it would need to go
+            insert(-(idx + 1), key, val);
+        }
     }
 
     boolean innerPutIfPossible(Key key, Value val) {
-        int size = sizeOfObject(key) + sizeOfObject(val);
+        // this assumes the key isn't in this block yet
+        // overriding an existing key will need less space than that
+        int size = sizeOfEntry(key, val);
         if (isUnderMaxByteSize(size)) {
             innerPut(key, val);
             return true;
@@ -173,26 +180,64 @@ class DataBlock<Key extends Comparable<Key>, Value> extends DataStructure {
 
     boolean innerDelete(Key key) {
         if (key == null) throw new IllegalArgumentException("key can't be null");
-        if (first == null) return false;
+        int idx = indexOf(key);
+        if (idx < 0) return false;
 
-        if (key.equals(first.key)) {
-            // no need to be afraid of null
-            first = first.next;
-            return true;
-        }
+        subtractObjectToObjectSize(keys.remove(idx));
+        subtractFromObjectSize(sizeOfValue(values.remove(idx)));
+        return true;
+    }
+
+    private int indexOf(Key key) {
+        return Collections.binarySearch(keys, key);
+    }
+
+    private void insert(int idx, Key key, Object val) {
+        addObjectToObjectSize(key);
+        addToObjectSize(sizeOfValue(val));
+        keys.add(idx, key);
+        values.add(idx, val);
+    }
 
-        Node x = first;
-        while (x != null) {
-            if (x.next != null && x.next.key.equals(key)) {
-                subtractObjectToObjectSize(key);
-                subtractObjectToObjectSize(x.next.value);
-                x.next = x.next.next;
-                return true;
+    @SuppressWarnings("unchecked")
+    private Value valueAt(int idx) {
+        Object val = values.get(idx);
+        if (val instanceof Encoded) {
+            // decode once and remember the result
+            // if two readers race here they both decode the same bytes
+            // and one of two equal values wins
+            Encoded encoded = (Encoded) val;
+            val = encoded.decoded;
+            if (val == null) {
+                val = decode(encoded);
+                encoded.decoded = val;
             }
-            x = x.next;
         }
+        return (Value) val;
+    }
+
+    private Object decode(Encoded encoded) {
+        Kryo kryo = kryoPool.borrow();
+        try {
+            return kryo.readClassAndObject(new Input(payload, encoded.offset, encoded.length));
+        } finally {
+            kryoPool.release(kryo);
+        }
+    }
+
+    private int sizeOfEntry(Key key, Object val) {
+        return sizeOfObject(key) + sizeOfValue(val);
+    }
 
-        return false;
+    // lazy blocks put the length of a value in front of it
+    private int sizeOfValue(Object val) {
+        if (val instanceof Encoded) {
+            int length = ((Encoded) val).length;
+            return sizeOfVarInt(length, true) + length;
+        }
+
+        int size = sizeOfObject(val);
+        return (isLazy) ? sizeOfVarInt(size, true) + size : size;
     }
 
     /////////////////////////////////////////////////////////////
@@ -201,25 +246,80 @@ class DataBlock<Key extends Comparable<Key>, Value> extends DataStructure {
 
     @Override
     void serialize(SerializerOutputStream out) {
-        Node x = first;
-        while (x != null) {
-            out.writeObject(x.key);
-            out.writeObject(x.value);
-            x = x.next;
+        for (int i = 0; i < keys.size(); i++) {
+            out.writeObject(keys.get(i));
+            Object val = values.get(i);
+            if (!isLazy) {
+                out.writeObject(val);
+            } else if (val instanceof Encoded) {
+                // values nobody looked at are written back as they came in
+                Encoded encoded = (Encoded) val;
+                out.writeVarInt(encoded.length);
+                out.writeBytes(payload, encoded.offset, encoded.length);
+            } else {
+                // sizes are exact which means we know the length upfront
+                int length = sizeOfObject(val);
+                out.writeVarInt(length);
+                int start = out.position();
+                out.writeObject(val);
+                if (out.position() - start != length) {
+                    throw new IllegalStateException("Value " + val + " was supposed to be " + length + " bytes but was " + (out.position() - start) + " bytes");
+                }
+            }
         }
     }
 
     @SuppressWarnings("unchecked")
     @Override
     void deserialize(SerializerInputStream in) {
-        boolean shouldDoIt;
-        do {
-            Key key = (Key) in.readObject();
-            Value value = (Value) in.readObject();
-            shouldDoIt = key != null && value != null;
-            if (shouldDoIt) first = new Node(key, value, first);
-            addObjectToObjectSize(key);
-            addObjectToObjectSize(value);
-        } while (shouldDoIt);
+        // whatever we read replaces what was in this block before
+        keys = new ArrayList<>();
+        values = new ArrayList<>();
+        payload = null;
+        setObjectSize(0);
+
+        if (isLazy) {
+            deserializeLazily(in);
+        } else {
+            boolean shouldDoIt;
+            do {
+                Key key = (Key) in.readObject();
+                Value value = (Value) in.readObject();
+                shouldDoIt = key != null && value != null;
+                if (shouldDoIt) {
+                    append(key, value);
+                }
+            } while (shouldDoIt);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deserializeLazily(SerializerInputStream in) {
+        // the buffer we're reading from goes back to galaxy after this
+        // that's why we keep a copy of the bytes around
+        payload = in.readRemainingBytes();
+        Input input = new Input(payload);
+        Kryo kryo = kryoPool.borrow();
+        try {
+            while (!input.eof()) {
+                Key key = (Key) kryo.readClassAndObject(input);
+                if (key == null) break;
+                int length = input.readVarInt(true);
+                append(key, new Encoded(input.position(), length));
+                input.skip(length);
+            }
+        } finally {
+            kryoPool.release(kryo);
+        }
+    }
+
+    private void append(Key key, Object val) {
+        if (keys.isEmpty() || keys.get(keys.size() - 1).compareTo(key) < 0) {
+            // blocks are written in sorted order
+            // that's why we can usually just append
+            insert(keys.size(), key, val);
+        } else {
+            upsert(key, val);
+        }
     }
 }
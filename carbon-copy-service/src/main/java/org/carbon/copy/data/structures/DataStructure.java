@@ -23,23 +23,24 @@ import co.paralleluniverse.galaxy.RefNotFoundException;
 import co.paralleluniverse.galaxy.Store;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.pool.KryoFactory;
 import com.esotericsoftware.kryo.pool.KryoPool;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import de.javakaffee.kryoserializers.UUIDSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xerial.snappy.Snappy;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -75,6 +76,8 @@ abstract class DataStructure extends Sizable implements Persistable {
         kryo.register(BTree.class, 14);
         kryo.register(UUID.class, new UUIDSerializer(), 15);
         kryo.register(GUID.class, 16);
+        kryo.register(DirectoryPage.class, 17);
+        kryo.register(PostingList.class, 18);
 
         return kryo;
     };
@@ -88,6 +91,8 @@ abstract class DataStructure extends Sizable implements Persistable {
     // future to create a new data structure
     private ListenableFuture<Long> creationFuture = null;
     private boolean isLoaded = false;
+    // lazily resolved since it's up to the implementation to pick one
+    private CompressionPolicy compressionPolicy;
 
     DataStructure(Store store) {
         this(store, -1);
@@ -122,17 +127,38 @@ abstract class DataStructure extends Sizable implements Persistable {
         if (dataFuture != null) {
             throw new IllegalStateException("Can't override loadable future");
         }
-        dataFuture = getAsync(getId(), o);
+        // some data structures keep decoded copies of themselves around
+        dataFuture = loadFromLocalCache() ? Futures.immediateFuture(o) : getAsync(getId(), o);
         return dataFuture;
     }
 
+    /**
+     * Data structures that can restore themselves without going to Galaxy override this.
+     * Returns true if the data structure has been restored.
+     */
+    boolean loadFromLocalCache() {
+        return false;
+    }
+
+    /**
+     * Kicks off loading the data for reads without waiting for it.
+     * This doesn't do anything if the data is there already or on its way.
+     */
+    void prefetchForReads() {
+        if (!isLoaded && dataFuture == null && creationFuture == null) {
+            asyncLoadForReads();
+        }
+    }
+
     ListenableFuture asyncLoadForWrites(Txn txn) {
         return asyncLoadForWrites(this, txn);
     }
 
     private <T extends DataStructure> ListenableFuture asyncLoadForWrites(T o, Txn txn) {
         if (dataFuture != null) {
-            throw new IllegalStateException("Can't override loadable future");
+            // a read might still be in flight (e.g. prefetched by a scan that was abandoned)
+            // let it land and then upgrade to an exclusive load
+            checkDataStructureRetrieved();
         }
 
         if (getId() == -1) {
@@ -157,13 +183,9 @@ abstract class DataStructure extends Sizable implements Persistable {
                 return setAsync(o.getId(), o, txn);
             }
         } catch (KryoException xcp) {
-            // this error handling gives us a better clue on what exactly went wrong
-            // for example in the sizing of our ByteBuffers
-            int estimatedSize = o.size();
-            ByteBuffer bb = ByteBuffer.allocateDirect(Math.max(estimatedSize * 2, MAX_BYTE_SIZE));
-            o.write(bb);
-            int actuallyUsed = bb.position();
-            throw new RuntimeException("cache line " + toString() + " failed to upsert! Estimated size: [" + estimatedSize + "]; Actual size: [" + actuallyUsed + "]", xcp);
+            // sizes are exact...if the data doesn't fit
+            // the writer already told us how many bytes it actually needed
+            throw new RuntimeException("cache line " + toString() + " failed to upsert! Size: [" + o.size() + "]", xcp);
         }
     }
 
@@ -217,35 +239,77 @@ abstract class DataStructure extends Sizable implements Persistable {
 
     // has to be public because of Galaxy
     public void write(ByteBuffer compressedBB) {
-        CompressingByteBufferOutputStream baos = new CompressingByteBufferOutputStream(compressedBB.capacity());
-        try (SerializerOutputStream out = new SerializerOutputStream(baos)) {
-            serialize(out);
-        } catch (IOException | KryoException xcp) {
-            throw new RuntimeException("Byte Array [" + baos.size() + "] ByteBuffer [" + compressedBB.capacity() + "]", xcp);
+        if (!compressedBB.isDirect()) {
+            throw new IllegalArgumentException("out is not direct ByteBuffer");
         }
 
+        ScratchBuffers scratch = ScratchBuffers.acquire();
         try {
-            baos.writeTo(compressedBB);
-        } catch (IOException xcp) {
-            throw new RuntimeException("Byte Array [" + baos.size() + "] ByteBuffer [" + compressedBB.capacity() + "]", xcp);
+            ByteBufferOutput output = scratch.output();
+            try (SerializerOutputStream out = new SerializerOutputStream(output)) {
+                serialize(out);
+            } catch (IOException | KryoException xcp) {
+                throw new RuntimeException("Serialized [" + output.position() + "] ByteBuffer [" + compressedBB.capacity() + "]", xcp);
+            }
+
+            try {
+                scratch.encodeInto(compressedBB, output.position(), getCompressionPolicy());
+            } catch (IOException xcp) {
+                throw new RuntimeException("Serialized [" + output.position() + "] ByteBuffer [" + compressedBB.capacity() + "]", xcp);
+            }
+        } finally {
+            scratch.release();
         }
     }
 
     // has to be public because of Galaxy
     public void read(ByteBuffer compressedBB) {
-        // snappy doesn't like it when you give it a ByteBuffer out of
-        // which it can't read data (aka remaining == 0)
+        // an empty ByteBuffer doesn't even have a codec header
         // in that case we skip this code all together and don't call into
         // deserialize of the data structure either
         if (compressedBB.remaining() > 0) {
-            try (SerializerInputStream in = new SerializerInputStream(new UncompressingByteBufferInputStream(compressedBB))) {
-                deserialize(in);
+            if (!compressedBB.isDirect()) {
+                throw new IllegalArgumentException("in is not direct ByteBuffer");
+            }
+
+            ScratchBuffers scratch = ScratchBuffers.acquire();
+            try {
+                ByteBufferInput input = scratch.decodeFrom(compressedBB);
+                try (SerializerInputStream in = new SerializerInputStream(input)) {
+                    deserialize(in);
+                }
             } catch (IOException | KryoException xcp) {
                 throw new RuntimeException(xcp);
+            } finally {
+                scratch.release();
             }
         }
     }
 
+    /**
+     * Data structures can override this if they know better how their cache lines compress.
+     * By default every type of data structure learns how well it compresses on the go.
+     */
+    CompressionPolicy compressionPolicy() {
+        return CompressionPolicy.adaptive(getClass());
+    }
+
+    private CompressionPolicy getCompressionPolicy() {
+        if (compressionPolicy == null) {
+            compressionPolicy = compressionPolicy();
+        }
+        return compressionPolicy;
+    }
+
+    /**
+     * Every cache line carries a codec header followed by the payload.
+     * Compressed payloads are never written if they'd be bigger than the uncompressed data.
+     */
+    @Override
+    int encodedSize(int serializedSize) {
+        return Codec.HEADER_SIZE + serializedSize;
+    }
+
     private <T extends DataStructure> ListenableFuture<Void> setAsync(long id, T o, Txn txn) {
         return store.setAsync(id, o, txn.getStoreTransaction());
     }
@@ -322,8 +386,8 @@ abstract class DataStructure extends Sizable implements Persistable {
         private Kryo kryo;
         private Output out;
 
-        private SerializerOutputStream(OutputStream o) {
-            out = new Output(o);
+        private SerializerOutputStream(Output o) {
+            out = o;
             kryo = kryoPool.borrow();
         }
 
@@ -336,10 +400,24 @@ abstract class DataStructure extends Sizable implements Persistable {
             kryo.writeClassAndObject(out, o);
         }
 
+        void writeVarInt(int i) {
+            out.writeVarInt(i, true);
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) {
+            out.writeBytes(bytes, offset, length);
+        }
+
+        int position() {
+            return out.position();
+        }
+
         @Override
         public void close() throws IOException {
             try {
-                out.close();
+                // the output is a thread-local scratch buffer
+                // that's why we only flush it and never close it
+                out.flush();
             } finally {
                 try {
                     kryoPool.release(kryo);
@@ -354,8 +432,8 @@ abstract class DataStructure extends Sizable implements Persistable {
         private final Kryo kryo;
         private final Input in;
 
-        private SerializerInputStream(InputStream i) {
-            in = new Input(i);
+        private SerializerInputStream(Input i) {
+            in = i;
             kryo = kryoPool.borrow();
         }
 
@@ -365,7 +443,17 @@ abstract class DataStructure extends Sizable implements Persistable {
         }
 
         Object readObject() {
-            return kryo.readClassAndObject(in);
+            // blocks used to be padded with zeros which kryo reads as nulls
+            // these days they end where the data ends and we keep handing out nulls
+            // past that point so that data structures can keep reading until they see a null
+            return (in.eof()) ? null : kryo.readClassAndObject(in);
+        }
+
+        /**
+         * Copies everything that hasn't been read yet onto the heap.
+         */
+        byte[] readRemainingBytes() {
+            return in.readBytes(in.limit() - in.position());
         }
 
         @Override
@@ -376,13 +464,9 @@ abstract class DataStructure extends Sizable implements Persistable {
         @Override
         public void close() throws IOException {
             try {
-                in.close();
+                kryoPool.release(kryo);
             } finally {
-                try {
-                    kryoPool.release(kryo);
-                } finally {
-                    super.close();
-                }
+                super.close();
             }
         }
     }
@@ -390,59 +474,134 @@ abstract class DataStructure extends Sizable implements Persistable {
     //////////////////////////////////////////////////////////////
     /////////////////////////////////////////////////
     //////////////////////////////////////
-    // These stream implementations let us deal with compressed and uncompressed
-    // various byte representations
-    // They will interfere with a ByteBuffer and Snappy
-    static class CompressingByteBufferOutputStream extends ByteArrayOutputStream {
-        CompressingByteBufferOutputStream(int size) {
-            super(size);
+    // These buffers let us serialize, compress, uncompress and deserialize
+    // cache lines without copying them onto the heap.
+    // Every thread keeps a few sets of direct buffers around which are being reused
+    // over and over again. They only ever grow when a cache line happens
+    // to be bigger than anything this thread has seen before.
+    // Galaxy might call read on a data structure while we're in the middle of
+    // deserializing another one (think of a table loading its hash).
+    // That's why buffers are borrowed and returned as opposed to just sitting in a thread local.
+    static class ScratchBuffers {
+        private static final ThreadLocal<ArrayDeque<ScratchBuffers>> freeScratchBuffers = ThreadLocal.withInitial(ArrayDeque::new);
+
+        // kryo writes straight into this guy
+        private final ByteBufferOutput output = new ByteBufferOutput(MAX_BYTE_SIZE, -1);
+        // kryo reads straight out of this guy
+        private final ByteBufferInput input = new ByteBufferInput();
+        // codecs decode into this buffer
+        private ByteBuffer decoded = ByteBuffer.allocateDirect(MAX_BYTE_SIZE);
+        // codecs encode into this buffer if they can't be sure
+        // that the encoded data fits into galaxys buffer
+        private ByteBuffer encoded = ByteBuffer.allocateDirect(Snappy.maxCompressedLength(MAX_BYTE_SIZE));
+
+        private ScratchBuffers() {}
+
+        static ScratchBuffers acquire() {
+            ScratchBuffers scratch = freeScratchBuffers.get().pollFirst();
+            return (scratch != null) ? scratch : new ScratchBuffers();
         }
 
-        synchronized void writeTo(ByteBuffer out) throws IOException {
-            if (!out.isDirect()) {
-                throw new IllegalArgumentException("out is not direct ByteBuffer");
-            } else {
-                // this makes a copy of the byte buffer
-                byte[] compressed = Snappy.compress(buf);
-                try {
-                    if (compressed.length > out.capacity()) {
-                        // CRAP!!!
-                        // this puts us in a *very* uncomfortable situation
-                        // we simply can't write this block and need to explode this transaction
-                        String errorMessage = String.format("Data with length %d doesn't fit in buffer with size %d", compressed.length, out.capacity());
-                        throw new IllegalStateException(errorMessage);
+        void release() {
+            freeScratchBuffers.get().addFirst(this);
+        }
+
+        ByteBufferOutput output() {
+            output.clear();
+            return output;
+        }
+
+        /**
+         * Writes the codec header and the first numBytes of the output encoded with
+         * whatever codec the policy picks into the galaxy buffer.
+         * Galaxy expects the position of the buffer to be where we stopped writing.
+         */
+        void encodeInto(ByteBuffer out, int numBytes, CompressionPolicy policy) throws IOException {
+            ByteBuffer serialized = output.getByteBuffer().duplicate();
+            serialized.position(0);
+            serialized.limit(numBytes);
+
+            out.position(0);
+            out.limit(out.capacity());
+
+            Codec codec = policy.choose(numBytes);
+            ByteBuffer payload = serialized;
+            int payloadLength = numBytes;
+            if (codec != Codec.NONE) {
+                int maxEncodedLength = codec.maxEncodedLength(numBytes);
+                if (Codec.HEADER_SIZE + maxEncodedLength <= out.capacity()) {
+                    // the encoded data is guaranteed to fit
+                    // so the codec can write into galaxys buffer right away
+                    out.position(Codec.HEADER_SIZE);
+                    payload = out;
+                } else {
+                    if (encoded.capacity() < maxEncodedLength) {
+                        encoded = ByteBuffer.allocateDirect(maxEncodedLength);
                     }
-                    out.position(0);
-                    // make sure the limit of the byte buffer has the length
-                    // of the byte array we want to put in there
-                    out.limit(compressed.length);
-                    // put my byte array at the beginning of the byte buffer
-                    out.put(compressed, 0, compressed.length);
-                    // galaxy expects the pointer to be where we stopped writing
-                    out.position(compressed.length);
-                } catch (BufferOverflowException | IllegalArgumentException | IllegalStateException xcp) {
-                    logger.error("Bytebuffer size [{}] pos [{}] lim [{}] compressed length [{}]", out.capacity(), out.position(), out.limit(), compressed.length, xcp);
-                    throw new IllegalStateException(xcp);
+                    encoded.clear();
+                    payload = encoded;
+                }
+
+                payloadLength = codec.encode(serialized, payload);
+                if (payload == encoded) {
+                    encoded.position(0);
+                    encoded.limit(payloadLength);
+                }
+                policy.observe(numBytes, payloadLength);
+                if (payloadLength >= numBytes) {
+                    // compression didn't buy us anything
+                    // let's store the data as is and save readers the trouble
+                    codec = Codec.NONE;
+                    payload = serialized;
+                    payloadLength = numBytes;
                 }
             }
-        }
-    }
 
-    static class UncompressingByteBufferInputStream extends ByteArrayInputStream {
-        UncompressingByteBufferInputStream(ByteBuffer in) throws IOException {
-            super(readFrom(in));
+            int totalLength = Codec.HEADER_SIZE + payloadLength;
+            if (totalLength > out.capacity()) {
+                // CRAP!!!
+                // this puts us in a *very* uncomfortable situation
+                // we simply can't write this block and need to explode this transaction
+                String errorMessage = String.format("Data with length %d doesn't fit in buffer with size %d", totalLength, out.capacity());
+                logger.error("Bytebuffer size [{}] pos [{}] lim [{}] encoded length [{}] codec [{}]", out.capacity(), out.position(), out.limit(), totalLength, codec);
+                throw new IllegalStateException(errorMessage);
+            }
+
+            out.limit(out.capacity());
+            out.position(0);
+            out.put(codec.getId());
+            if (payload != out) {
+                out.put(payload);
+            }
+
+            // make sure the limit of the byte buffer has the length
+            // of the data we put in there
+            out.limit(totalLength);
+            out.position(totalLength);
         }
 
-        private static byte[] readFrom(ByteBuffer in) throws IOException {
-            if (!in.isDirect()) {
-                throw new IllegalArgumentException("in is not direct ByteBuffer");
+        /**
+         * Reads the codec header of the galaxy buffer and returns an input that reads the decoded data.
+         * Uncompressed data is read right out of galaxys buffer.
+         */
+        ByteBufferInput decodeFrom(ByteBuffer in) throws IOException {
+            Codec codec = Codec.forId(in.get());
+            // duplicates are always big endian (just like kryo likes it)
+            ByteBuffer payload = in.duplicate();
+            if (codec == Codec.NONE) {
+                input.setBuffer(payload);
             } else {
-                // this makes a copy of the byte buffer
-                byte[] compressed = new byte[in.limit()];
-                in.get(compressed);
-                // and this makes another one
-                return Snappy.uncompress(compressed);
+                int decodedLength = codec.decodedLength(payload);
+                if (decoded.capacity() < decodedLength) {
+                    decoded = ByteBuffer.allocateDirect(decodedLength);
+                }
+                decoded.clear();
+                int length = codec.decode(payload, decoded);
+                decoded.position(0);
+                decoded.limit(length);
+                input.setBuffer(decoded);
             }
+            return input;
         }
     }
 }
@@ -18,20 +18,25 @@
 
 package org.carbon.copy.data.structures;
 
-import co.paralleluniverse.galaxy.Cluster;
 import co.paralleluniverse.galaxy.Store;
 import com.google.inject.Inject;
 
 class DataStructureFactoryImpl implements InternalDataStructureFactory {
     private final Store store;
-    private final Cluster cluster;
+    private final ClusterRouter clusterRouter;
     private final Messenger messenger;
+    private final BTreeNodeCache nodeCache;
+
+    DataStructureFactoryImpl(Store store, ClusterRouter clusterRouter, Messenger messenger) {
+        this(store, clusterRouter, messenger, null);
+    }
 
     @Inject
-    DataStructureFactoryImpl(Store store, Cluster cluster, Messenger messenger) {
+    DataStructureFactoryImpl(Store store, ClusterRouter clusterRouter, Messenger messenger, BTreeNodeCache nodeCache) {
         this.store = store;
-        this.cluster = cluster;
+        this.clusterRouter = clusterRouter;
         this.messenger = messenger;
+        this.nodeCache = nodeCache;
     }
 
     @Override
@@ -64,6 +69,11 @@ class DataStructureFactoryImpl implements InternalDataStructureFactory {
         return new ChainingHash<>(store, this, numBuckets, txn);
     }
 
+    @Override
+    public <Key extends Comparable<Key>, Value> ChainingHash<Key, Value> newChainingHashWithLazyDataBlocks(Txn txn) {
+        return new ChainingHash<>(store, this, ChainingHash.DEFAULT_NUM_BUCKETS, true, txn);
+    }
+
     @Override
     public <Key extends Comparable<Key>, Value> ChainingHash<Key, Value> loadChainingHash(long id) {
         return new ChainingHash<>(store, this, id);
@@ -74,6 +84,16 @@ class DataStructureFactoryImpl implements InternalDataStructureFactory {
         return new ChainingHash<>(store, this, id, txn);
     }
 
+    @Override
+    public <Key extends Comparable<Key>, Value> DirectoryPage<Key, Value> newDirectoryPage(int numBuckets, int localDepth, Txn txn) {
+        return new DirectoryPage<>(store, numBuckets, localDepth, txn);
+    }
+
+    @Override
+    public <Key extends Comparable<Key>, Value> DirectoryPage<Key, Value> loadDirectoryPageProxy(long id) {
+        return new DirectoryPage<>(store, id);
+    }
+
     @Override
     public <Key extends Comparable<Key>, Value> BTreeNode<Key, Value> newBTreeNode(int numChildren, Txn txn) {
         return new BTreeNode<>(store, this, numChildren, txn);
@@ -81,12 +101,12 @@ class DataStructureFactoryImpl implements InternalDataStructureFactory {
 
     @Override
     public <Key extends Comparable<Key>, Value> BTreeNode<Key, Value> loadBTreeNode(long id) {
-        return new BTreeNode<>(store, this, id, true);
+        return new BTreeNode<>(store, this, nodeCache, id, true);
     }
 
     @Override
     public <Key extends Comparable<Key>, Value> BTreeNode<Key, Value> loadBTreeNodeProxy(long id) {
-        return new BTreeNode<>(store, this, id, false);
+        return new BTreeNode<>(store, this, nodeCache, id, false);
     }
 
     @Override
@@ -106,12 +126,12 @@ class DataStructureFactoryImpl implements InternalDataStructureFactory {
 
     @Override
     public <Key extends Comparable<Key>, Value> DistHash<Key, Value> newDistHash(Txn txn) {
-        return new DistHash<>(store, this, cluster, messenger, txn);
+        return new DistHash<>(store, this, clusterRouter, messenger, txn);
     }
 
     @Override
     public <Key extends Comparable<Key>, Value> DistHash<Key, Value> loadDistHash(long id) {
-        return new DistHash<>(store, this, cluster, messenger, id);
+        return new DistHash<>(store, this, clusterRouter, messenger, id);
     }
 
     @Override
@@ -25,6 +25,8 @@ import com.google.inject.AbstractModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * This class configures all things data structures and below
  */
@@ -33,6 +35,8 @@ public class DataStructureModule extends AbstractModule {
 
     private final String configFile;
     private final String propertiesFile;
+    private final int requestHandlerThreads;
+    private final int requestHandlerQueueSize;
 
     /**
      * This is for tests only.
@@ -51,14 +55,24 @@ public class DataStructureModule extends AbstractModule {
     }
 
     public DataStructureModule(String configFile, String propertiesFile) {
+        this(configFile, propertiesFile, BaseMessageListener.DEFAULT_REQUEST_HANDLER_THREADS, BaseMessageListener.DEFAULT_REQUEST_HANDLER_QUEUE_SIZE);
+    }
+
+    /**
+     * Requests from other nodes are handled by a pool of this many threads.
+     * Once the queue of the pool is full, requests are turned away with an error response.
+     */
+    public DataStructureModule(String configFile, String propertiesFile, int requestHandlerThreads, int requestHandlerQueueSize) {
         this.configFile = configFile;
         this.propertiesFile = propertiesFile;
+        this.requestHandlerThreads = requestHandlerThreads;
+        this.requestHandlerQueueSize = requestHandlerQueueSize;
     }
 
     @Override
     protected void configure() {
         logger.info("Starting galaxy grid with the following config files: {} {}", this.configFile, this.propertiesFile);
-        GalaxyGridImpl g = new GalaxyGridImpl(configFile, propertiesFile);
+        GalaxyGridImpl g = new GalaxyGridImpl(configFile, propertiesFile, requestHandlerThreads, requestHandlerQueueSize);
         bind(GalaxyGrid.class).toInstance(g);
         bind(Store.class).toInstance(g.store());
         bind(Cluster.class).toInstance(g.cluster());
@@ -66,6 +80,10 @@ public class DataStructureModule extends AbstractModule {
         bind(co.paralleluniverse.galaxy.Messenger.class).toInstance(g.messenger());
         bind(org.carbon.copy.data.structures.Messenger.class).to(MessengerImpl.class);
 
+        // all trees on this machine share one cache of decoded tree nodes
+        bind(BTreeNodeCache.class).toInstance(new BTreeNodeCache(g.store()));
+        // all distributed data structures on this machine route keys the same way
+        bind(ClusterRouter.class).toInstance(ClusterRouter.listenTo(g.cluster()));
         bind(InternalDataStructureFactory.class).to(DataStructureFactoryImpl.class);
         bind(DataStructureFactory.class).to(DataStructureFactoryImpl.class);
 
@@ -73,16 +91,32 @@ public class DataStructureModule extends AbstractModule {
 
         // attach all galaxy listeners
         // there must be a better way to do this
+        // requests are handled in a separate pool
+        // responses are handled right away so that they never wait behind a slow request
+        // the pool is shut down when the grid stops
+        ExecutorService requestExecutor = g.requestExecutor();
         g.messenger().addMessageListener(DistHash.PutRequestMessageListener.TOPIC,
-                new DistHash.PutRequestMessageListener(getProvider(InternalDataStructureFactory.class), getProvider(TxnManager.class), getProvider(Messenger.class)));
+                new DistHash.PutRequestMessageListener(getProvider(InternalDataStructureFactory.class), getProvider(TxnManager.class), getProvider(Messenger.class), requestExecutor));
 
         g.messenger().addMessageListener(DistHash.PutResponseMessageListener.TOPIC,
                 new DistHash.PutResponseMessageListener(getProvider(org.carbon.copy.data.structures.Messenger.class)));
 
         g.messenger().addMessageListener(DistHash.GetRequestMessageListener.TOPIC,
-                new DistHash.GetRequestMessageListener(getProvider(InternalDataStructureFactory.class), getProvider(Messenger.class)));
+                new DistHash.GetRequestMessageListener(getProvider(InternalDataStructureFactory.class), getProvider(Messenger.class), requestExecutor));
 
         g.messenger().addMessageListener(DistHash.GetResponseMessageListener.TOPIC,
                 new DistHash.GetResponseMessageListener(getProvider(org.carbon.copy.data.structures.Messenger.class)));
+
+        g.messenger().addMessageListener(DistHash.PutAllRequestMessageListener.TOPIC,
+                new DistHash.PutAllRequestMessageListener(getProvider(InternalDataStructureFactory.class), getProvider(TxnManager.class), getProvider(Messenger.class), requestExecutor));
+
+        g.messenger().addMessageListener(DistHash.GetAllRequestMessageListener.TOPIC,
+                new DistHash.GetAllRequestMessageListener(getProvider(InternalDataStructureFactory.class), getProvider(Messenger.class), requestExecutor));
+
+        g.messenger().addMessageListener(DistHash.GetAllResponseMessageListener.TOPIC,
+                new DistHash.GetAllResponseMessageListener(getProvider(org.carbon.copy.data.structures.Messenger.class)));
+
+        g.messenger().addMessageListener(ErrorResponse.ErrorResponseMessageListener.TOPIC,
+                new ErrorResponse.ErrorResponseMessageListener(getProvider(org.carbon.copy.data.structures.Messenger.class)));
     }
 }
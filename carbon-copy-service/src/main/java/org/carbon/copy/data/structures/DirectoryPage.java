@@ -0,0 +1,156 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import co.paralleluniverse.galaxy.Store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.function.LongFunction;
+
+/**
+ * A slice of the bucket directory of a ChainingHash.
+ * Each bucket points to a data block (or nothing) and remembers how many bits
+ * of the hash are shared by all buckets pointing to the same data block.
+ */
+class DirectoryPage<Key extends Comparable<Key>, Value> extends DataStructure {
+    // local depths never exceed the number of bits of a hash code
+    private static final int SIZE_OF_BUCKET = MAX_ID_SIZE + sizeOfObject(Integer.SIZE);
+
+    private ArrayList<DataBlock<Key, Value>> dataBlocks;
+    private ArrayList<Integer> localDepths;
+    // buckets of different pages can point to the same data block
+    // the hash hands out data block proxies so that they can be shared
+    private LongFunction<DataBlock<Key, Value>> dataBlockLoader;
+
+    DirectoryPage(Store store, long id) {
+        super(store, id);
+    }
+
+    DirectoryPage(Store store, int numBuckets, int localDepth, Txn txn) {
+        super(store);
+        this.dataBlocks = new ArrayList<>(Collections.nCopies(numBuckets, null));
+        this.localDepths = new ArrayList<>(Collections.nCopies(numBuckets, localDepth));
+        // sizes are exact
+        // they need to be in place before the upsert is kicked off
+        addToObjectSize(sizeOfPage(numBuckets));
+        asyncUpsert(txn);
+        txn.addToCreatedObjects(this);
+    }
+
+    /**
+     * Has to be called before the page is loaded.
+     */
+    void setDataBlockLoader(LongFunction<DataBlock<Key, Value>> dataBlockLoader) {
+        this.dataBlockLoader = dataBlockLoader;
+    }
+
+    int getNumBuckets() {
+        checkDataStructureRetrieved();
+        return dataBlocks.size();
+    }
+
+    DataBlock<Key, Value> getDataBlock(int bucket) {
+        checkDataStructureRetrieved();
+        return dataBlocks.get(bucket);
+    }
+
+    int getLocalDepth(int bucket) {
+        checkDataStructureRetrieved();
+        return localDepths.get(bucket);
+    }
+
+    void setBucket(int bucket, DataBlock<Key, Value> db, int localDepth, Txn txn) {
+        checkDataStructureRetrieved();
+        txn.addToChangedObjects(this);
+        dataBlocks.set(bucket, db);
+        localDepths.set(bucket, localDepth);
+    }
+
+    void setLocalDepth(int bucket, int localDepth, Txn txn) {
+        checkDataStructureRetrieved();
+        txn.addToChangedObjects(this);
+        localDepths.set(bucket, localDepth);
+    }
+
+    /**
+     * Appends a copy of all buckets of this page to the page.
+     */
+    void doubleBuckets(Txn txn) {
+        checkDataStructureRetrieved();
+        txn.addToChangedObjects(this);
+        int numBuckets = dataBlocks.size();
+        addToObjectSize(sizeOfPage(numBuckets * 2) - sizeOfPage(numBuckets));
+        dataBlocks.addAll(new ArrayList<>(dataBlocks));
+        localDepths.addAll(new ArrayList<>(localDepths));
+    }
+
+    /**
+     * Makes all buckets of this page point to the same data blocks as the buckets of the other page.
+     */
+    void copyBucketsFrom(DirectoryPage<Key, Value> other, Txn txn) {
+        checkDataStructureRetrieved();
+        txn.addToChangedObjects(this);
+        subtractFromObjectSize(sizeOfPage(dataBlocks.size()));
+        addToObjectSize(sizeOfPage(other.getNumBuckets()));
+        dataBlocks = new ArrayList<>(other.dataBlocks);
+        localDepths = new ArrayList<>(other.localDepths);
+    }
+
+    // the number of buckets goes first followed by a data block pointer and a local depth per bucket
+    // buckets are filled in as we go and we don't know the ids of their data blocks upfront
+    static int sizeOfPage(int numBuckets) {
+        return sizeOfObject(numBuckets) + numBuckets * SIZE_OF_BUCKET;
+    }
+
+    /////////////////////////////////////////////////////////////
+    //////////////////////////////////////////////
+    // galaxy-specific serialization overrides
+
+    @Override
+    void serialize(SerializerOutputStream out) {
+        out.writeObject(dataBlocks.size());
+        for (int i = 0; i < dataBlocks.size(); i++) {
+            DataBlock<Key, Value> db = dataBlocks.get(i);
+            out.writeObject((db != null) ? db.getId() : null);
+            out.writeObject(localDepths.get(i));
+        }
+    }
+
+    @Override
+    void deserialize(SerializerInputStream in) {
+        try {
+            Integer tmp = (Integer) in.readObject();
+            int numBuckets = (tmp != null) ? tmp : 0;
+            dataBlocks = new ArrayList<>(numBuckets);
+            localDepths = new ArrayList<>(numBuckets);
+            setObjectSize(sizeOfPage(numBuckets));
+
+            for (int i = 0; i < numBuckets && in.available() > 0; i++) {
+                Long id = (Long) in.readObject();
+                Integer localDepth = (Integer) in.readObject();
+                dataBlocks.add((id != null) ? dataBlockLoader.apply(id) : null);
+                localDepths.add(localDepth);
+            }
+        } catch (IOException xcp) {
+            throw new RuntimeException(xcp);
+        }
+    }
+}
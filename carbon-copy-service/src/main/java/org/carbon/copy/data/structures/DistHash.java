@@ -18,28 +18,21 @@
 
 package org.carbon.copy.data.structures;
 
-import co.paralleluniverse.galaxy.Cluster;
 import co.paralleluniverse.galaxy.Store;
-import com.google.common.base.Charsets;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.hash.Funnel;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
 import com.google.inject.Provider;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Executor;
 
 /**
  * This is an implementation of a distributed hash map.
@@ -50,86 +43,180 @@ import java.util.concurrent.TimeoutException;
  * In theory this means a nice order and *somewhat* consistent view on data.
  */
 class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
-    private final Funnel<Key> keyFunnel = (Funnel<Key>) (key, into) ->
-            into.putString(key.toString(), Charsets.UTF_8);
-
-    private final Funnel<Short> nodeInfoFunnel = (Funnel<Short>) (nodeId, into) ->
-            into.putShort(nodeId);
-
     private final InternalDataStructureFactory dsFactory;
-    private final Cluster cluster;
+    // routes keys to nodes and follows nodes joining or leaving the cluster
+    private final ClusterRouter router;
     private final Messenger messenger;
-    private final HashFunction hf;
 
     private int hashTableSize;
     private HashMap<Short, Long> hashTable;
 
-    DistHash(Store store, InternalDataStructureFactory dsFactory, Cluster cluster, Messenger messenger, Txn txn) {
+    DistHash(Store store, InternalDataStructureFactory dsFactory, ClusterRouter router, Messenger messenger, Txn txn) {
         super(store);
-        this.hashTableSize = cluster.getNodes().size();
+        this.hashTableSize = router.getNumNodes();
         this.hashTable = new HashMap<>(this.hashTableSize);
+        addObjectToObjectSize(hashTableSize);
         asyncUpsert(txn);
 
         this.dsFactory = dsFactory;
-        this.cluster = cluster;
+        this.router = router;
         this.messenger = messenger;
-        this.hf = Hashing.murmur3_128(getMyNodeId(cluster));
 
         checkDataStructureRetrieved();
         txn.addToChangedObjects(this);
         txn.addToCreatedObjects(this);
     }
 
-    DistHash(Store store, InternalDataStructureFactory dsFactory, Cluster cluster, Messenger messenger, long id) {
+    DistHash(Store store, InternalDataStructureFactory dsFactory, ClusterRouter router, Messenger messenger, long id) {
         super(store, id);
         this.dsFactory = dsFactory;
-        this.cluster = cluster;
+        this.router = router;
         this.messenger = messenger;
-        this.hf = Hashing.murmur3_128(getMyNodeId(cluster));
         asyncLoadForReads();
     }
 
     public void put(Key key, Value val, Txn txn) {
         if (txn == null) throw new IllegalArgumentException("Txn cannot be null");
         checkDataStructureRetrieved();
-        Short nodeId = rendezVousHashTheKeyToANode(key);
+        short nodeId = rendezVousHashTheKeyToANode(key);
         Long blockId = hashTable.get(nodeId);
         try {
             blockId = sendPutRequest(nodeId, key, val, blockId);
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+        } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException(e);
         }
-        hashTable.put(nodeId, blockId);
+        if (hashTable.put(nodeId, blockId) == null) {
+            addToObjectSize(sizeOfObject(nodeId) + MAX_ID_SIZE);
+        }
     }
 
-    private Long sendPutRequest(Short nodeId, Key key, Value val, Long blockId) throws InterruptedException, ExecutionException, TimeoutException {
+    // the messenger fails the future if the response doesn't arrive in time
+    private Long sendPutRequest(short nodeId, Key key, Value val, Long blockId) throws InterruptedException, ExecutionException {
         PutRequest pr = new PutRequest(key, val, blockId);
-        Future<Long> f = messenger.send(nodeId, pr);
-        return f.get(TIMEOUT_SECS, TimeUnit.SECONDS);
+        CompletableFuture<Long> f = messenger.send(nodeId, pr);
+        return f.get();
     }
 
     public Value get(Key key) {
-        if (key == null) throw new IllegalArgumentException("Key cannot be null");
-        checkDataStructureRetrieved();
         try {
-            return sendGetRequest(key);
-        } catch (InterruptedException | ExecutionException | TimeoutException xcp) {
+            return getAsync(key).get();
+        } catch (InterruptedException | ExecutionException xcp) {
             throw new RuntimeException(xcp);
         }
     }
 
-    private Value sendGetRequest(Key key) throws InterruptedException, ExecutionException, TimeoutException {
-        Short nodeId = rendezVousHashTheKeyToANode(key);
+    /**
+     * Same as get without blocking the caller.
+     * The future fails with a TimeoutException if the node owning the key doesn't answer in time.
+     */
+    public CompletableFuture<Value> getAsync(Key key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        checkDataStructureRetrieved();
+        short nodeId = rendezVousHashTheKeyToANode(key);
         Long blockId = hashTable.get(nodeId);
 
         // if the blockId is null, there's no record
         if (blockId == null) {
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
 
         GetRequest getReq = new GetRequest(key, blockId);
-        Future<Value> f = messenger.send(nodeId, getReq);
-        return f.get(TIMEOUT_SECS, TimeUnit.SECONDS);
+        return messenger.send(nodeId, getReq);
+    }
+
+    /**
+     * Puts all entries with one message per node that owns any of the keys.
+     * The messages go out at the same time and each node applies its batch in a single transaction.
+     */
+    public void putAll(Map<Key, Value> entries, Txn txn) {
+        if (txn == null) throw new IllegalArgumentException("Txn cannot be null");
+        checkDataStructureRetrieved();
+        Map<Short, List<Key>> keysByNode = groupByNode(entries.keySet());
+
+        Map<Short, CompletableFuture<Long>> futures = new HashMap<>(keysByNode.size());
+        keysByNode.forEach((nodeId, keys) -> {
+            List<Object> values = new ArrayList<>(keys.size());
+            keys.forEach(key -> values.add(entries.get(key)));
+            PutAllRequest pr = new PutAllRequest(keys, values, hashTable.get(nodeId));
+            futures.put(nodeId, messenger.send(nodeId, pr));
+        });
+
+        try {
+            for (Map.Entry<Short, CompletableFuture<Long>> e : futures.entrySet()) {
+                Long blockId = e.getValue().get();
+                if (hashTable.put(e.getKey(), blockId) == null) {
+                    addToObjectSize(sizeOfObject(e.getKey()) + MAX_ID_SIZE);
+                }
+            }
+        } catch (InterruptedException | ExecutionException xcp) {
+            throw new RuntimeException(xcp);
+        }
+    }
+
+    /**
+     * Looks up all keys with one message per node that owns any of them.
+     * The returned map contains keys without a value as well (mapped to null).
+     */
+    public Map<Key, Value> getAll(Collection<Key> keys) {
+        try {
+            return getAllAsync(keys).get();
+        } catch (InterruptedException | ExecutionException xcp) {
+            throw new RuntimeException(xcp);
+        }
+    }
+
+    /**
+     * Same as getAll without blocking the caller.
+     * The future fails as soon as any of the nodes fails or doesn't answer in time.
+     * The requests to all other nodes are cancelled then.
+     */
+    public CompletableFuture<Map<Key, Value>> getAllAsync(Collection<Key> keys) {
+        if (keys == null) throw new IllegalArgumentException("Keys cannot be null");
+        checkDataStructureRetrieved();
+        Map<Short, List<Key>> keysByNode = groupByNode(keys);
+
+        Map<Key, Value> result = new ConcurrentHashMap<>(keys.size());
+        List<CompletableFuture<List<Value>>> requests = new ArrayList<>(keysByNode.size());
+        List<CompletableFuture<Void>> futures = new ArrayList<>(keysByNode.size());
+        keysByNode.forEach((nodeId, nodeKeys) -> {
+            Long blockId = hashTable.get(nodeId);
+            // if the blockId is null, there's no record on that node
+            if (blockId != null) {
+                CompletableFuture<List<Value>> f = messenger.send(nodeId, new GetAllRequest(nodeKeys, blockId));
+                requests.add(f);
+                futures.add(f.thenAccept(values -> {
+                    for (int i = 0; i < nodeKeys.size(); i++) {
+                        // concurrent maps don't take null values
+                        Value value = values.get(i);
+                        if (value != null) result.put(nodeKeys.get(i), value);
+                    }
+                }));
+            }
+        });
+
+        CompletableFuture<Map<Key, Value>> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                .thenApply(v -> {
+                    Map<Key, Value> m = new HashMap<>(result);
+                    keys.forEach(key -> m.putIfAbsent(key, null));
+                    return m;
+                });
+        // allOf waits for all requests even if one of them failed already
+        // the first failure fails the result right away
+        futures.forEach(f -> f.whenComplete((v, xcp) -> {
+            if (xcp != null && all.completeExceptionally(xcp)) {
+                requests.forEach(r -> r.cancel(false));
+            }
+        }));
+        return all;
+    }
+
+    private Map<Short, List<Key>> groupByNode(Collection<Key> keys) {
+        Map<Short, List<Key>> keysByNode = new HashMap<>();
+        for (Key key : keys) {
+            if (key == null) throw new IllegalArgumentException("Key cannot be null");
+            keysByNode.computeIfAbsent(rendezVousHashTheKeyToANode(key), nodeId -> new ArrayList<>()).add(key);
+        }
+        return keysByNode;
     }
 
     public boolean delete(Key key, Txn txn) {
@@ -174,33 +261,10 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
     }
 
     // my little implementation of rendez-vous hashing
-    Short rendezVousHashTheKeyToANode(Key key) {
-        Set<Short> allNodes = getNodes();
-        Map<Short, Long> nodeToHash = new HashMap<>(allNodes.size());
-        allNodes.forEach(nodeId -> nodeToHash.put(nodeId, computeHashForGalaxyNode(key, nodeId)));
-        Optional<Map.Entry<Short, Long>> maxOpt = nodeToHash.entrySet().stream().max(Map.Entry.comparingByValue());
-        if (maxOpt.isPresent()) {
-            return maxOpt.get().getKey();
-        } else {
-            throw new IllegalStateException("Can't find suitable node to place key: " + key);
-        }
-    }
-
-    private long computeHashForGalaxyNode(Key key, Short nodeId) {
-        return hf.newHasher()
-                .putObject(key, keyFunnel)
-                .putObject(nodeId, nodeInfoFunnel)
-                .hash()
-                .asLong();
-    }
-
-    protected Set<Short> getNodes() {
-        Set<Short> nodes = cluster.getNodes();
-        return (nodes.size() > 0) ? nodes : ImmutableSet.of(cluster.getMyNodeId());
-    }
-
-    protected short getMyNodeId(Cluster cluster) {
-        return cluster.getMyNodeId();
+    // the hash of a key doesn't depend on the node doing the routing
+    // that way all nodes agree on where a key lives
+    short rendezVousHashTheKeyToANode(Key key) {
+        return router.route(key);
     }
 
     /////////////////////////////////////////////////////////////
@@ -221,11 +285,13 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
         try {
             Integer tmp = (Integer) in.readObject();
             hashTableSize = (tmp != null) ? tmp : 0;
+            addObjectToObjectSize(hashTableSize);
 
             for (int i = 0; i < hashTableSize && in.available() > 0; i++) {
                 Short nodeId = (Short) in.readObject();
                 Long blockId = (Long) in.readObject();
                 hashTable.put(nodeId, blockId);
+                addToObjectSize(sizeOfObject(nodeId) + MAX_ID_SIZE);
             }
         } catch (IOException xcp) {
             throw new RuntimeException(xcp);
@@ -248,6 +314,19 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
     private static final String PUT_RESPONSE_TOPIC = "resp:P";
     private static final String GET_REQUEST_TOPIC = "req:G";
     private static final String GET_RESPONSE_TOPIC = "resp:G";
+    private static final String PUT_ALL_REQUEST_TOPIC = "req:PA";
+    private static final String GET_ALL_REQUEST_TOPIC = "req:GA";
+    private static final String GET_ALL_RESPONSE_TOPIC = "resp:GA";
+
+    // every message starts with one of these
+    // it catches messages that end up with the wrong listener
+    private static final byte PUT_REQUEST_TYPE = 1;
+    private static final byte PUT_RESPONSE_TYPE = 2;
+    private static final byte GET_REQUEST_TYPE = 3;
+    private static final byte GET_RESPONSE_TYPE = 4;
+    private static final byte PUT_ALL_REQUEST_TYPE = 5;
+    private static final byte GET_ALL_REQUEST_TYPE = 6;
+    private static final byte GET_ALL_RESPONSE_TYPE = 7;
 
     /**
      * This class is a data container for a put request.
@@ -256,10 +335,9 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
      */
     static class PutRequest extends BaseMessage {
         // wire format:
-        //  1. requestId
-        //  2. key
-        //  3. value
-        //  4. blockId (optional)
+        //  1. key
+        //  2. value
+        //  3. blockId (optional)
         final Comparable key;
         final Object value;
         final Long blockId;
@@ -275,7 +353,6 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
         // and converting that into a pojo
         PutRequest(byte[] bytes) {
             try (In in = getIn(bytes)) {
-                this.requestId = (UUID) in.read();
                 this.key = (Comparable) in.read();
                 this.value = in.read();
                 this.blockId = (Long) in.read();
@@ -289,9 +366,13 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
             return PUT_REQUEST_TOPIC;
         }
 
+        @Override
+        byte getMessageType() {
+            return PUT_REQUEST_TYPE;
+        }
+
         @Override
         void toBytes(Out out) {
-            out.write(requestId);
             out.write(key);
             out.write(value);
             out.write(blockId);
@@ -303,8 +384,7 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
      */
     static class PutResponse extends BaseMessage {
         // wire format:
-        //  1. requestId
-        //  2. blockId
+        //  1. blockId
         final Long blockId;
 
         PutResponse(Long blockId) {
@@ -313,7 +393,6 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
 
         PutResponse(byte[] bytes) {
             try (In in = getIn(bytes)) {
-                this.requestId = (UUID) in.read();
                 this.blockId = (Long) in.read();
             } catch (Exception xcp) {
                 throw new RuntimeException(xcp);
@@ -325,9 +404,13 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
             return PUT_RESPONSE_TOPIC;
         }
 
+        @Override
+        byte getMessageType() {
+            return PUT_RESPONSE_TYPE;
+        }
+
         @Override
         void toBytes(Out out) {
-            out.write(requestId);
             out.write(blockId);
         }
     }
@@ -349,31 +432,61 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
                 Provider<TxnManager> txnManager,
                 Provider<Messenger> messenger
         ) {
+            this(dsFactory, txnManager, messenger, null);
+        }
+
+        PutRequestMessageListener(
+                Provider<InternalDataStructureFactory> dsFactory,
+                Provider<TxnManager> txnManager,
+                Provider<Messenger> messenger,
+                Executor executor
+        ) {
+            super(executor);
             this.dsFactory = dsFactory;
             this.txnManager = txnManager;
             this.messenger = messenger;
         }
 
-        @SuppressWarnings("unchecked")
         @Override
         protected void handle(short fromNode, byte[] bytes) throws IOException {
             PutRequest req = new PutRequest(bytes);
+            putAllAndReply(fromNode, req.requestId, req.blockId, Collections.singletonList(req.key), Collections.singletonList(req.value));
+        }
 
+        /**
+         * Applies all puts in one transaction and replies with the id of the hash.
+         * If any of them fails, none of them are applied and the sender gets an error response.
+         */
+        void putAllAndReply(short fromNode, long requestId, Long reqBlockId, List<? extends Comparable> keys, List<Object> values) throws IOException {
             Long blockId;
             Txn txn = beginTransaction();
             try {
-                ChainingHash ch = (req.blockId == null) ?
+                ChainingHash ch = (reqBlockId == null) ?
                         newChainingHash(txn) :
-                        loadChainingHashForWrites(req.blockId, txn);
+                        loadChainingHashForWrites(reqBlockId, txn);
 
-                put(ch, req.key, req.value, txn);
+                for (int i = 0; i < keys.size(); i++) {
+                    put(ch, keys.get(i), values.get(i), txn);
+                }
                 blockId = ch.getId();
-            } finally {
+            } catch (RuntimeException xcp) {
+                try {
+                    txn.rollback();
+                } finally {
+                    replyTo(fromNode, requestId, new ErrorResponse(xcp));
+                }
+                throw xcp;
+            }
+
+            try {
                 txn.commit();
+            } catch (IOException xcp) {
+                replyTo(fromNode, requestId, new ErrorResponse(xcp));
+                throw xcp;
             }
 
             PutResponse resp = new PutResponse(blockId);
-            replyTo(fromNode, req.requestId, resp);
+            replyTo(fromNode, requestId, resp);
         }
 
         @SuppressWarnings("unchecked")
@@ -381,10 +494,15 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
             ch.put(key, value, txn);
         }
 
-        protected void replyTo(short toNode, UUID requestId, BaseMessage messageToSend) {
+        protected void replyTo(short toNode, long requestId, BaseMessage messageToSend) {
             messenger.get().replyTo(toNode, requestId, messageToSend);
         }
 
+        @Override
+        protected void rejected(short fromNode, byte[] bytes) {
+            replyTo(fromNode, BaseMessage.readRequestId(bytes), ErrorResponse.busy());
+        }
+
         protected Txn beginTransaction() {
             return txnManager.get().beginTransaction();
         }
@@ -400,8 +518,7 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
 
     static class PutResponseMessageListener extends BaseMessageListener {
         // wire format:
-        //  1. requestId
-        //  2. blockId
+        //  1. blockId
         final static String TOPIC = PUT_RESPONSE_TOPIC;
 
         private final Provider<Messenger> messenger;
@@ -416,16 +533,102 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
             complete(resp.requestId, resp.blockId);
         }
 
-        protected void complete(UUID requestId, Object blockId) {
+        protected void complete(long requestId, Object blockId) {
             messenger.get().complete(requestId, blockId);
         }
     }
 
+    /**
+     * A put request for a batch of keys that all live on the same node.
+     * The recipient replies with a regular put response.
+     */
+    static class PutAllRequest extends BaseMessage {
+        // wire format:
+        //  1. blockId (optional)
+        //  2. number of entries
+        //  3. key and value of every entry
+        final List<? extends Comparable> keys;
+        final List<Object> values;
+        final Long blockId;
+
+        PutAllRequest(List<? extends Comparable> keys, List<Object> values, Long blockId) {
+            this.keys = keys;
+            this.values = values;
+            this.blockId = blockId;
+        }
+
+        PutAllRequest(byte[] bytes) {
+            try (In in = getIn(bytes)) {
+                this.blockId = (Long) in.read();
+                int n = (Integer) in.read();
+                List<Comparable> keys = new ArrayList<>(n);
+                List<Object> values = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    keys.add((Comparable) in.read());
+                    values.add(in.read());
+                }
+                this.keys = keys;
+                this.values = values;
+            } catch (Exception xcp) {
+                throw new RuntimeException(xcp);
+            }
+        }
+
+        @Override
+        String getTopic() {
+            return PUT_ALL_REQUEST_TOPIC;
+        }
+
+        @Override
+        byte getMessageType() {
+            return PUT_ALL_REQUEST_TYPE;
+        }
+
+        @Override
+        void toBytes(Out out) {
+            out.write(blockId);
+            out.write(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.write(keys.get(i));
+                out.write(values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Same as the put request listener only that it applies an entire batch in one transaction.
+     */
+    static class PutAllRequestMessageListener extends PutRequestMessageListener {
+        final static String TOPIC = PUT_ALL_REQUEST_TOPIC;
+
+        PutAllRequestMessageListener(
+                Provider<InternalDataStructureFactory> dsFactory,
+                Provider<TxnManager> txnManager,
+                Provider<Messenger> messenger
+        ) {
+            this(dsFactory, txnManager, messenger, null);
+        }
+
+        PutAllRequestMessageListener(
+                Provider<InternalDataStructureFactory> dsFactory,
+                Provider<TxnManager> txnManager,
+                Provider<Messenger> messenger,
+                Executor executor
+        ) {
+            super(dsFactory, txnManager, messenger, executor);
+        }
+
+        @Override
+        protected void handle(short fromNode, byte[] bytes) throws IOException {
+            PutAllRequest req = new PutAllRequest(bytes);
+            putAllAndReply(fromNode, req.requestId, req.blockId, req.keys, req.values);
+        }
+    }
+
     static class GetRequest extends BaseMessage {
         // wire format:
-        //  1. request id
-        //  2. key
-        //  3. blockId
+        //  1. key
+        //  2. blockId
         final Comparable key;
         final Long blockId;
 
@@ -436,7 +639,6 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
 
         GetRequest(byte[] bytes) {
             try (In in = getIn(bytes)) {
-                this.requestId = (UUID) in.read();
                 this.key = (Comparable) in.read();
                 this.blockId = (Long) in.read();
             } catch (Exception xcp) {
@@ -449,9 +651,13 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
             return GET_REQUEST_TOPIC;
         }
 
+        @Override
+        byte getMessageType() {
+            return GET_REQUEST_TYPE;
+        }
+
         @Override
         void toBytes(Out out) {
-            out.write(requestId);
             out.write(key);
             out.write(blockId);
         }
@@ -459,8 +665,7 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
 
     static class GetResponse extends BaseMessage {
         // wire format:
-        //  1. request id
-        //  2. value (optional)
+        //  1. value (optional)
         final Object value;
 
         GetResponse(Object value) {
@@ -469,7 +674,6 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
 
         GetResponse(byte[] bytes) {
             try (In in = getIn(bytes)) {
-                this.requestId = (UUID) in.read();
                 this.value = in.read();
             } catch (Exception xcp) {
                 throw new RuntimeException(xcp);
@@ -481,9 +685,13 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
             return GET_RESPONSE_TOPIC;
         }
 
+        @Override
+        byte getMessageType() {
+            return GET_RESPONSE_TYPE;
+        }
+
         @Override
         void toBytes(Out out) {
-            out.write(requestId);
             out.write(value);
         }
     }
@@ -491,14 +699,18 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
     static class GetRequestMessageListener extends BaseMessageListener {
         // wire format:
         //  1. key
-        //  2. request id
-        //  3. blockId
+        //  2. blockId
         final static String TOPIC = GET_REQUEST_TOPIC;
 
         private final Provider<InternalDataStructureFactory> dsFactory;
         private final Provider<Messenger> messenger;
 
         GetRequestMessageListener(Provider<InternalDataStructureFactory> dsFactory, Provider<Messenger> messenger) {
+            this(dsFactory, messenger, null);
+        }
+
+        GetRequestMessageListener(Provider<InternalDataStructureFactory> dsFactory, Provider<Messenger> messenger, Executor executor) {
+            super(executor);
             this.dsFactory = dsFactory;
             this.messenger = messenger;
         }
@@ -523,15 +735,19 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
             return dsFactory.get().loadChainingHash(blockId);
         }
 
-        protected void replyTo(short toNode, UUID requestId, BaseMessage messageToSend) {
+        protected void replyTo(short toNode, long requestId, BaseMessage messageToSend) {
             messenger.get().replyTo(toNode, requestId, messageToSend);
         }
+
+        @Override
+        protected void rejected(short fromNode, byte[] bytes) {
+            replyTo(fromNode, BaseMessage.readRequestId(bytes), ErrorResponse.busy());
+        }
     }
 
     static class GetResponseMessageListener extends BaseMessageListener {
         // wire format:
-        //  1. request id
-        //  2. value (optional)
+        //  1. value (optional)
         final static String TOPIC = GET_RESPONSE_TOPIC;
 
         private final Provider<Messenger> messenger;
@@ -546,8 +762,148 @@ class DistHash<Key extends Comparable<Key>, Value> extends DataStructure {
             complete(resp.requestId, resp.value);
         }
 
-        protected void complete(UUID requestId, Object value) {
+        protected void complete(long requestId, Object value) {
             messenger.get().complete(requestId, value);
         }
     }
+
+    static class GetAllRequest extends BaseMessage {
+        // wire format:
+        //  1. blockId
+        //  2. number of keys
+        //  3. all keys
+        final List<? extends Comparable> keys;
+        final Long blockId;
+
+        GetAllRequest(List<? extends Comparable> keys, Long blockId) {
+            this.keys = keys;
+            this.blockId = blockId;
+        }
+
+        GetAllRequest(byte[] bytes) {
+            try (In in = getIn(bytes)) {
+                this.blockId = (Long) in.read();
+                int n = (Integer) in.read();
+                List<Comparable> keys = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    keys.add((Comparable) in.read());
+                }
+                this.keys = keys;
+            } catch (Exception xcp) {
+                throw new RuntimeException(xcp);
+            }
+        }
+
+        @Override
+        String getTopic() {
+            return GET_ALL_REQUEST_TOPIC;
+        }
+
+        @Override
+        byte getMessageType() {
+            return GET_ALL_REQUEST_TYPE;
+        }
+
+        @Override
+        void toBytes(Out out) {
+            out.write(blockId);
+            out.write(keys.size());
+            for (Comparable key : keys) {
+                out.write(key);
+            }
+        }
+    }
+
+    static class GetAllResponse extends BaseMessage {
+        // wire format:
+        //  1. number of values
+        //  2. all values (optional) in the order of the keys in the request
+        final List<Object> values;
+
+        GetAllResponse(List<Object> values) {
+            this.values = values;
+        }
+
+        GetAllResponse(byte[] bytes) {
+            try (In in = getIn(bytes)) {
+                int n = (Integer) in.read();
+                List<Object> values = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    values.add(in.read());
+                }
+                this.values = values;
+            } catch (Exception xcp) {
+                throw new RuntimeException(xcp);
+            }
+        }
+
+        @Override
+        String getTopic() {
+            return GET_ALL_RESPONSE_TOPIC;
+        }
+
+        @Override
+        byte getMessageType() {
+            return GET_ALL_RESPONSE_TYPE;
+        }
+
+        @Override
+        void toBytes(Out out) {
+            out.write(values.size());
+            for (Object value : values) {
+                out.write(value);
+            }
+        }
+    }
+
+    static class GetAllRequestMessageListener extends GetRequestMessageListener {
+        final static String TOPIC = GET_ALL_REQUEST_TOPIC;
+
+        GetAllRequestMessageListener(Provider<InternalDataStructureFactory> dsFactory, Provider<Messenger> messenger) {
+            this(dsFactory, messenger, null);
+        }
+
+        GetAllRequestMessageListener(Provider<InternalDataStructureFactory> dsFactory, Provider<Messenger> messenger, Executor executor) {
+            super(dsFactory, messenger, executor);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void handle(short fromNode, byte[] bytes) throws IOException {
+            GetAllRequest req = new GetAllRequest(bytes);
+
+            if (req.blockId != null) {
+                ChainingHash ch = loadChainingHash(req.blockId);
+                List<Object> values = new ArrayList<>(req.keys.size());
+                for (Comparable key : req.keys) {
+                    values.add(ch.get(key));
+                }
+
+                GetAllResponse resp = new GetAllResponse(values);
+                replyTo(fromNode, req.requestId, resp);
+            } else {
+                throw new RuntimeException("blockId is null");
+            }
+        }
+    }
+
+    static class GetAllResponseMessageListener extends BaseMessageListener {
+        final static String TOPIC = GET_ALL_RESPONSE_TOPIC;
+
+        private final Provider<Messenger> messenger;
+
+        GetAllResponseMessageListener(Provider<Messenger> messenger) {
+            this.messenger = messenger;
+        }
+
+        @Override
+        protected void handle(short fromNode, byte[] bytes) throws IOException {
+            GetAllResponse resp = new GetAllResponse(bytes);
+            complete(resp.requestId, resp.values);
+        }
+
+        protected void complete(long requestId, Object values) {
+            messenger.get().complete(requestId, values);
+        }
+    }
 }
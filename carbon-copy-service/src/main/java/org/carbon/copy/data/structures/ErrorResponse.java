@@ -0,0 +1,75 @@
+package org.carbon.copy.data.structures;
+
+import com.google.inject.Provider;
+
+/**
+ * Tells the sender of a request that the request couldn't be handled.
+ * The future of the request fails right away instead of waiting for the timeout.
+ */
+class ErrorResponse extends BaseMessage {
+    // wire format:
+    //  1. error message
+    private static final String TOPIC = "resp:E";
+    // data structure messages count their types up from one
+    private static final byte TYPE = -1;
+
+    final String message;
+
+    ErrorResponse(String message) {
+        this.message = message;
+    }
+
+    ErrorResponse(Exception xcp) {
+        this(xcp.getClass().getName() + ": " + xcp.getMessage());
+    }
+
+    /**
+     * Goes out when a node has more requests on its plate than it can take.
+     */
+    static ErrorResponse busy() {
+        return new ErrorResponse("Too busy to handle the request");
+    }
+
+    ErrorResponse(byte[] bytes) {
+        try (In in = getIn(bytes)) {
+            this.message = (String) in.read();
+        } catch (Exception xcp) {
+            throw new RuntimeException(xcp);
+        }
+    }
+
+    @Override
+    String getTopic() {
+        return TOPIC;
+    }
+
+    @Override
+    byte getMessageType() {
+        return TYPE;
+    }
+
+    @Override
+    void toBytes(Out out) {
+        out.write(message);
+    }
+
+    static class ErrorResponseMessageListener extends BaseMessageListener {
+        final static String TOPIC = ErrorResponse.TOPIC;
+
+        private final Provider<Messenger> messenger;
+
+        ErrorResponseMessageListener(Provider<Messenger> messenger) {
+            this.messenger = messenger;
+        }
+
+        @Override
+        protected void handle(short fromNode, byte[] bytes) {
+            ErrorResponse resp = new ErrorResponse(bytes);
+            fail(resp.requestId, new RuntimeException("Node " + fromNode + " failed request " + resp.requestId + " with " + resp.message));
+        }
+
+        protected void fail(long requestId, Throwable cause) {
+            messenger.get().fail(requestId, cause);
+        }
+    }
+}
@@ -24,8 +24,6 @@ import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.UUID;
 
 /**
@@ -34,20 +32,21 @@ import java.util.UUID;
  */
 @DefaultSerializer(GUID.GUIDSerializer.class)
 public class GUID extends Sizable implements Comparable<GUID> {
+    // the serializer writes two raw longs
+    private static final int SERIALIZED_SIZE = 16;
+
     private final UUID internalId;
 
     /**
      * Private ctor for serializer use only.
      */
-    @SuppressWarnings("unused")
     private GUID(UUID uuid) {
         this.internalId = uuid;
+        addToObjectSize(SERIALIZED_SIZE);
     }
 
     private GUID() {
-        internalId = UUID.randomUUID();
-        addObjectToObjectSize(internalId.getMostSignificantBits());
-        addObjectToObjectSize(internalId.getLeastSignificantBits());
+        this(UUID.randomUUID());
     }
 
     /**
@@ -84,19 +83,15 @@ public class GUID extends Sizable implements Comparable<GUID> {
     public final static class GUIDSerializer extends Serializer<GUID> {
         @Override
         public void write(Kryo kryo, Output output, GUID guid) {
-            kryo.writeClassAndObject(output, guid.internalId);
+            output.writeLong(guid.internalId.getMostSignificantBits());
+            output.writeLong(guid.internalId.getLeastSignificantBits());
         }
 
         @Override
         public GUID read(Kryo kryo, Input input, Class<GUID> aClass) {
-            UUID uuid = (UUID) kryo.readClassAndObject(input);
-            try {
-                Constructor<GUID> ctor = aClass.getDeclaredConstructor(UUID.class);
-                ctor.setAccessible(true);
-                return ctor.newInstance(uuid);
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                throw new RuntimeException(e);
-            }
+            long mostSignificantBits = input.readLong();
+            long leastSignificantBits = input.readLong();
+            return new GUID(new UUID(mostSignificantBits, leastSignificantBits));
         }
     }
 }
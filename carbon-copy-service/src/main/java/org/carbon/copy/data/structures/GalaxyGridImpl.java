@@ -5,16 +5,27 @@ import co.paralleluniverse.galaxy.Grid;
 import co.paralleluniverse.galaxy.Messenger;
 import co.paralleluniverse.galaxy.Store;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
 class GalaxyGridImpl implements GalaxyGrid {
 
     private final Grid grid;
+    // requests from other nodes are handled in this pool
+    // it lives and dies with the grid since that's where requests come from
+    private final ExecutorService requestExecutor;
 
-    GalaxyGridImpl(String configFile, String propertiesFile) {
+    GalaxyGridImpl(String configFile, String propertiesFile, int requestHandlerThreads, int requestHandlerQueueSize) {
         try {
             this.grid = Grid.getInstance(configFile, propertiesFile);
         } catch (InterruptedException xcp) {
             throw new RuntimeException(xcp);
         }
+        this.requestExecutor = BaseMessageListener.newRequestHandlerExecutor(requestHandlerThreads, requestHandlerQueueSize);
+    }
+
+    ExecutorService requestExecutor() {
+        return requestExecutor;
     }
 
     @Override
@@ -40,6 +51,17 @@ class GalaxyGridImpl implements GalaxyGrid {
     @Override
     public void stop() {
         grid.cluster().goOffline();
+        // no new requests come in once the node is offline
+        // requests that are being handled get a chance to finish
+        requestExecutor.shutdown();
+        try {
+            if (!requestExecutor.awaitTermination(DataStructure.TIMEOUT_SECS, TimeUnit.SECONDS)) {
+                requestExecutor.shutdownNow();
+            }
+        } catch (InterruptedException xcp) {
+            requestExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -0,0 +1,183 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A timer for lots of short timeouts that mostly never fire.
+ * Every request in flight has a timeout and almost all of them are cancelled
+ * because the response arrives in time. Scheduling and cancelling are constant time
+ * and a single thread walks the wheel one bucket per tick.
+ *
+ * Timeouts fire up to one tick late. That's fine for expiring requests.
+ */
+class HashedWheelTimer {
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long tickNanos;
+    private final List<List<Timeout>> wheel;
+    private final int mask;
+    // new timeouts are handed to the worker thread through this queue
+    // the buckets of the wheel are only ever touched by the worker
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isStarted = new AtomicBoolean(false);
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean isStopped = false;
+
+    HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("Tick duration must be positive");
+        if (ticksPerWheel <= 0) throw new IllegalArgumentException("Ticks per wheel must be positive");
+        this.tickNanos = unit.toNanos(tickDuration);
+        // round up to the next power of two
+        // that way the bucket of a tick is a bitmask away
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        size = Math.max(size, 1);
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Runs the task once the delay has passed unless the returned timeout is cancelled before that.
+     * Tasks run on the timer thread and should be quick.
+     */
+    Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (isStopped) throw new IllegalStateException("Timer has been stopped");
+        if (isStarted.compareAndSet(false, true)) {
+            worker.start();
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    void stop() {
+        isStopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!isStopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException xcp) {
+                    if (isStopped) return;
+                }
+                continue;
+            }
+
+            transferPendingTimeouts(tick);
+            expire(wheel.get((int) (tick & mask)), deadline);
+            tick++;
+        }
+    }
+
+    private void transferPendingTimeouts(long currentTick) {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.isDone()) continue;
+            // timeouts that should have fired already go into the current bucket
+            long ticks = Math.max(timeout.deadline / tickNanos, currentTick);
+            timeout.remainingRounds = (ticks - currentTick) / wheel.size();
+            wheel.get((int) (ticks & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket, long deadline) {
+        Iterator<Timeout> iter = bucket.iterator();
+        while (iter.hasNext()) {
+            Timeout timeout = iter.next();
+            if (timeout.isDone()) {
+                iter.remove();
+            } else if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                iter.remove();
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    static class Timeout {
+        // cancelled timeouts stay in the wheel until the worker passes by their bucket
+        // dropping the task early lets go of everything it holds on to
+        private volatile Runnable task;
+        // nanos since the start of the timer
+        private final long deadline;
+        // how many more times the wheel needs to go around before this timeout fires
+        // only touched by the worker thread
+        private long remainingRounds;
+        private final AtomicBoolean isDone = new AtomicBoolean(false);
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Returns false if the timeout fired or was cancelled already.
+         */
+        boolean cancel() {
+            if (isDone.compareAndSet(false, true)) {
+                task = null;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Whether the timeout fired or was cancelled.
+         */
+        boolean isDone() {
+            return isDone.get();
+        }
+
+        private void expire() {
+            if (isDone.compareAndSet(false, true)) {
+                Runnable t = task;
+                task = null;
+                try {
+                    t.run();
+                } catch (Exception xcp) {
+                    logger.error("Timeout task failed", xcp);
+                }
+            }
+        }
+    }
+}
@@ -19,15 +19,28 @@
 package org.carbon.copy.data.structures;
 
 import co.paralleluniverse.galaxy.Store;
+import com.google.common.collect.Iterables;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class Index extends TopLevelDataStructure {
     // this tree holds the index data
-    private BTree<Tuple, GUID> bTree;
+    // unique indexes map keys to GUIDs, non-unique indexes map keys to posting lists
+    private BTree<Tuple, Object> bTree;
+    private boolean isUnique = true;
+    // covering indexes keep the values of these columns next to the key
+    // in that case unique indexes map keys to tuples with the included values (and the GUID of the row)
+    private List<Tuple> includedColumns = Collections.emptyList();
 
     Index(Store store, InternalDataStructureFactory dsFactory, Builder builder, Txn txn) {
         super(store, dsFactory, txn, builder.getName());
@@ -38,6 +51,11 @@ public class Index extends TopLevelDataStructure {
         // have an id
         bTree.checkDataStructureRetrieved();
         addObjectToObjectSize(bTree.getId());
+        isUnique = builder.isUnique();
+        addObjectToObjectSize(isUnique);
+        includedColumns = new ArrayList<>(builder.getIncludedColumnMetadata());
+        addObjectToObjectSize(includedColumns.size());
+        includedColumns.forEach(this::addObjectToObjectSize);
         // only then upsert yourself
         asyncUpsert(txn);
         addColumns(txn, builder.getColumnMetadata());
@@ -53,36 +71,344 @@ public class Index extends TopLevelDataStructure {
         asyncLoadForWrites(txn);
     }
 
+    public boolean isUnique() {
+        checkDataStructureRetrieved();
+        return isUnique;
+    }
+
+    /**
+     * Covering indexes store the values of the included columns in their leaves.
+     * That way queries that only need the indexed and included columns never go to the table.
+     */
+    public boolean isCovering() {
+        checkDataStructureRetrieved();
+        return !includedColumns.isEmpty();
+    }
+
+    public List<String> getIncludedColumnNames() {
+        checkDataStructureRetrieved();
+        List<String> names = new ArrayList<>(includedColumns.size());
+        for (Tuple column : includedColumns) {
+            names.add((String) column.get(0));
+        }
+        return names;
+    }
+
+    /**
+     * Unique indexes map every tuple to exactly one GUID and inserting a tuple again overrides its GUID.
+     * Non-unique indexes keep all GUIDs that were inserted for a tuple.
+     */
     public void insert(Tuple tuple, GUID guid, Txn txn) {
         checkDataStructureRetrieved();
         verifyDataColumnTypes(tuple);
-        bTree.put(tuple, guid, txn);
+        if (!includedColumns.isEmpty()) throw new IllegalStateException("Index " + getName() + " is covering. Insert tuples with their included values.");
+        if (isUnique) {
+            bTree.put(tuple, guid, txn);
+        } else {
+            addToPostingList(tuple, guid, txn);
+        }
     }
 
+    /**
+     * Inserts a tuple into a covering index along with the values of the included columns.
+     */
+    public void insert(Tuple tuple, GUID guid, Tuple includedValues, Txn txn) {
+        checkDataStructureRetrieved();
+        verifyDataColumnTypes(tuple);
+        verifyIncludedColumnTypes(includedValues);
+        bTree.put(tuple, includedValues.copyWithGuid(guid), txn);
+    }
+
+    /**
+     * Fills an empty index in one go.
+     * This is a lot cheaper than inserting one tuple at a time.
+     * The entries don't need to be sorted.
+     */
+    public void insertAll(Iterable<Pair<Tuple, GUID>> entries, Txn txn) {
+        checkDataStructureRetrieved();
+        if (!includedColumns.isEmpty()) throw new IllegalStateException("Index " + getName() + " is covering. Insert tuples with their included values.");
+        Iterable<Pair<Tuple, GUID>> verifiedEntries = () -> StreamSupport.stream(entries.spliterator(), false)
+                .peek(entry -> verifyDataColumnTypes(entry.getKey()))
+                .iterator();
+        if (isUnique) {
+            bTree.bulkLoad(() -> StreamSupport.stream(verifiedEntries.spliterator(), false)
+                    .map(entry -> Pair.<Tuple, Object>of(entry.getKey(), entry.getValue()))
+                    .iterator(), txn);
+        } else {
+            bTree.bulkLoad(toPostingLists(verifiedEntries, txn), txn);
+        }
+    }
+
+    /**
+     * Fills an empty covering index in one go.
+     * Every entry carries a tuple, its GUID and the values of the included columns.
+     */
+    public void insertAllWithIncludedValues(Iterable<Triple<Tuple, GUID, Tuple>> entries, Txn txn) {
+        checkDataStructureRetrieved();
+        bTree.bulkLoad(() -> StreamSupport.stream(entries.spliterator(), false)
+                .peek(entry -> verifyDataColumnTypes(entry.getLeft()))
+                .peek(entry -> verifyIncludedColumnTypes(entry.getRight()))
+                .map(entry -> Pair.<Tuple, Object>of(entry.getLeft(), entry.getRight().copyWithGuid(entry.getMiddle())))
+                .iterator(), txn);
+    }
+
+    /**
+     * Deletes a tuple and all GUIDs that go with it.
+     */
+    public void delete(Tuple tuple, Txn txn) {
+        checkDataStructureRetrieved();
+        verifyDataColumnTypes(tuple);
+        if (!isUnique) {
+            Object value = bTree.get(tuple);
+            if (value != null && ((PostingList) value).isSpilled()) {
+                deletePostingTree(((PostingList) value).getTreeId(), txn);
+            }
+        }
+        bTree.delete(tuple, txn);
+    }
+
+    /**
+     * Deletes a single GUID of a tuple and leaves all other GUIDs of the tuple alone.
+     */
+    public void delete(Tuple tuple, GUID guid, Txn txn) {
+        checkDataStructureRetrieved();
+        verifyDataColumnTypes(tuple);
+        if (isUnique) {
+            if (guid.equals(guidOf(bTree.get(tuple)))) {
+                bTree.delete(tuple, txn);
+            }
+        } else {
+            removeFromPostingList(tuple, guid, txn);
+        }
+    }
+
+    /**
+     * Returns the GUID of a tuple in a unique index.
+     * Non-unique indexes need to use getAll.
+     */
     public GUID get(Tuple tuple) {
         checkDataStructureRetrieved();
         verifyDataColumnTypes(tuple);
-        return bTree.get(tuple);
+        if (!isUnique) throw new IllegalStateException("Index " + getName() + " is not unique. Use getAll to look up tuples.");
+        return guidOf(bTree.get(tuple));
+    }
+
+    /**
+     * Returns all GUIDs of a tuple.
+     */
+    public Iterable<GUID> getAll(Tuple tuple) {
+        checkDataStructureRetrieved();
+        verifyDataColumnTypes(tuple);
+        Object value = bTree.get(tuple);
+        if (value == null) {
+            return Collections.emptyList();
+        } else if (isUnique) {
+            return Collections.singletonList(guidOf(value));
+        } else {
+            return guidsOf((PostingList) value);
+        }
     }
 
+    /**
+     * Returns the GUIDs of all tuples between fromTuple and toTuple (both inclusive).
+     * Non-unique indexes return all GUIDs of a tuple before moving on to the next tuple.
+     */
     public Iterable<GUID> get(Tuple fromTuple, Tuple toTuple) {
+        return get(fromTuple, true, toTuple, true);
+    }
+
+    /**
+     * Returns the GUIDs of all tuples between fromTuple and toTuple.
+     * Bounds can be shorter than the tuples in the index in which case they only restrict the leading columns.
+     * On an index on (tenant, ts) the bounds (X) and (X) return all tuples with tenant X and
+     * (X, Y) exclusive and (X) inclusive return all tuples with tenant X and a ts greater than Y.
+     * A null bound leaves its end of the range open.
+     * Nulls sort after all other values. That means (X, Y) exclusive and (X) inclusive also return
+     * all tuples with tenant X and a null ts. Use (X, null) exclusive as upper bound to leave them out.
+     */
+    public Iterable<GUID> get(Tuple fromTuple, boolean fromInclusive, Tuple toTuple, boolean toInclusive) {
+        checkDataStructureRetrieved();
+        if (fromTuple != null) verifyPrefixColumnTypes(fromTuple);
+        if (toTuple != null) verifyPrefixColumnTypes(toTuple);
+        return toGUIDs(bTree.scan(asBound(fromTuple), fromInclusive, asBound(toTuple), toInclusive, true, BTree.DEFAULT_READ_AHEAD));
+    }
+
+    /**
+     * Returns the GUIDs of all tuples that start with the fields of the prefix.
+     */
+    public Iterable<GUID> getByPrefix(Tuple prefix) {
+        if (prefix == null) throw new IllegalArgumentException("Prefix cannot be null");
+        return get(prefix, true, prefix, true);
+    }
+
+    private Iterable<GUID> toGUIDs(Iterable<Object> values) {
+        if (isUnique) {
+            return Iterables.transform(values, this::guidOf);
+        } else {
+            return Iterables.concat(Iterables.transform(values, value -> guidsOf((PostingList) value)));
+        }
+    }
+
+    /**
+     * Returns the fields of a tuple in a covering index followed by the values of its included columns.
+     * The GUID of the returned tuple is the GUID the tuple was inserted with.
+     */
+    public Tuple getCovered(Tuple tuple) {
         checkDataStructureRetrieved();
-        verifyDataColumnTypes(fromTuple);
-        verifyDataColumnTypes(toTuple);
-        return bTree.get(fromTuple, toTuple);
+        verifyDataColumnTypes(tuple);
+        verifyCovering();
+        Tuple includedValues = (Tuple) bTree.get(tuple);
+        return (includedValues != null) ? Tuple.concat(includedValues.getGuid(), tuple, includedValues) : null;
+    }
+
+    /**
+     * Same as get with bounds only that it returns the fields of all tuples followed by the values of their included columns.
+     * That's all an index-only scan needs.
+     */
+    public Iterable<Tuple> getCovered(Tuple fromTuple, boolean fromInclusive, Tuple toTuple, boolean toInclusive) {
+        checkDataStructureRetrieved();
+        verifyCovering();
+        if (fromTuple != null) verifyPrefixColumnTypes(fromTuple);
+        if (toTuple != null) verifyPrefixColumnTypes(toTuple);
+        return bTree.scan(asBound(fromTuple), fromInclusive, asBound(toTuple), toInclusive, true, BTree.DEFAULT_READ_AHEAD,
+                (tuple, value) -> Tuple.concat(((Tuple) value).getGuid(), tuple, (Tuple) value));
+    }
+
+    // covering indexes keep the GUID in the tuple of included values
+    private GUID guidOf(Object value) {
+        return (value instanceof Tuple) ? ((Tuple) value).getGuid() : (GUID) value;
+    }
+
+    private void verifyCovering() {
+        if (includedColumns.isEmpty()) throw new IllegalStateException("Index " + getName() + " doesn't include any columns");
+    }
+
+    private void verifyIncludedColumnTypes(Tuple includedValues) {
+        verifyCovering();
+        if (includedValues.getTupleSize() != includedColumns.size()) {
+            throw new IllegalArgumentException("Index " + getName() + " includes " + includedColumns.size() + " columns but got " + includedValues);
+        }
+        for (Tuple column : includedColumns) {
+            verifyColumnType(column, includedValues, false);
+        }
+    }
+
+    // bounds compare to the leading fields of the tuples in the index only
+    private static Comparable<Tuple> asBound(Tuple tuple) {
+        return (tuple != null) ? tuple::compareToPrefixOf : null;
     }
 
     public Stream<Tuple> keys() {
         return StreamSupport.stream(bTree.keys().spliterator(), false);
     }
 
+    /////////////////////////////////////////////////////////////
+    //////////////////////////////////////////////
+    // posting lists of non-unique indexes
+
+    private void addToPostingList(Tuple tuple, GUID guid, Txn txn) {
+        PostingList list = (PostingList) bTree.get(tuple);
+        if (list == null) {
+            bTree.put(tuple, PostingList.inline(Collections.singletonList(guid)), txn);
+        } else if (list.isSpilled()) {
+            BTree<GUID, Boolean> postingTree = dsFactory.loadBTree(list.getTreeId());
+            postingTree.put(guid, Boolean.TRUE, txn);
+        } else if (!list.isFull()) {
+            PostingList newList = list.with(guid);
+            if (newList != list) {
+                bTree.put(tuple, newList, txn);
+            }
+        } else if (!list.getGuids().contains(guid)) {
+            // the list outgrew its spot in the leaf
+            List<GUID> guids = new ArrayList<>(list.getGuids());
+            guids.add(guid);
+            bTree.put(tuple, spill(guids, txn), txn);
+        }
+    }
+
+    private void removeFromPostingList(Tuple tuple, GUID guid, Txn txn) {
+        PostingList list = (PostingList) bTree.get(tuple);
+        if (list == null) return;
+
+        if (list.isSpilled()) {
+            BTree<GUID, Boolean> postingTree = dsFactory.loadBTree(list.getTreeId());
+            postingTree.delete(guid, txn);
+            if (!postingTree.keys().iterator().hasNext()) {
+                postingTree.deleteEmpty(txn);
+                bTree.delete(tuple, txn);
+            }
+        } else {
+            PostingList newList = list.without(guid);
+            if (newList.getNumGuids() == 0) {
+                bTree.delete(tuple, txn);
+            } else if (newList != list) {
+                bTree.put(tuple, newList, txn);
+            }
+        }
+    }
+
+    /**
+     * Moves GUIDs into a tree of their own and returns a posting list pointing to that tree.
+     */
+    private PostingList spill(Collection<GUID> guids, Txn txn) {
+        BTree<GUID, Boolean> postingTree = dsFactory.newBTree(txn);
+        txn.addToChangedObjects(postingTree);
+        postingTree.bulkLoad(() -> guids.stream().map(guid -> Pair.of(guid, Boolean.TRUE)).iterator(), txn);
+        // the posting list needs the id of the tree
+        postingTree.checkDataStructureRetrieved();
+        return PostingList.spilled(postingTree.getId());
+    }
+
+    private void deletePostingTree(long treeId, Txn txn) {
+        BTree<GUID, Boolean> postingTree = dsFactory.loadBTree(treeId);
+        List<GUID> guids = new ArrayList<>();
+        postingTree.keys().forEach(guids::add);
+        for (GUID guid : guids) {
+            postingTree.delete(guid, txn);
+        }
+        postingTree.deleteEmpty(txn);
+    }
+
+    private Iterable<GUID> guidsOf(PostingList list) {
+        if (list.isSpilled()) {
+            BTree<GUID, Boolean> postingTree = dsFactory.loadBTree(list.getTreeId());
+            return postingTree.keys();
+        } else {
+            return list.getGuids();
+        }
+    }
+
+    /**
+     * Groups GUIDs by tuple into posting lists.
+     */
+    private Iterable<Pair<Tuple, Object>> toPostingLists(Iterable<Pair<Tuple, GUID>> entries, Txn txn) {
+        List<Pair<Tuple, GUID>> sortedEntries = new ArrayList<>();
+        entries.forEach(sortedEntries::add);
+        sortedEntries.sort(Comparator.comparing(Pair::getKey));
+
+        List<Pair<Tuple, Object>> lists = new ArrayList<>();
+        int i = 0;
+        while (i < sortedEntries.size()) {
+            Tuple tuple = sortedEntries.get(i).getKey();
+            Set<GUID> guids = new HashSet<>();
+            for (; i < sortedEntries.size() && tuple.equals(sortedEntries.get(i).getKey()); i++) {
+                guids.add(sortedEntries.get(i).getValue());
+            }
+            PostingList list = (guids.size() <= PostingList.MAX_INLINE_GUIDS) ? PostingList.inline(guids) : spill(guids, txn);
+            lists.add(Pair.of(tuple, list));
+        }
+        return lists;
+    }
+
     public static Builder newBuilder(String name) {
         return new Builder(name);
     }
 
     public static class Builder {
         private List<Tuple> columnMetadata = new ArrayList<>();
+        private List<Tuple> includedColumnMetadata = new ArrayList<>();
         private final String name;
+        private boolean isUnique = true;
 
         private Builder(String name) {
             this.name = name;
@@ -101,6 +427,37 @@ public class Index extends TopLevelDataStructure {
             return withColumn(name, columnMetadata.size(), type);
         }
 
+        /**
+         * Stores the value of a column next to the key in the leaves of the index.
+         * The index then takes included values in the order the columns were added.
+         */
+        public Index.Builder withIncludedColumn(String name, Class type) {
+            if (!isUnique) throw new IllegalStateException("Only unique indexes can include columns");
+            Tuple col = new Tuple(3);
+            col.put(0, name);
+            col.put(1, includedColumnMetadata.size());
+            col.put(2, type.getCanonicalName());
+            includedColumnMetadata.add(col);
+            return this;
+        }
+
+        /**
+         * Allows multiple GUIDs per tuple.
+         */
+        public Index.Builder nonUnique() {
+            if (!includedColumnMetadata.isEmpty()) throw new IllegalStateException("Only unique indexes can include columns");
+            isUnique = false;
+            return this;
+        }
+
+        private boolean isUnique() {
+            return isUnique;
+        }
+
+        private List<Tuple> getIncludedColumnMetadata() {
+            return includedColumnMetadata;
+        }
+
         private Tuple[] getColumnMetadata() {
             return columnMetadata.toArray(new Tuple[columnMetadata.size()]);
         }
@@ -119,6 +476,11 @@ public class Index extends TopLevelDataStructure {
         super.serialize(out);
         if (bTree != null) {
             out.writeObject(bTree.getId());
+            out.writeObject(isUnique);
+            out.writeObject(includedColumns.size());
+            for (Tuple column : includedColumns) {
+                out.writeObject(column);
+            }
         }
     }
 
@@ -127,5 +489,16 @@ public class Index extends TopLevelDataStructure {
         super.deserialize(in);
         Long tmp = (Long) in.readObject();
         bTree = dsFactory.loadBTree(tmp);
+        addObjectToObjectSize(tmp);
+        isUnique = (Boolean) in.readObject();
+        addObjectToObjectSize(isUnique);
+        Integer numIncludedColumns = (Integer) in.readObject();
+        addObjectToObjectSize(numIncludedColumns);
+        includedColumns = new ArrayList<>(numIncludedColumns);
+        for (int i = 0; i < numIncludedColumns; i++) {
+            Tuple column = (Tuple) in.readObject();
+            includedColumns.add(column);
+            addObjectToObjectSize(column);
+        }
     }
 }
@@ -34,9 +34,13 @@ public interface InternalDataStructureFactory extends DataStructureFactory {
 
     <Key extends Comparable<Key>, Value> ChainingHash<Key, Value> newChainingHash(Txn txn);
     <Key extends Comparable<Key>, Value> ChainingHash<Key, Value> newChainingHashWithNumBuckets(int numBuckets, Txn txn);
+    <Key extends Comparable<Key>, Value> ChainingHash<Key, Value> newChainingHashWithLazyDataBlocks(Txn txn);
     <Key extends Comparable<Key>, Value> ChainingHash<Key, Value> loadChainingHash(long id);
     <Key extends Comparable<Key>, Value> ChainingHash<Key, Value> loadChainingHashForWrites(long id, Txn txn);
 
+    <Key extends Comparable<Key>, Value> DirectoryPage<Key, Value> newDirectoryPage(int numBuckets, int localDepth, Txn txn);
+    <Key extends Comparable<Key>, Value> DirectoryPage<Key, Value> loadDirectoryPageProxy(long id);
+
     <Key extends Comparable<Key>, Value> BTreeNode<Key, Value> newBTreeNode(int numChildren, Txn txn);
     <Key extends Comparable<Key>, Value> BTreeNode<Key, Value> loadBTreeNode(long id);
     <Key extends Comparable<Key>, Value> BTreeNode<Key, Value> loadBTreeNodeProxy(long id);
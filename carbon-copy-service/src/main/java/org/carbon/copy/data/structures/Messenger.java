@@ -1,12 +1,12 @@
 package org.carbon.copy.data.structures;
 
-import java.util.UUID;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is mostly a facade around the galaxy messenger.
  * The added value by this implementation is bookkeeping around requests and responses
- * which are embedded in more handy and native java primitives (such as Futures).
+ * which are embedded in more handy and native java primitives (such as CompletableFutures).
  * Right now this messenger assumes you only do request-response-style communication.
  * More complicated protocols are not supported.
  */
@@ -14,18 +14,31 @@ interface Messenger {
     /**
      * This method is supposed to be used only when sending out a request.
      * Never send out responses using this method!
+     * The future fails with a TimeoutException if no response arrives within the default timeout.
      */
-    <T> Future<T> send(short toNode, BaseMessage message);
+    <T> CompletableFuture<T> send(short toNode, BaseMessage message);
+
+    /**
+     * Same as above with a custom timeout.
+     * Cancelling the returned future forgets about the request. A late response is dropped.
+     */
+    <T> CompletableFuture<T> send(short toNode, BaseMessage message, long timeout, TimeUnit unit);
 
     /**
      * This method is only supposed to be used when replying to a request.
      * Never use this to send a request only send responses!
      */
-    void replyTo(short toNode, UUID requestId, BaseMessage messageToSend);
+    void replyTo(short toNode, long requestId, BaseMessage messageToSend);
 
     /**
      * This marks a particular request as completed and releases the holder
      * of the corresponding Future.
      */
-    void complete(UUID requestId, Object result);
+    void complete(long requestId, Object result);
+
+    /**
+     * This fails a particular request and releases the holder
+     * of the corresponding Future with the cause.
+     */
+    void fail(long requestId, Throwable cause);
 }
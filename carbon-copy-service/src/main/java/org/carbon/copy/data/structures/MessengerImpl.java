@@ -1,20 +1,32 @@
 package org.carbon.copy.data.structures;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 class MessengerImpl implements Messenger {
     private static final Logger logger = LoggerFactory.getLogger(MessengerImpl.class);
     // this concurrency hashmap does all the bookkeeping for requests that are in-flight
-    // each request gets a UUID associated to it and then sent off
+    // each request gets an id associated to it and then sent off
     // the response is expected to have the same request id in it's body
     // this way we can look up the corresponding future in the map and release the caller
-    private static final ConcurrentHashMap<UUID, CarbonCopyFuture> inProgressRequests = new ConcurrentHashMap<>(16, 0.75f, 8);
+    // requests leave the map when they complete, time out or are cancelled
+    private static final ConcurrentHashMap<Long, CompletableFuture<Object>> inProgressRequests = new ConcurrentHashMap<>(16, 0.75f, 8);
+    // ids only need to be unique among the requests this node has in flight
+    // counting up is a lot cheaper than random UUIDs and keeps ids short on the wire
+    // starting at a random int keeps late responses to requests sent before a restart from
+    // completing requests of the new process
+    private static final AtomicLong nextRequestId = new AtomicLong(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+    // expires requests that never get a response
+    private static final HashedWheelTimer timer = new HashedWheelTimer("carbon-copy-request-timer", 10, TimeUnit.MILLISECONDS, 512);
     private co.paralleluniverse.galaxy.Messenger messenger;
 
     @Inject
@@ -23,39 +35,80 @@ class MessengerImpl implements Messenger {
     }
 
     @Override
-    public <T> Future<T> send(short toNode, BaseMessage messageToSend) {
-        CarbonCopyFuture<T> f = new CarbonCopyFuture<>();
-
-        // spin in a loop until you get a UUID that isn't in the map already
-        // unlikely this ever runs more often than once ... but you never know
-        UUID requestId;
-        CarbonCopyFuture tempF;
-        do {
-            requestId = UUID.randomUUID();
-            tempF = inProgressRequests.putIfAbsent(requestId, f);
-        } while(tempF != null);
+    public <T> CompletableFuture<T> send(short toNode, BaseMessage messageToSend) {
+        return send(toNode, messageToSend, DataStructure.TIMEOUT_SECS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> send(short toNode, BaseMessage messageToSend, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> f = new CompletableFuture<>();
+
+        long requestId = nextRequestId.getAndIncrement();
+        inProgressRequests.put(requestId, f);
+
+        HashedWheelTimer.Timeout t = timer.newTimeout(
+                () -> {
+                    // forget about the request before anybody waiting on it wakes up
+                    inProgressRequests.remove(requestId, f);
+                    f.completeExceptionally(new TimeoutException("Request " + requestId + " to node " + toNode + " timed out"));
+                },
+                timeout,
+                unit
+        );
+        // no matter how the future completes (response, timeout, cancellation)
+        // it doesn't need the timer nor the bookkeeping anymore
+        f.whenComplete((result, xcp) -> {
+            t.cancel();
+            inProgressRequests.remove(requestId, f);
+        });
 
         // set the request id
         // this property of a message is managed here
-        // because only now we know that the UUID doesn't exist already
+        // because this is where ids are handed out
         messageToSend.setRequestId(requestId);
-        messageToSend.send(messenger, toNode);
-        return f;
+        try {
+            messageToSend.send(messenger, toNode);
+        } catch (RuntimeException xcp) {
+            f.completeExceptionally(xcp);
+        }
+        return castToGeneric(f);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> castToGeneric(CompletableFuture<Object> f) {
+        return (CompletableFuture<T>) (CompletableFuture<?>) f;
+    }
+
+    @VisibleForTesting
+    static boolean isInProgress(long requestId) {
+        return inProgressRequests.containsKey(requestId);
     }
 
     @Override
-    public void replyTo(short toNode, UUID requestId, BaseMessage messageToSend) {
+    public void replyTo(short toNode, long requestId, BaseMessage messageToSend) {
         messageToSend.setRequestId(requestId);
         messageToSend.send(messenger, toNode);
     }
 
     @Override
-    public void complete(UUID requestId, Object result) {
-        CarbonCopyFuture f = inProgressRequests.remove(requestId);
+    public void complete(long requestId, Object result) {
+        CompletableFuture<Object> f = inProgressRequests.remove(requestId);
         if (f != null) {
             f.complete(result);
         } else {
+            // the request might have timed out or been cancelled already
             logger.warn("Couldn't find future with id " + requestId);
         }
     }
+
+    @Override
+    public void fail(long requestId, Throwable cause) {
+        CompletableFuture<Object> f = inProgressRequests.remove(requestId);
+        if (f != null) {
+            f.completeExceptionally(cause);
+        } else {
+            // the request might have timed out or been cancelled already
+            logger.warn("Couldn't find future with id " + requestId, cause);
+        }
+    }
 }
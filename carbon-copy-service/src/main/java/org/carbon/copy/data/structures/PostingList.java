@@ -0,0 +1,162 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The GUIDs of all rows that share a key in a non-unique index.
+ * Small lists are kept inline in the leaves of the index.
+ * Once a list outgrows MAX_INLINE_GUIDS, its GUIDs move into a tree of their own
+ * and the list only points to that tree.
+ *
+ * Posting lists are immutable. Adding or removing a GUID creates a new list.
+ * They sit in tree nodes which account for their size when they're put in.
+ */
+@DefaultSerializer(PostingList.PostingListSerializer.class)
+class PostingList extends Sizable {
+    // 64 GUIDs take up about a kilobyte
+    static final int MAX_INLINE_GUIDS = 64;
+    // the serializer writes GUIDs as two raw longs
+    private static final int GUID_SIZE = 16;
+    // the id of the tree is written as a raw long
+    // the tree might not have an id yet when the list is sized
+    private static final int TREE_ID_SIZE = 8;
+
+    // sorted GUIDs of an inline list (empty for spilled lists)
+    private final List<GUID> guids;
+    // the id of the tree that holds the GUIDs of a spilled list
+    private final long treeId;
+
+    private PostingList(List<GUID> guids, long treeId) {
+        this.guids = Collections.unmodifiableList(guids);
+        this.treeId = treeId;
+        // the flag that tells inline and spilled lists apart
+        addToObjectSize(1);
+        if (isSpilled()) {
+            addToObjectSize(TREE_ID_SIZE);
+        } else {
+            addToObjectSize(sizeOfVarInt(guids.size(), true) + guids.size() * GUID_SIZE);
+        }
+    }
+
+    static PostingList inline(Collection<GUID> guids) {
+        List<GUID> sorted = new ArrayList<>(guids);
+        Collections.sort(sorted);
+        return new PostingList(sorted, -1);
+    }
+
+    static PostingList spilled(long treeId) {
+        return new PostingList(Collections.emptyList(), treeId);
+    }
+
+    boolean isSpilled() {
+        return treeId != -1;
+    }
+
+    long getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * The GUIDs of an inline list in sorted order.
+     */
+    List<GUID> getGuids() {
+        return guids;
+    }
+
+    int getNumGuids() {
+        return guids.size();
+    }
+
+    boolean isFull() {
+        return guids.size() >= MAX_INLINE_GUIDS;
+    }
+
+    /**
+     * Returns a list that contains the GUID.
+     * That might be this list if the GUID is in here already.
+     */
+    PostingList with(GUID guid) {
+        if (isSpilled()) throw new IllegalStateException("Spilled posting lists live in their own tree");
+        int idx = Collections.binarySearch(guids, guid);
+        if (idx >= 0) return this;
+        List<GUID> newGuids = new ArrayList<>(guids.size() + 1);
+        newGuids.addAll(guids);
+        newGuids.add(-(idx + 1), guid);
+        return new PostingList(newGuids, -1);
+    }
+
+    /**
+     * Returns a list that doesn't contain the GUID.
+     * That might be this list if the GUID isn't in here.
+     */
+    PostingList without(GUID guid) {
+        if (isSpilled()) throw new IllegalStateException("Spilled posting lists live in their own tree");
+        int idx = Collections.binarySearch(guids, guid);
+        if (idx < 0) return this;
+        List<GUID> newGuids = new ArrayList<>(guids);
+        newGuids.remove(idx);
+        return new PostingList(newGuids, -1);
+    }
+
+    @Override
+    public String toString() {
+        return isSpilled() ? "spilled to " + treeId : guids.toString();
+    }
+
+    public final static class PostingListSerializer extends Serializer<PostingList> {
+        @Override
+        public void write(Kryo kryo, Output output, PostingList list) {
+            output.writeBoolean(list.isSpilled());
+            if (list.isSpilled()) {
+                output.writeLong(list.treeId);
+            } else {
+                output.writeVarInt(list.guids.size(), true);
+                for (GUID guid : list.guids) {
+                    kryo.writeObject(output, guid);
+                }
+            }
+        }
+
+        @Override
+        public PostingList read(Kryo kryo, Input input, Class<PostingList> aClass) {
+            boolean isSpilled = input.readBoolean();
+            if (isSpilled) {
+                return new PostingList(Collections.emptyList(), input.readLong());
+            } else {
+                int numGuids = input.readVarInt(true);
+                List<GUID> guids = new ArrayList<>(numGuids);
+                for (int i = 0; i < numGuids; i++) {
+                    guids.add(kryo.readObject(input, GUID.class));
+                }
+                return new PostingList(guids, -1);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Rendez-vous hashing over a fixed set of nodes.
+ * Each key goes to the node with the highest score for that key. Scores only depend on the key
+ * and the node which means every node in the cluster routes a key the same way and only keys of a node
+ * that leaves the cluster move somewhere else.
+ * Everything that depends on the nodes alone is computed once when the router is created.
+ * Routing a key doesn't allocate and doesn't convert the key into a string.
+ */
+class RendezVousRouter {
+    private final short[] nodeIds;
+    // every node gets its own seed that is mixed into the hash of the key
+    private final long[] nodeSeeds;
+
+    RendezVousRouter(Set<Short> nodes) {
+        if (nodes.isEmpty()) throw new IllegalArgumentException("Can't route keys to an empty set of nodes");
+        this.nodeIds = new short[nodes.size()];
+        this.nodeSeeds = new long[nodes.size()];
+        int i = 0;
+        for (Short nodeId : nodes) {
+            nodeIds[i] = nodeId;
+            nodeSeeds[i] = mix(0x9E3779B97F4A7C15L * (nodeId + 1));
+            i++;
+        }
+    }
+
+    int getNumNodes() {
+        return nodeIds.length;
+    }
+
+    short route(Object key) {
+        long keyHash = hashKey(key);
+        int best = 0;
+        long bestScore = mix(keyHash ^ nodeSeeds[0]);
+        for (int i = 1; i < nodeIds.length; i++) {
+            long score = mix(keyHash ^ nodeSeeds[i]);
+            // ties are broken by node id so that the iteration order of the nodes doesn't matter
+            if (score > bestScore || (score == bestScore && nodeIds[i] < nodeIds[best])) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return nodeIds[best];
+    }
+
+    /**
+     * Hashes the binary form of the common key types.
+     * Everything else falls back to its hash code which needs to be stable across JVMs.
+     */
+    static long hashKey(Object key) {
+        if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+            return ((Number) key).longValue();
+        } else if (key instanceof String) {
+            String s = (String) key;
+            // FNV-1a over the chars of the string
+            long h = 0xCBF29CE484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001B3L;
+            }
+            return h;
+        } else if (key instanceof UUID) {
+            UUID uuid = (UUID) key;
+            return uuid.getMostSignificantBits() ^ Long.rotateLeft(uuid.getLeastSignificantBits(), 32);
+        } else {
+            return key.hashCode();
+        }
+    }
+
+    // the finalizer of murmur3
+    // every bit of the input affects every bit of the output
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
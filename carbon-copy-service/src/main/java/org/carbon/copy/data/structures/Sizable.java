@@ -28,21 +28,31 @@ import java.util.UUID;
  * It provides an implementation for the size method from Galaxy that calculates the byte size of the current object.
  * I did this because from classes don't extend DataStructure (like Tuple or GUID) but they need to be serialized
  * (and hence their byte size needs to be calculated).
+ *
+ * Sizes are not estimates. They are the exact number of bytes kryo writes for an object
+ * (including the class id and the varint encoding of numbers and string lengths).
+ * That way cache lines can be packed all the way to the max byte size.
  */
 abstract class Sizable {
     static final int MAX_BYTE_SIZE = 32768;
 
-    // actually there's a +1 is for the kryo byte to identify the class
-    // however I hope that compression and not having the +1
-    // even out in the long run :)
-    private static final int LONG_FIELD_SIZE     = 8;
-    private static final int INT_FIELD_SIZE      = 4;
+    // kryo writes one byte to identify the class of an object
+    // that is as long as the class is registered with an id smaller than 126
+    // (which is the case for all classes we're registering)
+    private static final int CLASS_ID_SIZE       = 1;
+    // kryo writes nulls as a class id of zero and nothing else
+    static final int NULL_SIZE                   = 1;
     private static final int SHORT_FIELD_SIZE    = 2;
     private static final int CHAR_FIELD_SIZE     = 2;
     private static final int BYTE_FIELD_SIZE     = 1;
     private static final int BOOLEAN_FIELD_SIZE  = 1;
     private static final int DOUBLE_FIELD_SIZE   = 8;
     private static final int FLOAT_FIELD_SIZE    = 4;
+    private static final int UUID_FIELD_SIZE     = 16;
+    // ids of data structures are handed out by galaxy asynchronously
+    // in some cases we need to know how big a pointer to a data structure is
+    // before we know its id...that's why we reserve space for the biggest id there is
+    static final int MAX_ID_SIZE                 = sizeOfObject(Long.MAX_VALUE);
 
     private int currentObjectSize = 0;
 
@@ -51,19 +61,23 @@ abstract class Sizable {
      * NOT the number of elements or items it contains.
      */
     public final int size() {
-        //  8: for general compression and kryo overhead
-        // 16: for a few leading bytes to put the number of elements in the object somewhere
-        // obviously this is a very non-scientific approach
-        //
-        // since we default to compression, we need to calculate the biggest compressed size
-        // this sometimes yields counter-intuitive results where the compressed size
-        // is greater than the uncompressed size
-        // it could be worth (in the long run) doing compression in certain cases and not always
-        return Snappy.maxCompressedLength(magicSize());
+        return encodedSize(currentObjectSize);
+    }
+
+    /**
+     * The number of bytes an object takes up once it's written out given
+     * the number of bytes kryo writes for it.
+     * Data structures know better how they are written out and override this.
+     */
+    int encodedSize(int serializedSize) {
+        return serializedSize;
     }
 
-    private int magicSize() {
-        return 8 + 16 + currentObjectSize;
+    /**
+     * The number of bytes kryo writes for the content of this object.
+     */
+    int getObjectSize() {
+        return currentObjectSize;
     }
 
     /**
@@ -83,40 +97,119 @@ abstract class Sizable {
         currentObjectSize = Math.max(0, currentObjectSize - sizeOfObject(o));
     }
 
-    int sizeOfObject(Object o) {
-        if (o == null) return 0;
+    void addToObjectSize(int numBytes) {
+        currentObjectSize += numBytes;
+    }
+
+    void subtractFromObjectSize(int numBytes) {
+        currentObjectSize = Math.max(0, currentObjectSize - numBytes);
+    }
+
+    /**
+     * The exact number of bytes kryo writes when it writes this object including its class.
+     */
+    static int sizeOfObject(Object o) {
+        if (o == null) return NULL_SIZE;
         Class type = o.getClass();
         if (Integer.class.equals(type)) {
-            return INT_FIELD_SIZE;
+            return CLASS_ID_SIZE + sizeOfVarInt((Integer) o);
         } else if (String.class.equals(type)) {
-            return ((String)o).getBytes().length;
+            return CLASS_ID_SIZE + sizeOfString((String) o);
         } else if (Long.class.equals(type)) {
-            return LONG_FIELD_SIZE;
+            return CLASS_ID_SIZE + sizeOfVarLong((Long) o);
         } else if (Short.class.equals(type)) {
-            return SHORT_FIELD_SIZE;
+            return CLASS_ID_SIZE + SHORT_FIELD_SIZE;
         } else if (Byte.class.equals(type)) {
-            return BYTE_FIELD_SIZE;
+            return CLASS_ID_SIZE + BYTE_FIELD_SIZE;
         } else if (Boolean.class.equals(type)) {
-            return BOOLEAN_FIELD_SIZE;
+            return CLASS_ID_SIZE + BOOLEAN_FIELD_SIZE;
         } else if (Character.class.equals(type)) {
-            return CHAR_FIELD_SIZE;
+            return CLASS_ID_SIZE + CHAR_FIELD_SIZE;
         } else if (Double.class.equals(type)) {
-            return DOUBLE_FIELD_SIZE;
+            return CLASS_ID_SIZE + DOUBLE_FIELD_SIZE;
         } else if (Float.class.equals(type)) {
-            return FLOAT_FIELD_SIZE;
+            return CLASS_ID_SIZE + FLOAT_FIELD_SIZE;
         } else if (UUID.class.equals(type)) {
-            return LONG_FIELD_SIZE * 2;
-        } else if (Persistable.class.isAssignableFrom(type)) {
-            return ((Persistable)o).size();
+            return CLASS_ID_SIZE + UUID_FIELD_SIZE;
         } else if (Sizable.class.isAssignableFrom(type)) {
-            return ((Sizable)o).size();
+            return CLASS_ID_SIZE + ((Sizable)o).getObjectSize();
+        } else if (Persistable.class.isAssignableFrom(type)) {
+            return CLASS_ID_SIZE + ((Persistable)o).size();
         } else {
             throw new IllegalArgumentException ("unrecognized type: " + o.getClass());
         }
     }
 
+    /**
+     * Kryo writes ints as zig-zag encoded varints with seven bits per byte.
+     */
+    static int sizeOfVarInt(int value) {
+        return sizeOfVarInt(value, false);
+    }
+
+    /**
+     * Varints that are optimized for positive values skip the zig-zag encoding.
+     */
+    static int sizeOfVarInt(int value, boolean optimizePositive) {
+        if (!optimizePositive) value = (value << 1) ^ (value >> 31);
+        if (value >>> 7 == 0) return 1;
+        if (value >>> 14 == 0) return 2;
+        if (value >>> 21 == 0) return 3;
+        if (value >>> 28 == 0) return 4;
+        return 5;
+    }
+
+    /**
+     * Kryo writes longs as zig-zag encoded varints with seven bits per byte.
+     * The ninth byte holds a full eight bits.
+     */
+    static int sizeOfVarLong(long value) {
+        return sizeOfVarLong(value, false);
+    }
+
+    static int sizeOfVarLong(long value, boolean optimizePositive) {
+        if (!optimizePositive) value = (value << 1) ^ (value >> 63);
+        for (int numBytes = 1; numBytes < 9; numBytes++) {
+            if (value >>> (7 * numBytes) == 0) return numBytes;
+        }
+        return 9;
+    }
+
+    /**
+     * Kryo writes short ascii strings as they are and flags the last byte.
+     * Everything else is written as length followed by the utf8 encoded chars.
+     */
+    static int sizeOfString(String s) {
+        int charCount = s.length();
+        if (charCount == 0) return 1;
+
+        boolean ascii = charCount > 1 && charCount < 64;
+        int utf8Size = 0;
+        for (int i = 0; i < charCount; i++) {
+            int c = s.charAt(i);
+            if (c <= 0x007F) {
+                utf8Size++;
+            } else {
+                ascii = false;
+                utf8Size += (c > 0x07FF) ? 3 : 2;
+            }
+        }
+
+        return ascii ? charCount : sizeOfUtf8Length(charCount + 1) + utf8Size;
+    }
+
+    // the first byte of the length holds six bits
+    // all following bytes hold seven bits
+    private static int sizeOfUtf8Length(int value) {
+        if (value >>> 6 == 0) return 1;
+        if (value >>> 13 == 0) return 2;
+        if (value >>> 20 == 0) return 3;
+        if (value >>> 27 == 0) return 4;
+        return 5;
+    }
+
     boolean isUnderMaxByteSize(int addSize) {
-        return Snappy.maxCompressedLength(magicSize() + addSize) <= getMaxByteSize();
+        return encodedSize(currentObjectSize + addSize) <= getMaxByteSize();
     }
 
     int getMaxByteSize() {
@@ -21,6 +21,7 @@ package org.carbon.copy.data.structures;
 import co.paralleluniverse.galaxy.Store;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -28,16 +29,21 @@ import java.util.stream.StreamSupport;
 public class Table extends TopLevelDataStructure {
     // this data holds all the data
     private ChainingHash<GUID, Tuple> data;
+    // ids of all indexes that are kept up to date with the data in this table
+    private List<Long> indexIds = new ArrayList<>();
+    // lazily loaded indexes along with the table columns they are made of
+    private volatile List<MaintainedIndex> maintainedIndexes;
 
     private Table(Store store, InternalDataStructureFactory dsFactory, Txn txn, String dsName) {
         super(store, dsFactory, txn, dsName);
         // create new data
-        data = dsFactory.newChainingHash(txn);
+        data = dsFactory.newChainingHashWithLazyDataBlocks(txn);
         txn.addToChangedObjects(data);
         // wait for it to be upserted and
         // have an id
         data.checkDataStructureRetrieved();
         addObjectToObjectSize(data.getId());
+        addObjectToObjectSize(indexIds.size());
         // only then upsert yourself
         asyncUpsert(txn);
     }
@@ -57,13 +63,70 @@ public class Table extends TopLevelDataStructure {
         asyncLoadForWrites(txn);
     }
 
+    /**
+     * Inserts the tuple into this table and all indexes of this table in the same transaction.
+     */
     public GUID insert(Tuple tuple, Txn txn) {
         checkDataStructureRetrieved();
         verifyDataColumnTypes(tuple);
         data.put(tuple.getGuid(), tuple, txn);
+        for (MaintainedIndex index : getMaintainedIndexes()) {
+            index.insert(tuple, txn);
+        }
         return tuple.getGuid();
     }
 
+    /**
+     * Deletes the tuple from this table and all indexes of this table in the same transaction.
+     * Returns false if there was no tuple with this GUID.
+     */
+    public boolean delete(GUID guid, Txn txn) {
+        checkDataStructureRetrieved();
+        Tuple tuple = data.get(guid);
+        if (tuple == null) {
+            return false;
+        }
+        for (MaintainedIndex index : getMaintainedIndexes()) {
+            index.delete(tuple, txn);
+        }
+        return data.delete(guid, txn);
+    }
+
+    /**
+     * From here on every insert and delete on this table goes to the index as well.
+     * All tuples that are in the table already are inserted into the index right away.
+     */
+    void addIndex(Index index, Txn txn) {
+        checkDataStructureRetrieved();
+        if (indexIds.contains(index.getId())) {
+            return;
+        }
+        MaintainedIndex maintainedIndex = new MaintainedIndex(index, this);
+        for (GUID guid : data.keys()) {
+            maintainedIndex.insert(data.get(guid), txn);
+        }
+        indexIds.add(index.getId());
+        addObjectToObjectSize(index.getId());
+        txn.addToChangedObjects(this);
+        maintainedIndexes = null;
+    }
+
+    private List<MaintainedIndex> getMaintainedIndexes() {
+        List<MaintainedIndex> indexes = maintainedIndexes;
+        if (indexes == null) {
+            if (indexIds.isEmpty()) {
+                indexes = Collections.emptyList();
+            } else {
+                indexes = new ArrayList<>(indexIds.size());
+                for (Long indexId : indexIds) {
+                    indexes.add(new MaintainedIndex(dsFactory.loadIndex(indexId), this));
+                }
+            }
+            maintainedIndexes = indexes;
+        }
+        return indexes;
+    }
+
     public Stream<GUID> keys() {
         return StreamSupport.stream(data.keys().spliterator(), false);
     }
@@ -111,6 +174,54 @@ public class Table extends TopLevelDataStructure {
 //                .collect(Collectors.toSet());
 //    }
 
+    /**
+     * Knows which table columns make up the key and the included values of an index.
+     * That way the column names don't need to be looked up for every tuple.
+     */
+    private static class MaintainedIndex {
+        private final Index index;
+        private final int[] keyColumns;
+        private final int[] includedColumns;
+
+        MaintainedIndex(Index index, Table table) {
+            this.index = index;
+            this.keyColumns = toTableColumns(index.getColumnNames(), table);
+            this.includedColumns = toTableColumns(index.getIncludedColumnNames(), table);
+        }
+
+        private static int[] toTableColumns(List<String> columnNames, Table table) {
+            int[] tableColumns = new int[columnNames.size()];
+            for (int i = 0; i < tableColumns.length; i++) {
+                tableColumns[i] = table.getColumnIndexForName(columnNames.get(i));
+                if (tableColumns[i] < 0) {
+                    throw new IllegalArgumentException("Table " + table.getName() + " doesn't have a column " + columnNames.get(i));
+                }
+            }
+            return tableColumns;
+        }
+
+        private static Tuple project(Tuple tuple, int[] tableColumns) {
+            Tuple projected = new Tuple(tableColumns.length);
+            for (int i = 0; i < tableColumns.length; i++) {
+                projected.put(i, tuple.get(tableColumns[i]));
+            }
+            return projected;
+        }
+
+        void insert(Tuple tuple, Txn txn) {
+            Tuple key = project(tuple, keyColumns);
+            if (includedColumns.length > 0) {
+                index.insert(key, tuple.getGuid(), project(tuple, includedColumns), txn);
+            } else {
+                index.insert(key, tuple.getGuid(), txn);
+            }
+        }
+
+        void delete(Tuple tuple, Txn txn) {
+            index.delete(project(tuple, keyColumns), tuple.getGuid(), txn);
+        }
+    }
+
     public static Builder newBuilder(String name) {
         return new Builder(name);
     }
@@ -154,6 +265,10 @@ public class Table extends TopLevelDataStructure {
         super.serialize(out);
         if (data != null) {
             out.writeObject(data.getId());
+            out.writeObject(indexIds.size());
+            for (Long indexId : indexIds) {
+                out.writeObject(indexId);
+            }
         }
     }
 
@@ -162,5 +277,15 @@ public class Table extends TopLevelDataStructure {
         super.deserialize(in);
         Long tmp = (Long) in.readObject();
         data = dsFactory.loadChainingHash(tmp);
+        addObjectToObjectSize(tmp);
+        Integer numIndexes = (Integer) in.readObject();
+        addObjectToObjectSize(numIndexes);
+        indexIds = new ArrayList<>(numIndexes);
+        for (int i = 0; i < numIndexes; i++) {
+            Long indexId = (Long) in.readObject();
+            indexIds.add(indexId);
+            addObjectToObjectSize(indexId);
+        }
+        maintainedIndexes = null;
     }
 }
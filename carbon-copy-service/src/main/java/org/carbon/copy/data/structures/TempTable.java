@@ -47,7 +47,7 @@ public class TempTable extends TopLevelDataStructure {
     TempTable(Store store, InternalDataStructureFactory dsFactory, TempTable.Builder builder, Txn txn) {
         super(store, dsFactory, txn, "temp_" + UUID.randomUUID().toString());
         // create new data
-        data = dsFactory.newChainingHash(txn);
+        data = dsFactory.newChainingHashWithLazyDataBlocks(txn);
         txn.addToChangedObjects(data);
         // wait for it to be upserted and
         // have an id
@@ -68,7 +68,7 @@ public class TempTable extends TopLevelDataStructure {
     TempTable(Store store, InternalDataStructureFactory dsFactory, Table tableToWrap, Txn txn) {
         super(store, dsFactory, txn, "temp_" + tableToWrap.getId() + "_" + UUID.randomUUID().toString());
         // create new data
-        data = dsFactory.newChainingHash(txn);
+        data = dsFactory.newChainingHashWithLazyDataBlocks(txn);
         txn.addToChangedObjects(data);
         // wait for it to be upserted and
         // have an id
@@ -175,5 +175,6 @@ public class TempTable extends TopLevelDataStructure {
         super.deserialize(in);
         Long tmp = (Long) in.readObject();
         data = dsFactory.loadChainingHash(tmp);
+        addObjectToObjectSize(tmp);
     }
 }
@@ -132,21 +132,42 @@ public abstract class TopLevelDataStructure extends DataStructure {
         }
     }
 
-    @SuppressWarnings("unchecked")
     void verifyDataColumnTypes(Tuple dataTuple) {
+        verifyColumnTypes(dataTuple, false);
+    }
+
+    /**
+     * Prefixes only carry values for the leading columns.
+     * Columns that aren't part of the prefix aren't looked at.
+     */
+    void verifyPrefixColumnTypes(Tuple prefix) {
+        verifyColumnTypes(prefix, true);
+    }
+
+    private void verifyColumnTypes(Tuple dataTuple, boolean isPrefix) {
         for (String columnName : columnMetadata.keys()) {
-            Tuple metadataTuple = columnMetadata.get(columnName);
-            Integer idx = (Integer) metadataTuple.get(1);
-            String klassName = (String) metadataTuple.get(2);
-            Class klass;
-            try {
-                klass = Class.forName(klassName);
-            } catch (ClassNotFoundException e) {
-                throw new IllegalArgumentException(e);
-            }
-            if (!klass.isAssignableFrom(dataTuple.get(idx).getClass())) {
-                throw new IllegalArgumentException("Incompatible types! Trying to assign " + dataTuple.get(idx).getClass().getName() + " to " + klass.getName());
-            }
+            verifyColumnType(columnMetadata.get(columnName), dataTuple, isPrefix);
+        }
+    }
+
+    // nulls fit into every column
+    @SuppressWarnings("unchecked")
+    static void verifyColumnType(Tuple metadataTuple, Tuple dataTuple, boolean isPrefix) {
+        Integer idx = (Integer) metadataTuple.get(1);
+        if (idx >= dataTuple.getTupleSize()) {
+            if (isPrefix) return;
+            throw new IllegalArgumentException("Tuple " + dataTuple + " doesn't have a value for column " + metadataTuple.get(0));
+        }
+        if (dataTuple.isNull(idx)) return;
+        String klassName = (String) metadataTuple.get(2);
+        Class klass;
+        try {
+            klass = Class.forName(klassName);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException(e);
+        }
+        if (!klass.isAssignableFrom(dataTuple.get(idx).getClass())) {
+            throw new IllegalArgumentException("Incompatible types! Trying to assign " + dataTuple.get(idx).getClass().getName() + " to " + klass.getName());
         }
     }
 
@@ -159,6 +180,13 @@ public abstract class TopLevelDataStructure extends DataStructure {
     //////////////////////////////////////////////
     // galaxy-specific serialization overrides
 
+    // top level data structures only carry their name and a pointer
+    // compressing a handful of bytes is a waste of cpu
+    @Override
+    CompressionPolicy compressionPolicy() {
+        return CompressionPolicy.NEVER;
+    }
+
     @Override
     void serialize(SerializerOutputStream out) {
         out.writeObject(name);
@@ -170,5 +198,7 @@ public abstract class TopLevelDataStructure extends DataStructure {
         this.name = (String) in.readObject();
         Long tmp = (Long) in.readObject();
         columnMetadata = dsFactory.loadChainingHash(tmp);
+        addObjectToObjectSize(name);
+        addObjectToObjectSize(tmp);
     }
 }
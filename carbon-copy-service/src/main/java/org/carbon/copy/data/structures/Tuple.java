@@ -26,38 +26,70 @@ import com.esotericsoftware.kryo.io.Output;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.annotation.Nonnull;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Vector;
 
+/**
+ * A tuple keeps track of the type of each of its fields.
+ * Ints, longs, doubles and booleans are stored unboxed in a packed array of longs.
+ * Strings and everything else are stored as objects. Both arrays are only allocated if they're needed.
+ * Type codes are written out in place of kryo class ids and take up half a byte per field.
+ */
 @DefaultSerializer(Tuple.TupleSerializer.class)
 public class Tuple extends Sizable implements Comparable<Tuple> {
+    // type codes of fields
+    // they are written out as nibbles so there can't be more than 16 of them
+    private static final byte NULL    = 0;
+    private static final byte INT     = 1;
+    private static final byte LONG    = 2;
+    private static final byte DOUBLE  = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING  = 5;
+    private static final byte OBJECT  = 6;
+
+    private static final int DOUBLE_FIELD_SIZE  = 8;
+    private static final int BOOLEAN_FIELD_SIZE = 1;
+
     private GUID guid;
     // some sort of tuple metadata
     // a mapping of column name to index
     // and tuple size
-    private int tupleSize;
-    private ArrayList<Comparable> data;
+    private final int tupleSize;
+    private final byte[] types;
+    // unboxed values of fixed width fields
+    // doubles are stored as their raw long bits
+    private long[] primitives;
+    // strings and everything else
+    private Comparable[] objects;
+    private boolean isImmutable = false;
 
     /**
      * Private ctor for serializer use only.
      */
-    @SuppressWarnings("unused")
-    private Tuple(GUID guid, ArrayList<Comparable> data, int tupleSize) {
+    private Tuple(GUID guid, int tupleSize, byte[] types, long[] primitives, Comparable[] objects) {
         this.guid = guid;
-        this.data = data;
         this.tupleSize = tupleSize;
+        this.types = types;
+        this.primitives = primitives;
+        this.objects = objects;
+        addAllToObjectSize();
     }
 
     public Tuple(int size) {
         tupleSize = size;
-        Vector<Comparable> v = new Vector<>(tupleSize);
-        v.setSize(tupleSize);
-        data = new ArrayList<>(v);
+        types = new byte[size];
         guid = GUID.randomGUID();
+        addAllToObjectSize();
+    }
+
+    private void addAllToObjectSize() {
+        addObjectToObjectSize(guid);
+        addToObjectSize(sizeOfVarInt(tupleSize, true));
+        addToObjectSize(sizeOfTypes(tupleSize));
+        for (int i = 0; i < tupleSize; i++) {
+            addToObjectSize(sizeOfField(i));
+        }
     }
 
     public GUID getGuid() {
@@ -65,16 +97,89 @@ public class Tuple extends Sizable implements Comparable<Tuple> {
     }
 
     public Comparable get(int idx) {
-        return data.get(idx);
+        switch (types[idx]) {
+            case NULL:
+                return null;
+            case INT:
+                return (int) primitives[idx];
+            case LONG:
+                return primitives[idx];
+            case DOUBLE:
+                return Double.longBitsToDouble(primitives[idx]);
+            case BOOLEAN:
+                return primitives[idx] != 0;
+            default:
+                return objects[idx];
+        }
+    }
+
+    public boolean isNull(int idx) {
+        return types[idx] == NULL;
+    }
+
+    public int getInt(int idx) {
+        return (types[idx] == INT) ? (int) primitives[idx] : ((Number) get(idx)).intValue();
+    }
+
+    public long getLong(int idx) {
+        return (types[idx] == LONG || types[idx] == INT) ? primitives[idx] : ((Number) get(idx)).longValue();
+    }
+
+    public double getDouble(int idx) {
+        return (types[idx] == DOUBLE) ? Double.longBitsToDouble(primitives[idx]) : ((Number) get(idx)).doubleValue();
+    }
+
+    public boolean getBoolean(int idx) {
+        return (types[idx] == BOOLEAN) ? primitives[idx] != 0 : (Boolean) get(idx);
     }
 
     public void put(int idx, Comparable o) {
-        Comparable existingO = data.get(idx);
-        if (existingO != null) {
-            subtractObjectToObjectSize(existingO);
+        if (o == null) {
+            set(idx, NULL, 0L, null);
+        } else if (o instanceof Integer) {
+            putInt(idx, (Integer) o);
+        } else if (o instanceof Long) {
+            putLong(idx, (Long) o);
+        } else if (o instanceof Double) {
+            putDouble(idx, (Double) o);
+        } else if (o instanceof Boolean) {
+            putBoolean(idx, (Boolean) o);
+        } else if (o instanceof String) {
+            set(idx, STRING, 0L, o);
+        } else {
+            set(idx, OBJECT, 0L, o);
+        }
+    }
+
+    public void putInt(int idx, int value) {
+        set(idx, INT, value, null);
+    }
+
+    public void putLong(int idx, long value) {
+        set(idx, LONG, value, null);
+    }
+
+    public void putDouble(int idx, double value) {
+        set(idx, DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    public void putBoolean(int idx, boolean value) {
+        set(idx, BOOLEAN, value ? 1L : 0L, null);
+    }
+
+    private void set(int idx, byte type, long primitive, Comparable object) {
+        if (isImmutable) return;
+        subtractFromObjectSize(sizeOfField(idx));
+        types[idx] = type;
+        if (isPrimitive(type)) {
+            if (primitives == null) primitives = new long[tupleSize];
+            primitives[idx] = primitive;
+            if (objects != null) objects[idx] = null;
+        } else {
+            if (object != null && objects == null) objects = new Comparable[tupleSize];
+            if (objects != null) objects[idx] = object;
         }
-        addObjectToObjectSize(o);
-        data.set(idx, o);
+        addToObjectSize(sizeOfField(idx));
     }
 
     public int getTupleSize() {
@@ -83,21 +188,24 @@ public class Tuple extends Sizable implements Comparable<Tuple> {
 
     Tuple subTuple(int from, int to) {
         int size = to - from;
-        ArrayList<Comparable> newData = new ArrayList<>(size);
-        for (int i = from; i < to; i++) {
-            newData.add(data.get(i));
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = from + i;
         }
-        return new Tuple(guid, newData, size);
+        return subTuple(indexes);
     }
 
     public Object[] toObjectArray() {
-        ArrayList<Object> l = new ArrayList<>(data);
+        Object[] l = new Object[tupleSize];
         // TODO -- think about what you actually want here
         // either you expose the internal guid to everybody as part of the result set
         // or you keep it to yourself
         // if you decide to put it in though you need to go and adapt the calcite row types accordingly
         //l.add(0, guid);
-        return l.toArray();
+        for (int i = 0; i < tupleSize; i++) {
+            l[i] = get(i);
+        }
+        return l;
     }
 
     public Tuple subTuple(Integer... indexes) {
@@ -105,33 +213,103 @@ public class Tuple extends Sizable implements Comparable<Tuple> {
     }
 
     public Tuple subTuple(List<Integer> indexes) {
-        ArrayList<Comparable> newData = new ArrayList<>(indexes.size());
-        for (Integer index : indexes) {
-            newData.add(data.get(index));
+        return subTuple(indexes.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private Tuple subTuple(int[] indexes) {
+        int size = indexes.length;
+        byte[] newTypes = new byte[size];
+        long[] newPrimitives = (primitives != null) ? new long[size] : null;
+        Comparable[] newObjects = (objects != null) ? new Comparable[size] : null;
+        for (int i = 0; i < size; i++) {
+            int index = indexes[i];
+            newTypes[i] = types[index];
+            if (newPrimitives != null) newPrimitives[i] = primitives[index];
+            if (newObjects != null) newObjects[i] = objects[index];
         }
-        return new Tuple(guid, newData, indexes.size());
+        return new Tuple(guid, size, newTypes, newPrimitives, newObjects);
+    }
+
+    /**
+     * Copies this tuple and gives the copy a different GUID.
+     */
+    Tuple copyWithGuid(GUID guid) {
+        return new Tuple(
+                guid,
+                tupleSize,
+                types.clone(),
+                (primitives != null) ? primitives.clone() : null,
+                (objects != null) ? objects.clone() : null
+        );
+    }
+
+    /**
+     * Creates an immutable tuple with the fields of the first tuple followed by the fields of the second tuple.
+     */
+    static Tuple concat(GUID guid, Tuple first, Tuple second) {
+        int size = first.tupleSize + second.tupleSize;
+        byte[] newTypes = new byte[size];
+        System.arraycopy(first.types, 0, newTypes, 0, first.tupleSize);
+        System.arraycopy(second.types, 0, newTypes, first.tupleSize, second.tupleSize);
+        long[] newPrimitives = null;
+        if (first.primitives != null || second.primitives != null) {
+            newPrimitives = new long[size];
+            if (first.primitives != null) System.arraycopy(first.primitives, 0, newPrimitives, 0, first.tupleSize);
+            if (second.primitives != null) System.arraycopy(second.primitives, 0, newPrimitives, first.tupleSize, second.tupleSize);
+        }
+        Comparable[] newObjects = null;
+        if (first.objects != null || second.objects != null) {
+            newObjects = new Comparable[size];
+            if (first.objects != null) System.arraycopy(first.objects, 0, newObjects, 0, first.tupleSize);
+            if (second.objects != null) System.arraycopy(second.objects, 0, newObjects, first.tupleSize, second.tupleSize);
+        }
+        Tuple t = new Tuple(guid, size, newTypes, newPrimitives, newObjects);
+        t.isImmutable = true;
+        return t;
     }
 
     Tuple immutableCopy() {
-        return new Tuple(guid, new ArrayList<>(data), tupleSize) {
-            @Override
-            public void put(int idx, Comparable o) { }
-        };
+        Tuple t = new Tuple(
+                guid,
+                tupleSize,
+                types.clone(),
+                (primitives != null) ? primitives.clone() : null,
+                (objects != null) ? objects.clone() : null
+        );
+        t.isImmutable = true;
+        return t;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Tuples compare field by field. Nulls sort after all other values.
+     * If one tuple is a prefix of the other, the shorter one comes first.
+     */
     @Override
     public int compareTo(@Nonnull Tuple o) {
-        for (int i = 0; i < tupleSize; i++) {
-            if (data.get(i) != null && o.data.get(i) != null) {
-                int cmp = data.get(i).compareTo(o.data.get(i));
+        int cmp = compareFields(o, Math.min(tupleSize, o.tupleSize));
+        return (cmp != 0) ? cmp : Integer.compare(tupleSize, o.tupleSize);
+    }
+
+    /**
+     * Compares this tuple to the leading fields of a tuple that is at least as long.
+     * All tuples that start with the fields of this tuple compare equal to it.
+     */
+    int compareToPrefixOf(Tuple o) {
+        if (o.tupleSize < tupleSize) throw new IllegalArgumentException("Tuple " + o + " is shorter than prefix " + this);
+        return compareFields(o, tupleSize);
+    }
+
+    private int compareFields(Tuple o, int numFields) {
+        for (int i = 0; i < numFields; i++) {
+            if (types[i] != NULL && o.types[i] != NULL) {
+                int cmp = compareField(i, o);
                 if (cmp != 0) {
                     return cmp;
                 }
             // the last two if clauses will sort nulls to the back
-            } else if (data.get(i) != null) {
+            } else if (types[i] != NULL) {
                 return -1;
-            } else if (o.data.get(i) != null) {
+            } else if (o.types[i] != NULL) {
                 return 1;
             }
         }
@@ -140,6 +318,23 @@ public class Tuple extends Sizable implements Comparable<Tuple> {
         return 0;
     }
 
+    @SuppressWarnings("unchecked")
+    private int compareField(int idx, Tuple o) {
+        if (types[idx] == o.types[idx]) {
+            // no boxing if both fields have the same primitive type
+            switch (types[idx]) {
+                case INT:
+                case LONG:
+                    return Long.compare(primitives[idx], o.primitives[idx]);
+                case DOUBLE:
+                    return Double.compare(Double.longBitsToDouble(primitives[idx]), Double.longBitsToDouble(o.primitives[idx]));
+                case BOOLEAN:
+                    return Long.compare(primitives[idx], o.primitives[idx]);
+            }
+        }
+        return get(idx).compareTo(o.get(idx));
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other == null) return false;
@@ -152,14 +347,60 @@ public class Tuple extends Sizable implements Comparable<Tuple> {
     public int hashCode() {
         int hash = 3;
         for (int i = 0; i < tupleSize; i++) {
-            hash += 51 * (data.get(i) != null ? data.get(i).hashCode() : 0);
+            hash += 51 * hashCodeOfField(i);
         }
         return hash;
     }
 
+    // these are the same hash codes the boxed values would have
+    private int hashCodeOfField(int idx) {
+        switch (types[idx]) {
+            case NULL:
+                return 0;
+            case INT:
+                return Integer.hashCode((int) primitives[idx]);
+            case LONG:
+                return Long.hashCode(primitives[idx]);
+            case DOUBLE:
+                return Double.hashCode(Double.longBitsToDouble(primitives[idx]));
+            case BOOLEAN:
+                return Boolean.hashCode(primitives[idx] != 0);
+            default:
+                return objects[idx].hashCode();
+        }
+    }
+
     @Override
     public String toString() {
-        return StringUtils.join(data, " - ");
+        return StringUtils.join(toObjectArray(), " - ");
+    }
+
+    private static boolean isPrimitive(byte type) {
+        return type == INT || type == LONG || type == DOUBLE || type == BOOLEAN;
+    }
+
+    // two type codes go into one byte
+    private static int sizeOfTypes(int numFields) {
+        return (numFields + 1) / 2;
+    }
+
+    private int sizeOfField(int idx) {
+        switch (types[idx]) {
+            case NULL:
+                return 0;
+            case INT:
+                return sizeOfVarInt((int) primitives[idx]);
+            case LONG:
+                return sizeOfVarLong(primitives[idx]);
+            case DOUBLE:
+                return DOUBLE_FIELD_SIZE;
+            case BOOLEAN:
+                return BOOLEAN_FIELD_SIZE;
+            case STRING:
+                return sizeOfString((String) objects[idx]);
+            default:
+                return sizeOfObject(objects[idx]);
+        }
     }
 
     public static Builder builder() {
@@ -184,34 +425,100 @@ public class Tuple extends Sizable implements Comparable<Tuple> {
         }
     }
 
+    /**
+     * Tuples are written as guid, number of fields, type codes
+     * followed by all fixed width fields followed by all variable length fields.
+     * None of the fields carry a class id except the ones that are neither primitives nor strings.
+     */
     public final static class TupleSerializer extends Serializer<Tuple> {
         @Override
         public void write(Kryo kryo, Output output, Tuple tuple) {
             kryo.writeClassAndObject(output, tuple.guid);
-            output.writeInt(tuple.data.size());
-            for (int i = 0; i < tuple.data.size(); i++) {
-                kryo.writeClassAndObject(output, tuple.data.get(i));
+            output.writeVarInt(tuple.tupleSize, true);
+            for (int i = 0; i < tuple.tupleSize; i += 2) {
+                int high = (i + 1 < tuple.tupleSize) ? tuple.types[i + 1] : NULL;
+                output.writeByte(tuple.types[i] | (high << 4));
+            }
+
+            for (int i = 0; i < tuple.tupleSize; i++) {
+                switch (tuple.types[i]) {
+                    case INT:
+                        output.writeVarInt((int) tuple.primitives[i], false);
+                        break;
+                    case LONG:
+                        output.writeVarLong(tuple.primitives[i], false);
+                        break;
+                    case DOUBLE:
+                        output.writeLong(tuple.primitives[i]);
+                        break;
+                    case BOOLEAN:
+                        output.writeBoolean(tuple.primitives[i] != 0);
+                        break;
+                }
+            }
+
+            for (int i = 0; i < tuple.tupleSize; i++) {
+                switch (tuple.types[i]) {
+                    case STRING:
+                        output.writeString((String) tuple.objects[i]);
+                        break;
+                    case OBJECT:
+                        kryo.writeClassAndObject(output, tuple.objects[i]);
+                        break;
+                }
             }
         }
 
         @Override
         public Tuple read(Kryo kryo, Input input, Class<Tuple> aClass) {
             GUID guid = (GUID) kryo.readClassAndObject(input);
-            int size = input.readInt();
-            Vector<Object> v = new Vector<>(size);
-            v.setSize(size);
-            ArrayList<Object> data = new ArrayList<>(v);
+            int size = input.readVarInt(true);
+            byte[] types = new byte[size];
+            boolean hasPrimitives = false;
+            boolean hasObjects = false;
+            for (int i = 0; i < size; i += 2) {
+                byte b = input.readByte();
+                types[i] = (byte) (b & 0x0F);
+                if (i + 1 < size) types[i + 1] = (byte) ((b >> 4) & 0x0F);
+            }
+            for (byte type : types) {
+                hasPrimitives |= isPrimitive(type);
+                hasObjects |= type == STRING || type == OBJECT;
+            }
+
+            long[] primitives = hasPrimitives ? new long[size] : null;
             for (int i = 0; i < size; i++) {
-                data.set(i, kryo.readClassAndObject(input));
+                switch (types[i]) {
+                    case INT:
+                        primitives[i] = input.readVarInt(false);
+                        break;
+                    case LONG:
+                        primitives[i] = input.readVarLong(false);
+                        break;
+                    case DOUBLE:
+                        primitives[i] = input.readLong();
+                        break;
+                    case BOOLEAN:
+                        primitives[i] = input.readBoolean() ? 1L : 0L;
+                        break;
+                }
             }
 
-            try {
-                Constructor<Tuple> ctor = aClass.getDeclaredConstructor(GUID.class, ArrayList.class, int.class);
-                ctor.setAccessible(true);
-                return ctor.newInstance(guid, data, size);
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                throw new RuntimeException(e);
+            Comparable[] objects = hasObjects ? new Comparable[size] : null;
+            for (int i = 0; i < size; i++) {
+                switch (types[i]) {
+                    case STRING:
+                        objects[i] = input.readString();
+                        break;
+                    case OBJECT:
+                        objects[i] = (Comparable) kryo.readClassAndObject(input);
+                        break;
+                }
             }
+
+            // no reflection here
+            // this is being called for every tuple of a table scan
+            return new Tuple(guid, size, types, primitives, objects);
         }
     }
 }
@@ -6,6 +6,7 @@ import org.carbon.copy.calcite.CalciteModule;
 import org.carbon.copy.data.structures.Catalog;
 import org.carbon.copy.data.structures.DataStructureFactory;
 import org.carbon.copy.data.structures.DataStructureModule;
+import org.carbon.copy.data.structures.Index;
 import org.carbon.copy.data.structures.Table;
 import org.carbon.copy.data.structures.Tuple;
 import org.carbon.copy.data.structures.Txn;
@@ -108,6 +109,40 @@ abstract class AbstractEndToEndTest {
         return table;
     }
 
+    /**
+     * Same as the dummy table with an index on TUP_NUM that includes MOEP on top.
+     */
+    Table createDummyTableWithIndex(int... ids) throws IOException {
+        String tableName = "NARF_" + System.currentTimeMillis() + "_" + UUID.randomUUID().toString().replaceAll("-", "");
+        Table.Builder tableBuilder = Table.newBuilder(tableName.toUpperCase())
+                .withColumn("TUP_NUM".toUpperCase(), Integer.class)
+                .withColumn("MOEP".toUpperCase(), String.class)
+                .withColumn("FOO".toUpperCase(), String.class);
+        Index.Builder indexBuilder = Index.newBuilder(tableName.toUpperCase() + "_TUP_NUM_IDX")
+                .withColumn("TUP_NUM".toUpperCase(), Integer.class)
+                .withIncludedColumn("MOEP".toUpperCase(), String.class);
+
+        Txn txn = txnManager.beginTransaction();
+        Table table = dsFactory.newTable(tableBuilder, txn);
+        Index index = dsFactory.newIndex(indexBuilder, txn);
+
+        catalog.create(table, txn);
+        catalog.create(index, table, txn);
+
+        // the table keeps its index up to date
+        for (int id : ids) {
+            Tuple tup = new Tuple(3);
+            tup.put(0, id);
+            tup.put(1, (id % 2 == 0) ? "moep" : "__moep__");
+            tup.put(2, id + "_tup_foo");
+            table.insert(tup, txn);
+        }
+
+        txn.commit();
+
+        return table;
+    }
+
     private AvaticaServer getTestSpecificAvaticaServer() {
         try {
             int testPort = new Random().nextInt(58000) + 1024;
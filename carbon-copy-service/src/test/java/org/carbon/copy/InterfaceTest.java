@@ -155,4 +155,58 @@ public class InterfaceTest extends AbstractEndToEndTest {
             }
         }
     }
+
+    @Test
+    public void testQueryWithFiltersOnIndexedColumn() throws Exception {
+        Table t = createDummyTableWithIndex(1, 2, 3, 4, 5, 6);
+        try (Connection connection = getCalciteConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                String sql = "SELECT * FROM " + t.getName() + " WHERE tup_num = 4";
+                // the index doesn't have all columns so the rows come from the table
+                String plan = explain(statement, sql);
+                assertTrue(plan, plan.contains("IndexScan"));
+                assertTrue(plan, plan.contains("indexOnly=false"));
+
+                try (ResultSet resultSet = statement.executeQuery(sql)) {
+                    Set<String> foos = new HashSet<>();
+
+                    while (resultSet.next()) {
+                        foos.add(resultSet.getString("foo"));
+                    }
+
+                    assertEquals(1, foos.size());
+                    assertTrue(foos.remove("4_tup_foo"));
+                }
+            }
+
+            try (Statement statement = connection.createStatement()) {
+                String sql = "SELECT tup_num, moep FROM " + t.getName() + " WHERE tup_num > 2 AND tup_num <= 5 AND moep = 'moep'";
+                // the index covers all columns of this query
+                String plan = explain(statement, sql);
+                assertTrue(plan, plan.contains("IndexScan"));
+                assertTrue(plan, plan.contains("indexOnly=true"));
+
+                try (ResultSet resultSet = statement.executeQuery(sql)) {
+                    Set<Integer> tupNums = new HashSet<>();
+
+                    while (resultSet.next()) {
+                        tupNums.add(resultSet.getInt("tup_num"));
+                    }
+
+                    assertEquals(1, tupNums.size());
+                    assertTrue(tupNums.remove(4));
+                }
+            }
+        }
+    }
+
+    private String explain(Statement statement, String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (ResultSet resultSet = statement.executeQuery("EXPLAIN PLAN FOR " + sql)) {
+            while (resultSet.next()) {
+                plan.append(resultSet.getString(1));
+            }
+        }
+        return plan.toString();
+    }
 }
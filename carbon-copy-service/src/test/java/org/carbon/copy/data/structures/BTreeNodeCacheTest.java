@@ -0,0 +1,156 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import co.paralleluniverse.galaxy.CacheListener;
+import co.paralleluniverse.galaxy.Store;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BTreeNodeCacheTest {
+    @Test
+    public void testCachesInternalNodes() {
+        Store s = Mockito.mock(Store.class);
+        when(s.getVersion(17L)).thenReturn(3L);
+        BTreeNodeCache cache = new BTreeNodeCache(s);
+
+        BTreeNodeCache.Snapshot snapshot = internalSnapshot();
+        cache.startRead(17L);
+        cache.finishRead(17L, snapshot, 100);
+        assertSame(snapshot, cache.get(17L));
+
+        // the cache line changed
+        when(s.getVersion(17L)).thenReturn(4L);
+        assertNull(cache.get(17L));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDoesntCacheLeaves() {
+        Store s = Mockito.mock(Store.class);
+        BTreeNodeCache cache = new BTreeNodeCache(s);
+
+        BTreeNodeCache.Snapshot leaf = new BTreeNodeCache.Snapshot(
+                Arrays.asList(1, 2),
+                Arrays.asList("narf_1", "narf_2"),
+                Arrays.asList(null, null),
+                null
+        );
+        cache.startRead(17L);
+        cache.finishRead(17L, leaf, 100);
+        assertNull(cache.get(17L));
+    }
+
+    @Test
+    public void testInvalidation() {
+        Store s = Mockito.mock(Store.class);
+        when(s.getVersion(17L)).thenReturn(3L);
+        BTreeNodeCache cache = new BTreeNodeCache(s);
+
+        cache.startRead(17L);
+        ArgumentCaptor<CacheListener> listener = ArgumentCaptor.forClass(CacheListener.class);
+        verify(s).setListener(eq(17L), listener.capture());
+        cache.finishRead(17L, internalSnapshot(), 100);
+        listener.getValue().invalidated(null, 17L);
+        assertNull(cache.get(17L));
+
+        // the cache line changes while it's being read
+        cache.startRead(17L);
+        listener.getValue().invalidated(null, 17L);
+        cache.finishRead(17L, internalSnapshot(), 100);
+        assertNull(cache.get(17L));
+
+        // nodes are only cached when they're being read for the cache
+        cache.finishRead(17L, internalSnapshot(), 100);
+        assertNull(cache.get(17L));
+    }
+
+    @Test
+    public void testSizeBounded() {
+        Store s = Mockito.mock(Store.class);
+        BTreeNodeCache cache = new BTreeNodeCache(s, 1000);
+        for (long id = 0; id < 100; id++) {
+            cache.startRead(id);
+            cache.finishRead(id, internalSnapshot(), 100);
+        }
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void testNodesRestoredFromCache() {
+        Store s = Mockito.mock(Store.class);
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+        when(s.getVersion(17L)).thenReturn(3L);
+        BTreeNodeCache cache = new BTreeNodeCache(s);
+        DataStructureFactoryImpl dsFactory = new DataStructureFactoryImpl(s, null, null, cache);
+
+        BTreeNode<Integer, String> node = new BTreeNode<>(s, dsFactory, 2, txn);
+        node.setEntryAt(0, new BTreeEntry<>(1, dsFactory.loadBTreeNodeProxy(100L)), txn);
+        node.setEntryAt(1, new BTreeEntry<>(5, dsFactory.loadBTreeNodeProxy(200L)), txn);
+        ByteBuffer bb = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
+        node.write(bb);
+        bb.rewind();
+
+        // a cache miss goes to galaxy
+        BTreeNode<Integer, String> node1 = dsFactory.loadBTreeNode(17L);
+        verify(s, times(1)).getAsync(eq(17L), any());
+        // pretend galaxy delivers the data
+        node1.read(bb);
+
+        // a cache hit doesn't
+        BTreeNode<Integer, String> node2 = dsFactory.loadBTreeNode(17L);
+        verify(s, times(1)).getAsync(eq(17L), any());
+        assertEquals(2, node2.getNumChildren());
+        assertEquals(Integer.valueOf(5), node2.getEntryAt(1).getKey());
+        assertEquals(200L, node2.getEntryAt(1).getChildNode().getId());
+        assertEquals(node1.size(), node2.size());
+
+        // every node gets its own entries and children
+        BTreeNode<Integer, String> node3 = dsFactory.loadBTreeNode(17L);
+        assertNotSame(node2.getEntryAt(0).getChildNode(), node3.getEntryAt(0).getChildNode());
+        node2.setEntryAt(0, new BTreeEntry<>(-1, dsFactory.loadBTreeNodeProxy(300L)), txn);
+        assertEquals(Integer.valueOf(1), node3.getEntryAt(0).getKey());
+        assertEquals(Integer.valueOf(1), dsFactory.<Integer, String>loadBTreeNode(17L).getEntryAt(0).getKey());
+    }
+
+    private BTreeNodeCache.Snapshot internalSnapshot() {
+        return new BTreeNodeCache.Snapshot(
+                Arrays.asList(1, 5),
+                Arrays.asList(null, null),
+                Arrays.asList(100L, 200L),
+                null
+        );
+    }
+}
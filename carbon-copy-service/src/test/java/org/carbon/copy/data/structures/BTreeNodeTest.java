@@ -22,10 +22,7 @@ import co.paralleluniverse.galaxy.Store;
 import org.junit.Test;
 import org.mockito.Mockito;
 
-import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Vector;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -82,17 +79,15 @@ public class BTreeNodeTest {
     }
 
     @Test
-    public void testSerializationTwoLevels() throws Exception {
+    public void testSerializationTwoLevels() {
         Txn txn = Mockito.mock(Txn.class);
         BTreeNode<String, String> leaf1 = newBTreeNodeWithId(125);
         leaf1.setNumChildren(3);
-        primeEntriesList(leaf1);
         leaf1.setEntryAt(0, new BTreeEntry<>("key__1", "zs.rtgv nmk"), txn);
         leaf1.setEntryAt(1, new BTreeEntry<>("key__2", " xsertgb mk"), txn);
         leaf1.setEntryAt(2, new BTreeEntry<>("key__3", "xdr56yhji9ok"), txn);
         BTreeNode<String, String> leaf2 = newBTreeNodeWithId(123);
         leaf2.setNumChildren(1);
-        primeEntriesList(leaf2);
         leaf2.setEntryAt(0, new BTreeEntry<>("key__5", "wertgh"), txn);
 
         BTreeNode<String, String> internalNode = newBTreeNode(2);
@@ -115,6 +110,34 @@ public class BTreeNodeTest {
         assertEquals(123, internalNode2.getEntryAt(1).getChildNode().getId());
     }
 
+    @Test
+    public void testSearch() {
+        Txn txn = Mockito.mock(Txn.class);
+        BTreeNode<Integer, Integer> node = newBTreeNode(0);
+        node.insertEntryAt(0, new BTreeEntry<>(7, 7), txn);
+        node.insertEntryAt(0, new BTreeEntry<>(3, 3), txn);
+        node.insertEntryAt(1, new BTreeEntry<>(5, 5), txn);
+        assertEquals(3, node.getNumChildren());
+
+        assertEquals(0, node.search(3));
+        assertEquals(1, node.search(5));
+        assertEquals(2, node.search(7));
+        assertEquals(-1, node.search(1));
+        assertEquals(-2, node.search(4));
+        assertEquals(-4, node.search(8));
+
+        assertEquals(0, node.lowerBound(1));
+        assertEquals(1, node.lowerBound(4));
+        assertEquals(1, node.lowerBound(5));
+        assertEquals(3, node.lowerBound(8));
+
+        assertEquals(0, node.childIndexFor(1));
+        assertEquals(0, node.childIndexFor(4));
+        assertEquals(1, node.childIndexFor(5));
+        assertEquals(1, node.childIndexFor(6));
+        assertEquals(2, node.childIndexFor(100));
+    }
+
     private <Key extends Comparable<Key>, Value> BTreeNode<Key, Value> newBTreeNode(int numChildren) {
         Txn txn = Mockito.mock(Txn.class);
         when(txn.getStoreTransaction()).thenReturn(null);
@@ -128,13 +151,4 @@ public class BTreeNodeTest {
         Store s = Mockito.mock(Store.class);
         return new BTreeNode<>(s, new DataStructureFactoryImpl(s, null, null), id);
     }
-
-    private <Key extends Comparable<Key>, Value> void primeEntriesList(BTreeNode<Key, Value> node) throws NoSuchFieldException, IllegalAccessException {
-        Field field = node.getClass().getDeclaredField("entries");
-        field.setAccessible(true);
-        Vector<BTreeEntry<Key, Value>> v = new Vector<>(BTree.MAX_NODE_SIZE);
-        v.setSize(BTree.MAX_NODE_SIZE);
-        ArrayList<BTreeEntry<Key, Value>> entries = new ArrayList<>(v);
-        field.set(node, entries);
-    }
 }
@@ -19,16 +19,27 @@
 package org.carbon.copy.data.structures;
 
 import co.paralleluniverse.galaxy.Store;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class BTreeTest {
@@ -61,7 +72,7 @@ public class BTreeTest {
 
     @Test
     public void testRandomIntString() {
-        BTree<Integer, String> t = newTree();
+        BTree<Integer, String> t = newTree(512);
         Map<Integer, String> m = new HashMap<>();
         int count = 10000;
         Random r = new Random();
@@ -91,14 +102,61 @@ public class BTreeTest {
 
     @Test
     public void testDupsMultipleNodes() {
-        BTree<Integer, String> t = newTree();
+        BTree<Integer, String> t = newTree(64);
         Txn txn = Mockito.mock(Txn.class);
 
-        for (int i = 0; i < BTree.MAX_NODE_SIZE * 3; i++) {
+        for (int i = 0; i < 12; i++) {
+            t.put(i, "narf_" + i, txn);
             t.put(5, "narf_" + i, txn);
         }
 
-        assertEquals("narf_" + (BTree.MAX_NODE_SIZE * 3 - 1), t.get(5));
+        assertEquals("narf_11", t.get(5));
+        assertEquals("narf_11", t.get(11));
+    }
+
+    @Test
+    public void testSplitsRespectByteSize() {
+        int maxNodeByteSize = 256;
+        List<BTreeNode<Integer, String>> nodes = new ArrayList<>();
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+        Store s = Mockito.mock(Store.class);
+        DataStructureFactoryImpl dsFactory = new DataStructureFactoryImpl(s, null, null) {
+            @Override
+            public <Key extends Comparable<Key>, Value> BTreeNode<Key, Value> newBTreeNode(int numChildren, Txn txn) {
+                BTreeNode<Key, Value> node = super.newBTreeNode(numChildren, txn);
+                nodes.add((BTreeNode) node);
+                return node;
+            }
+        };
+        BTree<Integer, String> t = new BTree<Integer, String>(s, dsFactory, txn) {
+            @Override
+            int getMaxNodeByteSize() {
+                return maxNodeByteSize;
+            }
+        };
+
+        // values with wildly different sizes
+        Map<Integer, String> m = new HashMap<>();
+        Random r = new Random();
+        for (int i = 0; i < 500; i++) {
+            String value = StringUtils.repeat('x', r.nextInt(50));
+            t.put(i, value, txn);
+            m.put(i, value);
+        }
+
+        m.forEach((key, value) -> assertEquals(value, t.get(key)));
+        assertTrue(nodes.size() > 1);
+        for (BTreeNode<Integer, String> node : nodes) {
+            assertTrue(node.size() <= maxNodeByteSize);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEntryTooBig() {
+        BTree<Integer, String> t = newTree(256);
+        Txn txn = Mockito.mock(Txn.class);
+        t.put(5, StringUtils.repeat('x', 100), txn);
     }
 
     @Test
@@ -116,6 +174,86 @@ public class BTreeTest {
         assertEquals("narf_7", t.get(7));
     }
 
+    @Test
+    public void testDeleteMergesNodes() {
+        BTree<Integer, String> t = newTree(128);
+        Txn txn = Mockito.mock(Txn.class);
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            t.put(i, "value_" + i, txn);
+        }
+
+        // delete every key that isn't divisible by ten
+        for (int i = 0; i < count; i++) {
+            if (i % 10 != 0) {
+                t.delete(i, txn);
+            }
+        }
+        verify(txn, atLeastOnce()).addToDeletedObjects(any());
+
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                assertEquals("value_" + i, t.get(i));
+            } else {
+                assertNull(t.get(i));
+            }
+        }
+
+        int expectedKey = 0;
+        for (Integer key : t.keys()) {
+            assertEquals(Integer.valueOf(expectedKey), key);
+            expectedKey += 10;
+        }
+        assertEquals(count, expectedKey);
+
+        int numValues = 0;
+        for (String value : t.get(95, 305)) {
+            assertEquals("value_" + (100 + numValues * 10), value);
+            numValues++;
+        }
+        assertEquals(21, numValues);
+
+        // deleting everything leaves an empty tree that keeps working
+        for (int i = 0; i < count; i += 10) {
+            t.delete(i, txn);
+        }
+        assertTrue(StringUtils.isBlank(t.dump()));
+        assertNull(t.get(0));
+        t.put(5, "narf", txn);
+        assertEquals("narf", t.get(5));
+    }
+
+    @Test
+    public void testDeleteInterleavedWithPuts() {
+        BTree<Integer, String> t = newTree(128);
+        Map<Integer, String> m = new HashMap<>();
+        Random r = new Random();
+        Txn txn = Mockito.mock(Txn.class);
+
+        for (int i = 0; i < 10000; i++) {
+            int key = r.nextInt(1000);
+            if (r.nextBoolean()) {
+                t.delete(key, txn);
+                m.remove(key);
+            } else {
+                String value = "value_" + i;
+                t.put(key, value, txn);
+                m.put(key, value);
+            }
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("on key " + i, m.get(i), t.get(i));
+        }
+
+        int numKeys = 0;
+        for (Integer key : t.keys()) {
+            assertTrue(m.containsKey(key));
+            numKeys++;
+        }
+        assertEquals(m.size(), numKeys);
+    }
+
     @Test
     public void testKeys() {
         int count = 100;
@@ -134,10 +272,174 @@ public class BTreeTest {
         assertEquals(count, numKeys);
     }
 
+    @Test
+    public void testDescending() {
+        BTree<Integer, String> t = newTree(128);
+        Txn txn = Mockito.mock(Txn.class);
+        int count = 1000;
+        // only even keys
+        for (int i = 0; i < count; i += 2) {
+            t.put(i, "value_" + i, txn);
+        }
+
+        int expectedKey = count - 2;
+        for (Integer key : t.descendingKeys()) {
+            assertEquals(Integer.valueOf(expectedKey), key);
+            expectedKey -= 2;
+        }
+        assertEquals(-2, expectedKey);
+
+        // the bounds don't need to be in the tree
+        int numValues = 0;
+        for (String value : t.getDescending(101, 301)) {
+            assertEquals("value_" + (300 - numValues * 2), value);
+            numValues++;
+        }
+        assertEquals(100, numValues);
+
+        assertFalse(t.getDescending(count, count + 100).iterator().hasNext());
+        assertEquals("value_0", t.getDescending(-100, 0).iterator().next());
+    }
+
+    @Test
+    public void testRangeWithReadAhead() {
+        BTree<Integer, String> t = newTree(128);
+        Txn txn = Mockito.mock(Txn.class);
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            t.put(i, "value_" + i, txn);
+        }
+
+        for (int readAhead : new int[] { 0, 1, 3, 100 }) {
+            int numValues = 0;
+            for (String value : t.get(250, 749, readAhead)) {
+                assertEquals("value_" + (250 + numValues), value);
+                numValues++;
+            }
+            assertEquals(500, numValues);
+        }
+
+        int numKeys = 0;
+        for (Integer key : t.keys(2)) {
+            assertEquals(Integer.valueOf(numKeys), key);
+            numKeys++;
+        }
+        assertEquals(count, numKeys);
+    }
+
+    @Test
+    public void testOpenAndClosedBounds() {
+        BTree<Integer, String> t = newTree(128);
+        Txn txn = Mockito.mock(Txn.class);
+        // even keys only
+        for (int i = 0; i < 1000; i += 2) {
+            t.put(i, "value_" + i, txn);
+        }
+
+        assertEquals(Arrays.asList("value_100", "value_102", "value_104"), toList(t.get(100, true, 104, true)));
+        assertEquals(Arrays.asList("value_102"), toList(t.get(100, false, 104, false)));
+        assertEquals(Arrays.asList("value_102", "value_104"), toList(t.get(101, true, 105, false)));
+        assertEquals(Arrays.asList("value_104", "value_102"), toList(t.getDescending(100, false, 104, true)));
+        assertEquals(Arrays.asList("value_102", "value_100"), toList(t.getDescending(100, true, 104, false)));
+        assertTrue(toList(t.get(100, false, 102, false)).isEmpty());
+
+        // null bounds are open
+        assertEquals(Arrays.asList("value_0", "value_2"), toList(t.get(null, true, 2, true)));
+        assertEquals(Arrays.asList("value_996", "value_998"), toList(t.get(996, true, null, true)));
+        assertEquals(Arrays.asList("value_998", "value_996"), toList(t.getDescending(995, true, null, false)));
+        assertEquals(500, toList(t.get(null, false, null, false)).size());
+        assertEquals(500, toList(t.getDescending(null, false, null, false)).size());
+    }
+
+    @Test
+    public void testBulkLoad() {
+        BTree<Integer, String> t = newTree(256);
+        Txn txn = Mockito.mock(Txn.class);
+
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys);
+        List<Pair<Integer, String>> entries = new ArrayList<>();
+        for (Integer key : keys) {
+            entries.add(Pair.of(key, "value_" + key));
+        }
+        // the last one wins
+        entries.add(Pair.of(5, "narf"));
+
+        t.bulkLoad(entries, txn);
+
+        assertEquals("narf", t.get(5));
+        for (int i = 0; i < 1000; i++) {
+            if (i != 5) {
+                assertEquals("value_" + i, t.get(i));
+            }
+        }
+        assertNull(t.get(1000));
+
+        int expectedKey = 0;
+        for (Integer key : t.keys()) {
+            assertEquals(Integer.valueOf(expectedKey), key);
+            expectedKey++;
+        }
+        assertEquals(1000, expectedKey);
+
+        int count = 0;
+        for (String value : t.get(100, 199)) {
+            assertEquals("value_" + (100 + count), value);
+            count++;
+        }
+        assertEquals(100, count);
+
+        // the tree keeps working after it's been bulk loaded
+        t.put(1000, "value_1000", txn);
+        t.put(-1, "value_-1", txn);
+        assertEquals("value_1000", t.get(1000));
+        assertEquals("value_-1", t.get(-1));
+        assertEquals("value_500", t.get(500));
+    }
+
+    @Test
+    public void testBulkLoadEmpty() {
+        BTree<Integer, String> t = newTree(256);
+        Txn txn = Mockito.mock(Txn.class);
+        t.bulkLoad(Collections.emptyList(), txn);
+        assertNull(t.get(5));
+        t.put(5, "narf", txn);
+        assertEquals("narf", t.get(5));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBulkLoadNonEmptyTree() {
+        BTree<Integer, String> t = newTree(256);
+        Txn txn = Mockito.mock(Txn.class);
+        t.put(5, "narf", txn);
+        t.bulkLoad(Collections.singletonList(Pair.of(6, "narf")), txn);
+    }
+
+    private <Key extends Comparable<Key>, Value> BTree<Key, Value> newTree(int maxNodeByteSize) {
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+        Store s = Mockito.mock(Store.class);
+        return new BTree<Key, Value>(s, new DataStructureFactoryImpl(s, null, null), txn) {
+            @Override
+            int getMaxNodeByteSize() {
+                return maxNodeByteSize;
+            }
+        };
+    }
+
     private <Key extends Comparable<Key>, Value> BTree<Key, Value> newTree() {
         Txn txn = Mockito.mock(Txn.class);
         when(txn.getStoreTransaction()).thenReturn(null);
         Store s = Mockito.mock(Store.class);
         return new BTree<>(s, new DataStructureFactoryImpl(s, null, null), txn);
     }
+
+    private static <T> List<T> toList(Iterable<T> iterable) {
+        List<T> l = new ArrayList<>();
+        iterable.forEach(l::add);
+        return l;
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BaseMessageListenerTest {
+    @Test
+    public void testHandleInline() {
+        AtomicReference<Thread> handlingThread = new AtomicReference<>();
+        BaseMessageListener listener = new BaseMessageListener() {
+            @Override
+            protected void handle(short fromNode, byte[] bytes) {
+                handlingThread.set(Thread.currentThread());
+            }
+        };
+
+        listener.messageReceived((short)1, new byte[0]);
+        assertEquals(Thread.currentThread(), handlingThread.get());
+    }
+
+    @Test
+    public void testHandleInExecutor() throws InterruptedException {
+        ExecutorService executor = BaseMessageListener.newRequestHandlerExecutor(1, 1);
+        try {
+            AtomicReference<Thread> handlingThread = new AtomicReference<>();
+            CountDownLatch latch = new CountDownLatch(1);
+            BaseMessageListener listener = new BaseMessageListener(executor) {
+                @Override
+                protected void handle(short fromNode, byte[] bytes) {
+                    handlingThread.set(Thread.currentThread());
+                    latch.countDown();
+                }
+            };
+
+            listener.messageReceived((short)1, new byte[0]);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue(Thread.currentThread() != handlingThread.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws InterruptedException {
+        ExecutorService executor = BaseMessageListener.newRequestHandlerExecutor(1, 1);
+        try {
+            CountDownLatch blockWorker = new CountDownLatch(1);
+            CountDownLatch workerStarted = new CountDownLatch(1);
+            List<Short> handled = Collections.synchronizedList(new ArrayList<>());
+            List<Short> rejected = new ArrayList<>();
+            BaseMessageListener listener = new BaseMessageListener(executor) {
+                @Override
+                protected void handle(short fromNode, byte[] bytes) throws InterruptedException {
+                    if (fromNode == 1) {
+                        workerStarted.countDown();
+                        blockWorker.await();
+                    }
+                    handled.add(fromNode);
+                }
+
+                @Override
+                protected void rejected(short fromNode, byte[] bytes) {
+                    rejected.add(fromNode);
+                }
+            };
+
+            // occupies the only thread
+            listener.messageReceived((short)1, new byte[0]);
+            assertTrue(workerStarted.await(5, TimeUnit.SECONDS));
+            // sits in the queue
+            listener.messageReceived((short)2, new byte[0]);
+            // doesn't fit anywhere and is turned away without being handled
+            listener.messageReceived((short)3, new byte[0]);
+            assertEquals(Collections.singletonList((short)3), rejected);
+            assertTrue(handled.isEmpty());
+
+            blockWorker.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList((short)1, (short)2), handled);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -25,12 +25,18 @@ import org.mockito.Mockito;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ChainingHashTest {
@@ -82,6 +88,98 @@ public class ChainingHashTest {
         m.forEach((key, value) -> assertEquals(value, h.get(key)));
     }
 
+    @Test
+    public void testSplitOnlyTouchesFullDataBlock() throws IOException {
+        Map<String, String> m = new HashMap<>();
+        Store s = Mockito.mock(Store.class);
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+        List<DataBlock<String, String>> dataBlocks = new ArrayList<>();
+        ChainingHash<String, String> h = new ChainingHash<String, String>(s, new DataStructureFactoryImpl(s, null, null), txn) {
+            @Override
+            DataBlock<String, String> newDataBlock(Txn txn) {
+                DataBlock<String, String> db = new DataBlock<String, String>(s, txn) {
+                    @Override
+                    int getMaxByteSize() {
+                        return 256;
+                    }
+                };
+                dataBlocks.add(db);
+                return db;
+            }
+        };
+
+        int count = ChainingHash.DEFAULT_NUM_BUCKETS * 25;
+        for (int i = 0; i < count; i++) {
+            String key = UUID.randomUUID().toString();
+            String value = UUID.randomUUID().toString();
+            m.put(key, value);
+            h.put(key, value, txn);
+        }
+
+        m.forEach((key, value) -> assertEquals(value, h.get(key)));
+        // splitting never throws away data blocks
+        verify(txn, never()).addToDeletedObjects(any());
+
+        // every key is in exactly one data block
+        int numKeysInDataBlocks = 0;
+        for (DataBlock<String, String> db : dataBlocks) {
+            for (String key : db.keys()) {
+                assertEquals(m.get(key), db.get(key));
+                numKeysInDataBlocks++;
+            }
+        }
+        assertEquals(m.size(), numKeysInDataBlocks);
+
+        int numKeys = 0;
+        for (String key : h.keys()) {
+            assertTrue(m.containsKey(key));
+            numKeys++;
+        }
+        assertEquals(m.size(), numKeys);
+    }
+
+    @Test
+    public void testDirectorySpanningMultiplePages() throws IOException {
+        Map<String, String> m = new HashMap<>();
+        Store s = Mockito.mock(Store.class);
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+        ChainingHash<String, String> h = new ChainingHash<String, String>(s, new DataStructureFactoryImpl(s, null, null), txn) {
+            @Override
+            DataBlock<String, String> newDataBlock(Txn txn) {
+                return new DataBlock<String, String>(s, txn) {
+                    @Override
+                    int getMaxByteSize() {
+                        return 256;
+                    }
+                };
+            }
+
+            @Override
+            int getMaxBucketsPerPage() {
+                return 2;
+            }
+        };
+
+        int count = ChainingHash.DEFAULT_NUM_BUCKETS * 25;
+        for (int i = 0; i < count; i++) {
+            String key = UUID.randomUUID().toString();
+            String value = UUID.randomUUID().toString();
+            m.put(key, value);
+            h.put(key, value, txn);
+        }
+
+        m.forEach((key, value) -> assertEquals(value, h.get(key)));
+
+        int numKeys = 0;
+        for (String key : h.keys()) {
+            assertTrue(m.containsKey(key));
+            numKeys++;
+        }
+        assertEquals(m.size(), numKeys);
+    }
+
     @Test
     public void testDelete() throws IOException {
         Map<String, String> m = new HashMap<>();
@@ -156,6 +254,45 @@ public class ChainingHashTest {
         }
     }
 
+    @Test
+    public void testKeysWithReadAhead() throws IOException {
+        Map<String, String> m = new HashMap<>();
+        Store s = Mockito.mock(Store.class);
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+        ChainingHash<String, String> h = new ChainingHash<String, String>(s, new DataStructureFactoryImpl(s, null, null), txn) {
+            @Override
+            DataBlock<String, String> newDataBlock(Txn txn) {
+                return new DataBlock<String, String>(s, txn) {
+                    @Override
+                    int getMaxByteSize() {
+                        return 256;
+                    }
+                };
+            }
+        };
+
+        int count = ChainingHash.DEFAULT_NUM_BUCKETS * 11;
+        for (int i = 0; i < count; i++) {
+            String key = UUID.randomUUID().toString();
+            String value = UUID.randomUUID().toString();
+            m.put(key, value);
+            h.put(key, value, txn);
+        }
+
+        for (int readAhead : new int[] {0, 1, 3, 100}) {
+            int numKeys = 0;
+            Iterator<String> iter = h.keys(readAhead).iterator();
+            while (iter.hasNext()) {
+                // asking twice doesn't skip anything
+                assertTrue(iter.hasNext());
+                assertTrue(m.containsKey(iter.next()));
+                numKeys++;
+            }
+            assertEquals(m.size(), numKeys);
+        }
+    }
+
     @Test
     public void testKeysWithLastBucketBeingNull() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
         Map<String, String> m = new HashMap<>();
@@ -0,0 +1,60 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import co.paralleluniverse.galaxy.Cluster;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClusterRouterTest {
+    @Test
+    public void testRoutesFollowTheCluster() {
+        Cluster cluster = Mockito.mock(Cluster.class);
+        when(cluster.getNodes()).thenReturn(ImmutableSet.of((short)1, (short)45, (short)123));
+        ClusterRouter router = ClusterRouter.listenTo(cluster);
+        verify(cluster).addNodeChangeListener(router);
+        assertEquals(3, router.getNumNodes());
+
+        RendezVousRouter expected = new RendezVousRouter(ImmutableSet.of((short)1, (short)123));
+        when(cluster.getNodes()).thenReturn(ImmutableSet.of((short)1, (short)123));
+        router.nodeRemoved((short)45);
+        assertEquals(2, router.getNumNodes());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(expected.route(i), router.route(i));
+        }
+    }
+
+    @Test
+    public void testNodeOnItsOwn() {
+        Cluster cluster = Mockito.mock(Cluster.class);
+        when(cluster.getNodes()).thenReturn(Collections.emptySet());
+        when(cluster.getMyNodeId()).thenReturn((short)17);
+        ClusterRouter router = ClusterRouter.listenTo(cluster);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(17, router.route("key_" + i));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionPolicyTest {
+
+    @Test
+    public void testNever() {
+        assertEquals(Codec.NONE, CompressionPolicy.NEVER.choose(10000));
+    }
+
+    @Test
+    public void testAdaptiveIsPerType() {
+        assertSame(CompressionPolicy.adaptive(DataBlock.class), CompressionPolicy.adaptive(DataBlock.class));
+        assertTrue(CompressionPolicy.adaptive(DataBlock.class) != CompressionPolicy.adaptive(BTreeNode.class));
+    }
+
+    @Test
+    public void testSmallDataIsNotCompressed() {
+        CompressionPolicy.AdaptiveCompressionPolicy policy = new CompressionPolicy.AdaptiveCompressionPolicy(Codec.SNAPPY);
+        assertEquals(Codec.NONE, policy.choose(CompressionPolicy.MIN_COMPRESSIBLE_SIZE - 1));
+        assertEquals(Codec.SNAPPY, policy.choose(CompressionPolicy.MIN_COMPRESSIBLE_SIZE));
+    }
+
+    @Test
+    public void testIncompressibleDataIsSampled() {
+        CompressionPolicy.AdaptiveCompressionPolicy policy = new CompressionPolicy.AdaptiveCompressionPolicy(Codec.SNAPPY);
+        for (int i = 0; i < 100; i++) {
+            policy.observe(1000, 1010);
+        }
+        assertTrue(policy.getCompressionRatio() > CompressionPolicy.AdaptiveCompressionPolicy.MAX_WORTHWHILE_RATIO);
+
+        int numCompressed = 0;
+        for (int i = 0; i < CompressionPolicy.AdaptiveCompressionPolicy.SAMPLING_INTERVAL; i++) {
+            if (policy.choose(1000) == Codec.SNAPPY) {
+                numCompressed++;
+            }
+        }
+        // we still try every once in a while
+        assertEquals(1, numCompressed);
+    }
+
+    @Test
+    public void testCompressibleDataRecovers() {
+        CompressionPolicy.AdaptiveCompressionPolicy policy = new CompressionPolicy.AdaptiveCompressionPolicy(Codec.SNAPPY);
+        for (int i = 0; i < 100; i++) {
+            policy.observe(1000, 1010);
+        }
+        assertEquals(Codec.NONE, policy.choose(1000));
+
+        for (int i = 0; i < 100; i++) {
+            policy.observe(1000, 200);
+        }
+        assertEquals(Codec.SNAPPY, policy.choose(1000));
+    }
+}
@@ -23,6 +23,7 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -70,8 +71,10 @@ public class DataBlockTest {
 
         ByteBuffer bb = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
         db.write(bb);
-        assertEquals(78, db.size());
-        assertEquals(1549, bb.position());
+        // two entries with two bytes per integer plus the codec header
+        // small blocks aren't compressed and take up exactly as much space as advertised
+        assertEquals(9, db.size());
+        assertEquals(db.size(), bb.position());
         assertTrue(DataStructure.MAX_BYTE_SIZE > bb.remaining());
 
         bb.rewind();
@@ -93,8 +96,10 @@ public class DataBlockTest {
 
         ByteBuffer bb2 = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
         db3.write(bb2);
-        assertEquals(189, db3.size());
-        assertTrue(1665 >= bb2.position());
+        // single char strings are written with a class byte, a length byte and the char
+        // strings with 36 ascii chars are written with a class byte and their chars
+        assertEquals(1 + 3 * (3 + 37), db3.size());
+        assertTrue(db3.size() >= bb2.position());
         assertTrue(DataStructure.MAX_BYTE_SIZE > bb2.remaining());
         bb2.rewind();
 
@@ -106,6 +111,132 @@ public class DataBlockTest {
         assertEquals(db3.size(), db4.size());
     }
 
+    @Test
+    public void testLazySerialization() {
+        DataBlock<String, String> db = newDataBlock();
+        db.setLazy(true);
+        String val1 = UUID.randomUUID().toString();
+        String val2 = UUID.randomUUID().toString();
+        String val3 = UUID.randomUUID().toString();
+        db.innerPut("1", val1);
+        db.innerPut("2", val2);
+        db.innerPut("3", val3);
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
+        db.write(bb);
+        // every value has a leading length byte on top of what an eager block writes
+        assertEquals(1 + 3 * (3 + 1 + 37), db.size());
+        assertEquals(db.size(), bb.position());
+        bb.rewind();
+
+        DataBlock<String, String> db2 = newDataBlock();
+        db2.setLazy(true);
+        db2.read(bb);
+        assertEquals(db.size(), db2.size());
+        assertEquals(val2, db2.get("2"));
+
+        // values nobody decoded are written as they came in
+        db2.innerPut("4", "4");
+        ByteBuffer bb2 = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
+        db2.write(bb2);
+        assertEquals(db2.size(), bb2.position());
+        bb2.rewind();
+
+        DataBlock<String, String> db3 = newDataBlock();
+        db3.setLazy(true);
+        db3.read(bb2);
+        assertEquals(val1, db3.get("1"));
+        assertEquals(val2, db3.get("2"));
+        assertEquals(val3, db3.get("3"));
+        assertEquals("4", db3.get("4"));
+        assertNull(db3.get("5"));
+        assertEquals(db2.size(), db3.size());
+
+        assertTrue(db3.innerDelete("1"));
+        assertEquals(db2.size() - (3 + 1 + 37), db3.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCantMakeFullBlockLazy() {
+        DataBlock<Integer, Integer> db = newDataBlock();
+        db.innerPut(5, 5);
+        db.setLazy(true);
+    }
+
+    @Test
+    public void testSerializationReusesBuffers() {
+        DataBlock<String, String> db = newDataBlock();
+        for (int i = 0; i < 100; i++) {
+            db.innerPut("key_" + i, UUID.randomUUID().toString());
+        }
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
+        db.write(bb);
+
+        // the second block is a lot smaller than the first one
+        // none of the leftovers of the first block are allowed to show up
+        DataBlock<String, String> db2 = newDataBlock();
+        db2.innerPut("narf", "moep");
+        ByteBuffer bb2 = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
+        db2.write(bb2);
+        bb2.rewind();
+
+        DataBlock<String, String> db3 = newDataBlock();
+        db3.read(bb2);
+        assertEquals("moep", db3.get("narf"));
+        assertEquals(1, StreamSupport.stream(db3.keys().spliterator(), false).count());
+        assertNull(db3.get("key_0"));
+
+        bb.rewind();
+        DataBlock<String, String> db4 = newDataBlock();
+        db4.read(bb);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(db.get("key_" + i), db4.get("key_" + i));
+        }
+    }
+
+    @Test
+    public void testSmallBlocksAreNotCompressed() {
+        DataBlock<Integer, Integer> db = newDataBlock();
+        db.innerPut(5, 5);
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
+        db.write(bb);
+        assertEquals(Codec.NONE.getId(), bb.get(0));
+
+        bb.rewind();
+        DataBlock<Integer, Integer> db2 = newDataBlock();
+        db2.read(bb);
+        assertEquals(Integer.valueOf(5), db2.get(5));
+    }
+
+    @Test
+    public void testCompressibleBlocksAreCompressed() {
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+        Store s = Mockito.mock(Store.class);
+        DataBlock<Integer, String> db = new DataBlock<Integer, String>(s, txn) {
+            @Override
+            CompressionPolicy compressionPolicy() {
+                return new CompressionPolicy.AdaptiveCompressionPolicy(Codec.SNAPPY);
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            db.innerPut(i, "narf_narf_narf_narf_narf_narf");
+        }
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
+        db.write(bb);
+        assertEquals(Codec.SNAPPY.getId(), bb.get(0));
+        assertTrue(db.size() > bb.position());
+
+        bb.rewind();
+        DataBlock<Integer, String> db2 = newDataBlock();
+        db2.read(bb);
+        assertEquals("narf_narf_narf_narf_narf_narf", db2.get(42));
+        assertEquals(100, StreamSupport.stream(db2.keys().spliterator(), false).count());
+    }
+
     @Test
     public void testPutIfPossible() {
         Txn txn = Mockito.mock(Txn.class);
@@ -114,7 +245,7 @@ public class DataBlockTest {
         DataBlock<Integer, Integer> db = new DataBlock<Integer, Integer>(s, txn) {
             @Override
             int getMaxByteSize() {
-                return 80;
+                return 10;
             }
         };
 
@@ -139,7 +270,7 @@ public class DataBlockTest {
         assertNull(db.get(5));
         assertEquals(Integer.valueOf(3), db.get(3));
         assertEquals(Integer.valueOf(7), db.get(7));
-        assertEquals(78, db.size());
+        assertEquals(9, db.size());
     }
 
     @Test
@@ -152,14 +283,14 @@ public class DataBlockTest {
         assertEquals(Integer.valueOf(5), db.get(5));
         assertEquals(Integer.valueOf(3), db.get(3));
         assertEquals(Integer.valueOf(7), db.get(7));
-        assertEquals(88, db.size());
+        assertEquals(13, db.size());
 
         db.innerDelete(7);
 
         assertNull(db.get(7));
         assertEquals(Integer.valueOf(3), db.get(3));
         assertEquals(Integer.valueOf(5), db.get(5));
-        assertEquals(88, db.size());
+        assertEquals(9, db.size());
     }
 
     @Test
@@ -172,14 +303,14 @@ public class DataBlockTest {
         assertEquals(Integer.valueOf(5), db.get(5));
         assertEquals(Integer.valueOf(3), db.get(3));
         assertEquals(Integer.valueOf(7), db.get(7));
-        assertEquals(88, db.size());
+        assertEquals(13, db.size());
 
         db.innerDelete(3);
 
         assertNull(db.get(3));
         assertEquals(Integer.valueOf(5), db.get(5));
         assertEquals(Integer.valueOf(7), db.get(7));
-        assertEquals(78, db.size());
+        assertEquals(9, db.size());
     }
 
     @Test
@@ -188,7 +319,7 @@ public class DataBlockTest {
         db.innerPut(3, 3);
         db.innerPut(5, 5);
         db.innerPut(7, 7);
-        assertEquals(88, db.size());
+        assertEquals(13, db.size());
 
         Set<Integer> keys = new HashSet<>();
         for (Integer key : db.keys()) {
@@ -220,6 +351,25 @@ public class DataBlockTest {
         assertEquals(1, Collections.frequency(allKeys, 5));
     }
 
+    @Test
+    public void testKeysAreSorted() {
+        DataBlock<Integer, Integer> db = newDataBlock();
+        db.innerPut(7, 7);
+        db.innerPut(3, 3);
+        db.innerPut(9, 9);
+        db.innerPut(5, 5);
+        db.innerDelete(9);
+        db.innerPut(1, 1);
+
+        List<Integer> allKeys = new LinkedList<>();
+        StreamSupport.stream(db.keys().spliterator(), false).forEach(allKeys::add);
+        assertEquals(Arrays.asList(1, 3, 5, 7), allKeys);
+        assertNull(db.get(9));
+        assertNull(db.get(4));
+        assertEquals(Integer.valueOf(1), db.get(1));
+        assertEquals(Integer.valueOf(7), db.get(7));
+    }
+
     private <Key extends Comparable<Key>, Value> DataBlock<Key, Value> newDataBlock() {
         Txn txn = Mockito.mock(Txn.class);
         when(txn.getStoreTransaction()).thenReturn(null);
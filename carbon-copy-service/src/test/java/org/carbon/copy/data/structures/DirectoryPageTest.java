@@ -0,0 +1,88 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import co.paralleluniverse.galaxy.Store;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class DirectoryPageTest {
+    @Test
+    public void testSerialization() {
+        Store s = Mockito.mock(Store.class);
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+
+        DirectoryPage<Integer, Integer> page = new DirectoryPage<>(s, 4, 2, txn);
+        DataBlock<Integer, Integer> db1 = new DataBlock<>(s, 123L, false);
+        DataBlock<Integer, Integer> db2 = new DataBlock<>(s, 456L, false);
+        page.setBucket(0, db1, 1, txn);
+        page.setBucket(2, db1, 1, txn);
+        page.setBucket(3, db2, 2, txn);
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(DataStructure.MAX_BYTE_SIZE);
+        page.write(bb);
+        // ids of data blocks might not be known when buckets are set
+        // that's why there's always room for the biggest id
+        assertTrue(page.size() >= bb.position());
+        bb.rewind();
+
+        Map<Long, DataBlock<Integer, Integer>> proxies = new HashMap<>();
+        DirectoryPage<Integer, Integer> page2 = new DirectoryPage<>(s, 17L);
+        page2.setDataBlockLoader(id -> proxies.computeIfAbsent(id, i -> new DataBlock<>(s, i, false)));
+        page2.read(bb);
+
+        assertEquals(page.size(), page2.size());
+        assertEquals(4, page2.getNumBuckets());
+        assertEquals(123L, page2.getDataBlock(0).getId());
+        assertSame(page2.getDataBlock(0), page2.getDataBlock(2));
+        assertNull(page2.getDataBlock(1));
+        assertEquals(456L, page2.getDataBlock(3).getId());
+        assertEquals(1, page2.getLocalDepth(0));
+        assertEquals(2, page2.getLocalDepth(1));
+        assertEquals(2, page2.getLocalDepth(3));
+    }
+
+    @Test
+    public void testDoubleBuckets() {
+        Store s = Mockito.mock(Store.class);
+        Txn txn = Mockito.mock(Txn.class);
+        when(txn.getStoreTransaction()).thenReturn(null);
+
+        DirectoryPage<Integer, Integer> page = new DirectoryPage<>(s, 2, 1, txn);
+        DataBlock<Integer, Integer> db = new DataBlock<>(s, 123L, false);
+        page.setBucket(1, db, 1, txn);
+        page.doubleBuckets(txn);
+
+        assertEquals(4, page.getNumBuckets());
+        assertNull(page.getDataBlock(2));
+        assertSame(db, page.getDataBlock(3));
+        assertEquals(DirectoryPage.sizeOfPage(4), page.size() - Codec.HEADER_SIZE);
+    }
+}
@@ -25,34 +25,29 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.io.IOException;
-import java.util.Set;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyString;
 
 public class DistHashTest {
     @Test
     public void testHashing() throws IOException {
-        DistHash<Integer, String> dh = new DistHash<Integer, String>(Mockito.mock(Store.class), Mockito.mock(InternalDataStructureFactory.class), Mockito.mock(Cluster.class), Mockito.mock(Messenger.class), Mockito.mock(Txn.class)) {
-            @Override
-            protected Set<Short> getNodes() {
-                return ImmutableSet.of(
-                        (short)1,
-                        (short)45,
-                        (short)123
-                );
-            }
+        Cluster cluster = Mockito.mock(Cluster.class);
+        Mockito.when(cluster.getNodes()).thenReturn(ImmutableSet.of(
+                (short)1,
+                (short)45,
+                (short)123
+        ));
+        DistHash<Integer, String> dh = new DistHash<>(Mockito.mock(Store.class), Mockito.mock(InternalDataStructureFactory.class), ClusterRouter.listenTo(cluster), Mockito.mock(Messenger.class), Mockito.mock(Txn.class));
 
-            @Override
-            protected short getMyNodeId(Cluster cluster) {
-                return (short)456;
-            }
-        };
-
-        Short nodeId = dh.rendezVousHashTheKeyToANode(17);
-        assertEquals(Short.valueOf((short)1), nodeId);
+        short nodeId = dh.rendezVousHashTheKeyToANode(17);
+        assertEquals(123, nodeId);
 
 //        SizeOf sizeOf = SizeOf.newInstance();
 //        long shallowSize = sizeOf.sizeOf(someObject);
@@ -64,7 +59,7 @@ public class DistHashTest {
         String key = "some_string";
         Integer value = 123;
         Long blockId = Long.MAX_VALUE;
-        UUID requestId = UUID.randomUUID();
+        long requestId = 1234567890123L;
 
         DistHash.PutRequest putReq = new DistHash.PutRequest(key, value, blockId);
         putReq.setRequestId(requestId);
@@ -90,12 +85,181 @@ public class DistHashTest {
         assertEquals(requestId, putReq2.requestId);
     }
 
+    @Test(expected = RuntimeException.class)
+    public void testMessageTypeMismatch() {
+        DistHash.PutRequest putReq = new DistHash.PutRequest("some_string", 123, null);
+        new DistHash.PutResponse(putReq.toByteArray());
+    }
+
+    @Test
+    public void testBatchSerialization() {
+        List<String> keys = Arrays.asList("some_string", "some_other_string");
+        List<Object> values = Arrays.asList(123, null);
+        Long blockId = Long.MAX_VALUE;
+        long requestId = 1234567890123L;
+
+        DistHash.PutAllRequest putAllReq = new DistHash.PutAllRequest(keys, values, blockId);
+        putAllReq.setRequestId(requestId);
+        DistHash.PutAllRequest putAllReq2 = new DistHash.PutAllRequest(putAllReq.toByteArray());
+        assertEquals(keys, putAllReq2.keys);
+        assertEquals(values, putAllReq2.values);
+        assertEquals(blockId, putAllReq2.blockId);
+        assertEquals(requestId, putAllReq2.requestId);
+
+        DistHash.GetAllRequest getAllReq = new DistHash.GetAllRequest(keys, null);
+        getAllReq.setRequestId(requestId);
+        DistHash.GetAllRequest getAllReq2 = new DistHash.GetAllRequest(getAllReq.toByteArray());
+        assertEquals(keys, getAllReq2.keys);
+        assertNull(getAllReq2.blockId);
+        assertEquals(requestId, getAllReq2.requestId);
+
+        DistHash.GetAllResponse getAllResp = new DistHash.GetAllResponse(values);
+        DistHash.GetAllResponse getAllResp2 = new DistHash.GetAllResponse(getAllResp.toByteArray());
+        assertEquals(values, getAllResp2.values);
+    }
+
+    @Test
+    public void testPutAllRequestResponse() throws IOException {
+        List<String> initialKeys = Arrays.asList("some_string", "some_other_string");
+        List<Object> initialValues = Arrays.asList(123, 456);
+        long initialRequestId = 42L;
+        Long hashId = 123456789L;
+        Txn txn = Mockito.mock(Txn.class);
+        List<Comparable> puts = new ArrayList<>();
+        BaseMessage[] messageBuffer = new BaseMessage[1];
+
+        DistHash.PutAllRequest request = new DistHash.PutAllRequest(initialKeys, initialValues, hashId);
+        request.setRequestId(initialRequestId);
+
+        DistHash.PutAllRequestMessageListener putAllRequestListener = new DistHash.PutAllRequestMessageListener(null, null, null) {
+            @Override
+            protected Txn beginTransaction() {
+                return txn;
+            }
+
+            @Override
+            protected ChainingHash newChainingHash(Txn txn) {
+                fail();
+                return null;
+            }
+
+            @Override
+            protected ChainingHash loadChainingHashForWrites(long blockId, Txn txn) {
+                assertEquals(hashId.longValue(), blockId);
+                ChainingHash hash = Mockito.mock(ChainingHash.class);
+                Mockito.when(hash.getId()).thenReturn(hashId);
+                return hash;
+            }
+
+            @Override
+            protected void put(ChainingHash ch, Comparable key, Object value, Txn t) {
+                assertEquals(txn, t);
+                assertEquals(initialValues.get(initialKeys.indexOf(key)), value);
+                puts.add(key);
+            }
+
+            @Override
+            protected void replyTo(short toNode, long requestId, BaseMessage messageToSend) {
+                messageToSend.setRequestId(requestId);
+                messageBuffer[0] = messageToSend;
+            }
+        };
+        putAllRequestListener.messageReceived((short)15, request.toByteArray());
+        assertEquals(initialKeys, puts);
+        // the entire batch is committed at once
+        Mockito.verify(txn, Mockito.times(1)).commit();
+
+        DistHash.PutResponseMessageListener putResponseListener = new DistHash.PutResponseMessageListener(null) {
+            @Override
+            protected void complete(long requestId, Object blockId) {
+                assertEquals(hashId, blockId);
+                assertEquals(initialRequestId, requestId);
+            }
+        };
+        putResponseListener.messageReceived((short)17, messageBuffer[0].toByteArray());
+    }
+
+
+    @Test
+    public void testPutAllRequestRollsBackOnFailure() throws IOException {
+        List<String> initialKeys = Arrays.asList("some_string", "some_other_string");
+        List<Object> initialValues = Arrays.asList(123, 456);
+        long initialRequestId = 42L;
+        Long hashId = 123456789L;
+        Txn txn = Mockito.mock(Txn.class);
+        BaseMessage[] messageBuffer = new BaseMessage[1];
+
+        DistHash.PutAllRequest request = new DistHash.PutAllRequest(initialKeys, initialValues, hashId);
+        request.setRequestId(initialRequestId);
+
+        DistHash.PutAllRequestMessageListener putAllRequestListener = new DistHash.PutAllRequestMessageListener(null, null, null) {
+            @Override
+            protected Txn beginTransaction() {
+                return txn;
+            }
+
+            @Override
+            protected ChainingHash loadChainingHashForWrites(long blockId, Txn txn) {
+                return Mockito.mock(ChainingHash.class);
+            }
+
+            @Override
+            protected void put(ChainingHash ch, Comparable key, Object value, Txn t) {
+                if ("some_other_string".equals(key)) {
+                    throw new IllegalStateException("narf");
+                }
+            }
+
+            @Override
+            protected void replyTo(short toNode, long requestId, BaseMessage messageToSend) {
+                messageToSend.setRequestId(requestId);
+                messageBuffer[0] = messageToSend;
+            }
+        };
+        putAllRequestListener.messageReceived((short)15, request.toByteArray());
+        // none of the batch makes it in
+        Mockito.verify(txn, Mockito.never()).commit();
+        Mockito.verify(txn, Mockito.times(1)).rollback();
+
+        boolean[] failed = new boolean[1];
+        ErrorResponse.ErrorResponseMessageListener errorResponseListener = new ErrorResponse.ErrorResponseMessageListener(null) {
+            @Override
+            protected void fail(long requestId, Throwable cause) {
+                assertEquals(initialRequestId, requestId);
+                assertTrue(cause.getMessage().contains("narf"));
+                failed[0] = true;
+            }
+        };
+        errorResponseListener.messageReceived((short)17, messageBuffer[0].toByteArray());
+        assertTrue(failed[0]);
+    }
+
+    @Test
+    public void testRejectedRequestGetsErrorResponse() {
+        long initialRequestId = 42L;
+        BaseMessage[] messageBuffer = new BaseMessage[1];
+
+        DistHash.GetRequest request = new DistHash.GetRequest("some_string", 123456789L);
+        request.setRequestId(initialRequestId);
+
+        DistHash.GetRequestMessageListener getRequestListener = new DistHash.GetRequestMessageListener(null, null) {
+            @Override
+            protected void replyTo(short toNode, long requestId, BaseMessage messageToSend) {
+                assertEquals(15, toNode);
+                messageToSend.setRequestId(requestId);
+                messageBuffer[0] = messageToSend;
+            }
+        };
+        getRequestListener.rejected((short)15, request.toByteArray());
+        assertTrue(messageBuffer[0] instanceof ErrorResponse);
+        assertEquals(initialRequestId, messageBuffer[0].requestId);
+    }
 
     @Test
     public void testPutRequestResponse() throws IOException {
         String initialKey = "some_string";
         Integer initialValue = 123;
-        UUID initialRequestId = UUID.randomUUID();
+        long initialRequestId = 42L;
         Long hashId = 123456789L;
         // use this to stash the message from the mock
         // it can reach into the closure
@@ -130,7 +294,7 @@ public class DistHashTest {
             }
 
             @Override
-            protected void replyTo(short toNode, UUID requestId, BaseMessage messageToSend) {
+            protected void replyTo(short toNode, long requestId, BaseMessage messageToSend) {
                 messageToSend.setRequestId(requestId);
                 messageBuffer[0] = messageToSend;
             }
@@ -139,7 +303,7 @@ public class DistHashTest {
 
         DistHash.PutResponseMessageListener putResponseListener = new DistHash.PutResponseMessageListener(null) {
             @Override
-            protected void complete(UUID requestId, Object blockId) {
+            protected void complete(long requestId, Object blockId) {
                 assertEquals(hashId, blockId);
                 assertEquals(initialRequestId, requestId);
             }
@@ -152,7 +316,7 @@ public class DistHashTest {
     public void testGetRequestResponse() throws IOException {
         String initialKey = "some_string";
         Integer initialValue = 123;
-        UUID initialRequestId = UUID.randomUUID();
+        long initialRequestId = 42L;
         Long hashId = 123456789L;
         // use this to stash the message from the mock
         // it can reach into the closure
@@ -170,7 +334,7 @@ public class DistHashTest {
             }
 
             @Override
-            protected void replyTo(short toNode, UUID requestId, BaseMessage messageToSend) {
+            protected void replyTo(short toNode, long requestId, BaseMessage messageToSend) {
                 messageToSend.setRequestId(requestId);
                 messageBuffer[0] = messageToSend;
             }
@@ -179,7 +343,7 @@ public class DistHashTest {
 
         DistHash.GetResponseMessageListener getResponseListener = new DistHash.GetResponseMessageListener(null) {
             @Override
-            protected void complete(UUID requestId, Object value) {
+            protected void complete(long requestId, Object value) {
                 assertEquals(initialRequestId, requestId);
                 assertEquals(initialValue, value);
             }
@@ -31,6 +31,10 @@ import java.util.UUID;
 import static org.junit.Assert.assertEquals;
 
 public class GalaxyBTreeTest extends GalaxyBaseTest {
+    // nodes fill up a cache line
+    // this many small entries don't fit into a single node
+    private static final int NUM_ENTRIES_FOR_MULTIPLE_NODES = 5000;
+
     @Inject
     private InternalDataStructureFactory dsFactory;
 
@@ -57,7 +61,7 @@ public class GalaxyBTreeTest extends GalaxyBaseTest {
     @Test
     public void testBasicWithMultipleNodes() throws IOException {
         long treeId;
-        int count = BTree.MAX_NODE_SIZE * 3;
+        int count = NUM_ENTRIES_FOR_MULTIPLE_NODES;
         Txn txn = txnManager.beginTransaction();
         BTree<Integer, String> t = dsFactory.newBTree(txn);
         for (int i = 0; i < count; i++) {
@@ -75,7 +79,7 @@ public class GalaxyBTreeTest extends GalaxyBaseTest {
     @Test
     public void testBasicWithMultipleNodesReadInViaDump() throws IOException {
         long treeId;
-        int count = BTree.MAX_NODE_SIZE * 3;
+        int count = NUM_ENTRIES_FOR_MULTIPLE_NODES;
         Txn txn = txnManager.beginTransaction();
         BTree<Integer, String> t = dsFactory.newBTree(txn);
         for (int i = 0; i < count; i++) {
@@ -95,7 +99,7 @@ public class GalaxyBTreeTest extends GalaxyBaseTest {
     @Test
     public void testValueIterationWithMultipleNodes() throws IOException {
         long treeId;
-        int count = BTree.MAX_NODE_SIZE * 3;
+        int count = NUM_ENTRIES_FOR_MULTIPLE_NODES;
         Txn txn = txnManager.beginTransaction();
         BTree<Integer, String> t = dsFactory.newBTree(txn);
         for (int i = 0; i < count; i++) {
@@ -114,10 +118,39 @@ public class GalaxyBTreeTest extends GalaxyBaseTest {
         assertEquals(count, assertionCount);
     }
 
+    @Test
+    public void testRangeScansWithReadAhead() throws IOException {
+        long treeId;
+        int count = NUM_ENTRIES_FOR_MULTIPLE_NODES;
+        Txn txn = txnManager.beginTransaction();
+        BTree<Integer, String> t = dsFactory.newBTree(txn);
+        for (int i = 0; i < count; i++) {
+            t.put(i, "value_" + i, txn);
+        }
+        treeId = t.getId();
+        txn.commit();
+
+        BTree<Integer, String> t2 = dsFactory.loadBTree(treeId);
+        int assertionCount = 0;
+        for (String value : t2.get(1000, 3999, 4)) {
+            assertEquals("value_" + (1000 + assertionCount), value);
+            assertionCount++;
+        }
+        assertEquals(3000, assertionCount);
+
+        BTree<Integer, String> t3 = dsFactory.loadBTree(treeId);
+        assertionCount = 0;
+        for (String value : t3.getDescending(1000, 3999)) {
+            assertEquals("value_" + (3999 - assertionCount), value);
+            assertionCount++;
+        }
+        assertEquals(3000, assertionCount);
+    }
+
     @Test
     public void testCreateReadWriteRead() throws IOException {
         long treeId;
-        int count = BTree.MAX_NODE_SIZE * 3;
+        int count = NUM_ENTRIES_FOR_MULTIPLE_NODES;
         Txn txn1 = txnManager.beginTransaction();
 
         BTree<Integer, String> t1 = dsFactory.newBTree(txn1);
@@ -22,7 +22,10 @@ import com.google.inject.Inject;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
@@ -231,6 +234,40 @@ public class GalaxyChainingHashTest extends GalaxyBaseTest {
         assertTrue(values.isEmpty());
     }
 
+    @Test
+    public void testPutAfterAbandonedScan() throws IOException {
+        Map<String, Long> m = new HashMap<>();
+        Random r = new Random();
+
+        Txn txn = txnManager.beginTransaction();
+        ChainingHash<String, Long> ch = dsFactory.newChainingHash(txn);
+        for (int i = 0; i < 1000; i++) {
+            String key = "key_" + i;
+            Long value = r.nextLong();
+            ch.put(key, value, txn);
+            m.put(key, value);
+        }
+
+        txn.commit();
+        txn = txnManager.beginTransaction();
+        ch = dsFactory.loadChainingHashForWrites(ch.getId(), txn);
+        // this prefetches a bunch of data blocks and walks away from them
+        Iterator<String> iter = ch.keys(8).iterator();
+        assertTrue(m.containsKey(iter.next()));
+
+        for (int i = 1000; i < 2000; i++) {
+            String key = "key_" + i;
+            Long value = r.nextLong();
+            ch.put(key, value, txn);
+            m.put(key, value);
+        }
+
+        txn.commit();
+
+        ChainingHash<String, Long> ch2 = dsFactory.loadChainingHash(ch.getId());
+        m.forEach((key, value) -> assertEquals(value, ch2.get(key)));
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testNewChainingHashRollback() throws IOException {
         Random r = new Random();
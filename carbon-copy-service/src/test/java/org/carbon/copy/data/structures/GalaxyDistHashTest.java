@@ -26,7 +26,11 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
@@ -64,6 +68,27 @@ public class GalaxyDistHashTest extends GalaxyBaseTest {
         assertEquals(str, receivedStr);
     }
 
+    @Test
+    public void testPutAllGetAll() throws Exception {
+        Map<Integer, String> entries = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put(i, UUID.randomUUID().toString());
+        }
+
+        Txn txn = txnManager.beginTransaction();
+        DistHash<Integer, String> dh = dsFactory.newDistHash(txn);
+        dh.putAll(entries, txn);
+        txn.commit();
+
+        List<Integer> keys = new ArrayList<>(entries.keySet());
+        keys.add(123);
+        Map<Integer, String> received = dh.getAll(keys);
+        assertEquals(101, received.size());
+        assertNull(received.get(123));
+        entries.forEach((key, value) -> assertEquals(value, received.get(key)));
+        assertEquals(entries.get(17), dh.get(17));
+    }
+
     @Test
     public void testNullKey() throws IOException {
         String str = UUID.randomUUID().toString();
@@ -19,14 +19,25 @@
 package org.carbon.copy.data.structures;
 
 import com.google.inject.Inject;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class GalaxyIndexTest extends GalaxyBaseTest {
     @Inject
@@ -95,6 +106,238 @@ public class GalaxyIndexTest extends GalaxyBaseTest {
         assertEquals(2, assertionCounter);
     }
 
+    @Test
+    public void testPrefixAndBounds() throws IOException {
+        Txn txn = txnManager.beginTransaction();
+        Index.Builder indexBuilder = Index.newBuilder("narf")
+                .withColumn("tenant", Integer.class)
+                .withColumn("ts", Long.class);
+        Index idx = dsFactory.newIndex(indexBuilder, txn);
+
+        Map<Tuple, GUID> tupleToGUID = new HashMap<>();
+        for (int tenant = 0; tenant < 5; tenant++) {
+            for (long ts = 0; ts < 10; ts++) {
+                Tuple tuple = Tuple.builder().add(tenant).add(ts).build();
+                GUID guid = GUID.randomGUID();
+                tupleToGUID.put(tuple, guid);
+                idx.insert(tuple, guid, txn);
+            }
+            Tuple nullTuple = Tuple.builder().add(tenant).add(null).build();
+            GUID guid = GUID.randomGUID();
+            tupleToGUID.put(nullTuple, guid);
+            idx.insert(nullTuple, guid, txn);
+        }
+        txn.commit();
+
+        Index loadedIdx = dsFactory.loadIndex(idx.getId());
+        Tuple tenant3 = Tuple.builder().add(3).build();
+
+        // tenant = 3
+        List<GUID> guids = toList(loadedIdx.getByPrefix(tenant3));
+        assertEquals(11, guids.size());
+        for (long ts = 0; ts < 10; ts++) {
+            assertEquals(tupleToGUID.get(Tuple.builder().add(3).add(ts).build()), guids.get((int) ts));
+        }
+        // nulls come last
+        assertEquals(tupleToGUID.get(Tuple.builder().add(3).add(null).build()), guids.get(10));
+
+        // tenant = 3 and ts > 7
+        Tuple tenant3ts7 = Tuple.builder().add(3).add(7L).build();
+        guids = toList(loadedIdx.get(tenant3ts7, false, tenant3, true));
+        assertEquals(3, guids.size());
+        assertEquals(tupleToGUID.get(Tuple.builder().add(3).add(8L).build()), guids.get(0));
+        assertEquals(tupleToGUID.get(Tuple.builder().add(3).add(9L).build()), guids.get(1));
+
+        // same thing without nulls
+        Tuple tenant3Null = Tuple.builder().add(3).add(null).build();
+        guids = toList(loadedIdx.get(tenant3ts7, false, tenant3Null, false));
+        assertEquals(2, guids.size());
+
+        // tenant = 3 and ts <= 1
+        guids = toList(loadedIdx.get(tenant3, true, Tuple.builder().add(3).add(1L).build(), true));
+        assertEquals(2, guids.size());
+        assertEquals(tupleToGUID.get(Tuple.builder().add(3).add(0L).build()), guids.get(0));
+
+        // tenant > 3
+        assertEquals(11, toList(loadedIdx.get(tenant3, false, null, true)).size());
+        // tenant < 3
+        assertEquals(33, toList(loadedIdx.get(null, true, tenant3, false)).size());
+        // everything
+        assertEquals(55, toList(loadedIdx.get(null, true, null, true)).size());
+    }
+
+    @Test
+    public void testCovering() throws IOException {
+        Txn txn = txnManager.beginTransaction();
+        Index.Builder indexBuilder = Index.newBuilder("narf")
+                .withColumn("id", Integer.class)
+                .withIncludedColumn("name", String.class)
+                .withIncludedColumn("score", Double.class);
+        Index idx = dsFactory.newIndex(indexBuilder, txn);
+
+        List<GUID> guids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            GUID guid = GUID.randomGUID();
+            guids.add(guid);
+            Tuple includedValues = Tuple.builder().add("name_" + i).add(i * 0.5).build();
+            idx.insert(Tuple.builder().add(i).build(), guid, includedValues, txn);
+        }
+        txn.commit();
+
+        Index loadedIdx = dsFactory.loadIndex(idx.getId());
+        assertTrue(loadedIdx.isCovering());
+        assertEquals(Arrays.asList("name", "score"), loadedIdx.getIncludedColumnNames());
+
+        Tuple key = Tuple.builder().add(17).build();
+        assertEquals(guids.get(17), loadedIdx.get(key));
+        Tuple covered = loadedIdx.getCovered(key);
+        assertEquals(guids.get(17), covered.getGuid());
+        assertEquals(17, covered.get(0));
+        assertEquals("name_17", covered.get(1));
+        assertEquals(8.5, covered.get(2));
+
+        List<Tuple> tuples = new ArrayList<>();
+        loadedIdx.getCovered(Tuple.builder().add(10).build(), false, Tuple.builder().add(20).build(), false).forEach(tuples::add);
+        assertEquals(9, tuples.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            assertEquals(guids.get(11 + i), tuples.get(i).getGuid());
+            assertEquals(11 + i, tuples.get(i).get(0));
+            assertEquals("name_" + (11 + i), tuples.get(i).get(1));
+        }
+
+        Txn txn2 = txnManager.beginTransaction();
+        Index idx2 = dsFactory.loadIndexForWrites(idx.getId(), txn2);
+        idx2.delete(key, guids.get(17), txn2);
+        txn2.commit();
+        assertNull(dsFactory.loadIndex(idx.getId()).getCovered(key));
+    }
+
+    @Test
+    public void testCoveringInsertAll() throws IOException {
+        Txn txn = txnManager.beginTransaction();
+        Index.Builder indexBuilder = Index.newBuilder("narf")
+                .withColumn("id", Integer.class)
+                .withIncludedColumn("name", String.class);
+        Index idx = dsFactory.newIndex(indexBuilder, txn);
+
+        List<Triple<Tuple, GUID, Tuple>> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(Triple.of(Tuple.builder().add(i).build(), GUID.randomGUID(), Tuple.builder().add("name_" + i).build()));
+        }
+        Collections.shuffle(entries);
+        idx.insertAllWithIncludedValues(entries, txn);
+        txn.commit();
+
+        Index loadedIdx = dsFactory.loadIndex(idx.getId());
+        for (Triple<Tuple, GUID, Tuple> entry : entries) {
+            Tuple covered = loadedIdx.getCovered(entry.getLeft());
+            assertEquals(entry.getMiddle(), covered.getGuid());
+            assertEquals(entry.getRight().get(0), covered.get(1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCoveringWrongIncludedTypes() throws IOException {
+        Txn txn = txnManager.beginTransaction();
+        Index idx = dsFactory.newIndex(Index.newBuilder("narf").withColumn("id", Integer.class).withIncludedColumn("name", String.class), txn);
+        idx.insert(Tuple.builder().add(1).build(), GUID.randomGUID(), Tuple.builder().add(123).build(), txn);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNonUniqueCovering() {
+        Index.newBuilder("narf").withColumn("id", Integer.class).nonUnique().withIncludedColumn("name", String.class);
+    }
+
+    @Test
+    public void testNonUnique() throws IOException {
+        Txn txn = txnManager.beginTransaction();
+        Index.Builder indexBuilder = Index.newBuilder("narf")
+                .withColumn("status", String.class)
+                .nonUnique();
+        Index idx = dsFactory.newIndex(indexBuilder, txn);
+
+        Tuple active = Tuple.builder().add("active").build();
+        Tuple deleted = Tuple.builder().add("deleted").build();
+        Tuple pending = Tuple.builder().add("pending").build();
+        // these many GUIDs don't fit inline
+        int numActive = PostingList.MAX_INLINE_GUIDS * 3;
+        Set<GUID> activeGUIDs = new HashSet<>();
+        for (int i = 0; i < numActive; i++) {
+            GUID guid = GUID.randomGUID();
+            activeGUIDs.add(guid);
+            idx.insert(active, guid, txn);
+        }
+        Set<GUID> deletedGUIDs = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            GUID guid = GUID.randomGUID();
+            deletedGUIDs.add(guid);
+            idx.insert(deleted, guid, txn);
+        }
+        GUID pendingGUID = GUID.randomGUID();
+        idx.insert(pending, pendingGUID, txn);
+        txn.commit();
+
+        Index loadedIdx = dsFactory.loadIndex(idx.getId());
+        assertFalse(loadedIdx.isUnique());
+        assertEquals(activeGUIDs, toSet(loadedIdx.getAll(active)));
+        assertEquals(deletedGUIDs, toSet(loadedIdx.getAll(deleted)));
+        assertEquals(Collections.singleton(pendingGUID), toSet(loadedIdx.getAll(pending)));
+
+        // ranges return all GUIDs of all tuples in range
+        Set<GUID> rangeGUIDs = toSet(loadedIdx.get(active, deleted));
+        assertEquals(numActive + 3, rangeGUIDs.size());
+        assertTrue(rangeGUIDs.containsAll(activeGUIDs));
+        assertTrue(rangeGUIDs.containsAll(deletedGUIDs));
+
+        Txn txn2 = txnManager.beginTransaction();
+        Index idx2 = dsFactory.loadIndexForWrites(idx.getId(), txn2);
+        GUID removedGUID = activeGUIDs.iterator().next();
+        idx2.delete(active, removedGUID, txn2);
+        idx2.delete(pending, pendingGUID, txn2);
+        txn2.commit();
+        activeGUIDs.remove(removedGUID);
+
+        Index loadedIdx2 = dsFactory.loadIndex(idx.getId());
+        assertEquals(activeGUIDs, toSet(loadedIdx2.getAll(active)));
+        assertFalse(loadedIdx2.getAll(pending).iterator().hasNext());
+        assertEquals(2, loadedIdx2.keys().count());
+    }
+
+    @Test
+    public void testNonUniqueInsertAll() throws IOException {
+        Txn txn = txnManager.beginTransaction();
+        Index.Builder indexBuilder = Index.newBuilder("narf")
+                .withColumn("tenant", Integer.class)
+                .nonUnique();
+        Index idx = dsFactory.newIndex(indexBuilder, txn);
+
+        List<Pair<Tuple, GUID>> entries = new ArrayList<>();
+        Map<Integer, Set<GUID>> tenantToGUIDs = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            // tenant 0 gets a lot more rows than the others
+            int tenant = (i % 2 == 0) ? 0 : i % 7;
+            GUID guid = GUID.randomGUID();
+            entries.add(Pair.of(Tuple.builder().add(tenant).build(), guid));
+            tenantToGUIDs.computeIfAbsent(tenant, t -> new HashSet<>()).add(guid);
+        }
+        idx.insertAll(entries, txn);
+        txn.commit();
+
+        Index loadedIdx = dsFactory.loadIndex(idx.getId());
+        for (Map.Entry<Integer, Set<GUID>> e : tenantToGUIDs.entrySet()) {
+            assertEquals(e.getValue(), toSet(loadedIdx.getAll(Tuple.builder().add(e.getKey()).build())));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNonUniqueGet() throws IOException {
+        Txn txn = txnManager.beginTransaction();
+        Index idx = dsFactory.newIndex(Index.newBuilder("narf").withColumn("status", String.class).nonUnique(), txn);
+        Tuple active = Tuple.builder().add("active").build();
+        idx.insert(active, GUID.randomGUID(), txn);
+        idx.get(active);
+    }
+
     @Test
     public void testGetColumnNames() throws IOException {
         Index.Builder indexBuilder = Index.newBuilder("narf")
@@ -114,4 +357,16 @@ public class GalaxyIndexTest extends GalaxyBaseTest {
         assertEquals("foo", columnNames.get(1));
         assertEquals("foobar", columnNames.get(2));
     }
+
+    private static Set<GUID> toSet(Iterable<GUID> guids) {
+        Set<GUID> set = new HashSet<>();
+        guids.forEach(set::add);
+        return set;
+    }
+
+    private static List<GUID> toList(Iterable<GUID> guids) {
+        List<GUID> list = new ArrayList<>();
+        guids.forEach(list::add);
+        return list;
+    }
 }
@@ -26,6 +26,8 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class GalaxyTableTest extends GalaxyBaseTest {
     @Inject
@@ -133,4 +135,39 @@ public class GalaxyTableTest extends GalaxyBaseTest {
         assertEquals("MOEP", cols.get(1));
         assertEquals("FOO", cols.get(2));
     }
+
+    @Test
+    public void testIndexesAreMaintained() throws IOException {
+        Table.Builder tableBuilder = Table.newBuilder("narf_" + UUID.randomUUID().toString())
+                .withColumn("id", Integer.class)
+                .withColumn("moep", String.class)
+                .withColumn("foo", Long.class);
+        Index.Builder indexBuilder = Index.newBuilder("narf_idx_" + UUID.randomUUID().toString())
+                .withColumn("id", Integer.class)
+                .withIncludedColumn("foo", Long.class);
+
+        Txn txn = txnManager.beginTransaction();
+        Table table1 = dsFactory.newTable(tableBuilder, txn);
+        GUID guid1 = table1.insert(Tuple.builder().add(123).add("moep").add(19L).build(), txn);
+        Index index1 = dsFactory.newIndex(indexBuilder, txn);
+        // the tuple that is in the table already makes it into the index too
+        table1.addIndex(index1, txn);
+        GUID guid2 = table1.insert(Tuple.builder().add(234).add("__moep__").add(42L).build(), txn);
+        txn.commit();
+
+        Index index2 = dsFactory.loadIndex(index1.getId());
+        assertEquals(guid1, index2.get(Tuple.builder().add(123).build()));
+        assertEquals(guid2, index2.get(Tuple.builder().add(234).build()));
+        assertEquals(42L, index2.getCovered(Tuple.builder().add(234).build()).get(1));
+
+        txn = txnManager.beginTransaction();
+        Table table2 = dsFactory.loadTableForWrites(table1.getId(), txn);
+        assertTrue(table2.delete(guid1, txn));
+        txn.commit();
+
+        Index index3 = dsFactory.loadIndex(index1.getId());
+        assertNull(index3.get(Tuple.builder().add(123).build()));
+        assertEquals(guid2, index3.get(Tuple.builder().add(234).build()));
+        assertNull(dsFactory.loadTable(table1.getId()).get(guid1));
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessengerImplTest {
+    @Test
+    public void testComplete() throws Exception {
+        MessengerImpl messenger = new MessengerImpl(Mockito.mock(co.paralleluniverse.galaxy.Messenger.class));
+        TestMessage message = new TestMessage();
+        CompletableFuture<String> f = messenger.send((short)1, message);
+        CompletableFuture<Integer> length = f.thenApply(String::length);
+
+        messenger.complete(message.requestId, "narf");
+        assertEquals("narf", f.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(4), length.get(5, TimeUnit.SECONDS));
+        assertFalse(MessengerImpl.isInProgress(message.requestId));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        MessengerImpl messenger = new MessengerImpl(Mockito.mock(co.paralleluniverse.galaxy.Messenger.class));
+        TestMessage message = new TestMessage();
+        CompletableFuture<String> f = messenger.send((short)1, message, 50, TimeUnit.MILLISECONDS);
+
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException xcp) {
+            assertTrue(xcp.getCause() instanceof TimeoutException);
+        }
+        assertFalse(MessengerImpl.isInProgress(message.requestId));
+
+        // a late response doesn't find its request anymore
+        messenger.complete(message.requestId, "narf");
+        assertTrue(f.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        MessengerImpl messenger = new MessengerImpl(Mockito.mock(co.paralleluniverse.galaxy.Messenger.class));
+        TestMessage message = new TestMessage();
+        CompletableFuture<String> f = messenger.send((short)1, message);
+
+        assertTrue(f.cancel(false));
+        assertFalse(MessengerImpl.isInProgress(message.requestId));
+        messenger.complete(message.requestId, "narf");
+        assertTrue(f.isCancelled());
+    }
+
+    @Test
+    public void testFail() throws Exception {
+        MessengerImpl messenger = new MessengerImpl(Mockito.mock(co.paralleluniverse.galaxy.Messenger.class));
+        TestMessage message = new TestMessage();
+        CompletableFuture<String> f = messenger.send((short)1, message);
+
+        messenger.fail(message.requestId, new IllegalStateException("narf"));
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException xcp) {
+            assertTrue(xcp.getCause() instanceof IllegalStateException);
+        }
+        assertFalse(MessengerImpl.isInProgress(message.requestId));
+    }
+
+    private static class TestMessage extends BaseMessage {
+        @Override
+        String getTopic() {
+            return "test";
+        }
+
+        @Override
+        byte getMessageType() {
+            return 0;
+        }
+
+        @Override
+        void toBytes(Out out) {}
+
+        @Override
+        void send(co.paralleluniverse.galaxy.Messenger messenger, short nodeId) {}
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PostingListTest {
+    @Test
+    public void testWithAndWithout() {
+        List<GUID> guids = new ArrayList<>();
+        PostingList list = PostingList.inline(Collections.emptyList());
+        for (int i = 0; i < 10; i++) {
+            GUID guid = GUID.randomGUID();
+            guids.add(guid);
+            PostingList newList = list.with(guid);
+            // lists never change
+            assertEquals(i, list.getNumGuids());
+            list = newList;
+        }
+        Collections.sort(guids);
+        assertEquals(guids, list.getGuids());
+
+        // adding the same GUID again doesn't do anything
+        assertSame(list, list.with(guids.get(3)));
+        assertSame(list, list.without(GUID.randomGUID()));
+
+        PostingList shorterList = list.without(guids.get(3));
+        assertEquals(9, shorterList.getNumGuids());
+        assertFalse(shorterList.getGuids().contains(guids.get(3)));
+        assertTrue(list.getGuids().contains(guids.get(3)));
+        assertTrue(shorterList.size() < list.size());
+    }
+
+    @Test
+    public void testFull() {
+        List<GUID> guids = new ArrayList<>();
+        for (int i = 0; i < PostingList.MAX_INLINE_GUIDS - 1; i++) {
+            guids.add(GUID.randomGUID());
+        }
+        PostingList list = PostingList.inline(guids);
+        assertFalse(list.isFull());
+        assertTrue(list.with(GUID.randomGUID()).isFull());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSpilledListsDontTakeGuids() {
+        PostingList list = PostingList.spilled(123L);
+        assertTrue(list.isSpilled());
+        list.with(GUID.randomGUID());
+    }
+}
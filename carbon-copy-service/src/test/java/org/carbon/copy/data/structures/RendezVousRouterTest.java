@@ -0,0 +1,69 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RendezVousRouterTest {
+    @Test
+    public void testRoutingDoesntDependOnOrderOfNodes() {
+        RendezVousRouter r1 = new RendezVousRouter(ImmutableSet.of((short)1, (short)45, (short)123));
+        RendezVousRouter r2 = new RendezVousRouter(ImmutableSet.of((short)123, (short)1, (short)45));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(r1.route(i), r2.route(i));
+            assertEquals(r1.route("key_" + i), r2.route("key_" + i));
+        }
+    }
+
+    @Test
+    public void testKeysAreSpreadOverAllNodes() {
+        RendezVousRouter r = new RendezVousRouter(ImmutableSet.of((short)1, (short)45, (short)123));
+        Map<Short, Integer> counts = new HashMap<>();
+        int numKeys = 30000;
+        for (int i = 0; i < numKeys; i++) {
+            counts.merge(r.route(UUID.randomUUID()), 1, Integer::sum);
+        }
+
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(Math.abs(count - numKeys / 3) < numKeys / 30);
+        }
+    }
+
+    @Test
+    public void testOnlyKeysOfRemovedNodeMove() {
+        RendezVousRouter before = new RendezVousRouter(ImmutableSet.of((short)1, (short)45, (short)123));
+        RendezVousRouter after = new RendezVousRouter(ImmutableSet.of((short)1, (short)123));
+        for (int i = 0; i < 10000; i++) {
+            short nodeId = before.route(i);
+            if (nodeId != 45) {
+                assertEquals(nodeId, after.route(i));
+            }
+        }
+    }
+
+}
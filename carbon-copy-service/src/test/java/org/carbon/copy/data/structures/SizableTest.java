@@ -0,0 +1,122 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class SizableTest {
+
+    @Test
+    public void testNumbers() {
+        assertExactSize(null);
+        assertExactSize(0);
+        assertExactSize(63);
+        assertExactSize(64);
+        assertExactSize(-64);
+        assertExactSize(-65);
+        assertExactSize(1_000_000);
+        assertExactSize(Integer.MAX_VALUE);
+        assertExactSize(Integer.MIN_VALUE);
+        assertExactSize(0L);
+        assertExactSize(-1L);
+        assertExactSize(123456789012L);
+        assertExactSize(Long.MAX_VALUE);
+        assertExactSize(Long.MIN_VALUE);
+        assertExactSize((short) 17);
+        assertExactSize((byte) 17);
+        assertExactSize(true);
+        assertExactSize('x');
+        assertExactSize(3.14d);
+        assertExactSize(3.14f);
+    }
+
+    @Test
+    public void testStrings() {
+        assertExactSize("");
+        assertExactSize("a");
+        assertExactSize("ab");
+        assertExactSize(repeat('a', 63));
+        assertExactSize(repeat('a', 64));
+        assertExactSize(repeat('a', 10000));
+        assertExactSize("narf_\u00fc");
+        assertExactSize("\u72d0\u72f8");
+        assertExactSize(repeat('\u00fc', 100));
+    }
+
+    @Test
+    public void testUUIDs() {
+        assertExactSize(UUID.randomUUID());
+        assertExactSize(GUID.randomGUID());
+    }
+
+    @Test
+    public void testTuples() {
+        Tuple t = Tuple.builder()
+                .add(17)
+                .add("narf")
+                .add(Long.MAX_VALUE)
+                .add(null)
+                .add(UUID.randomUUID().toString())
+                .build();
+        assertExactSize(t);
+
+        t.put(1, repeat('x', 100));
+        t.put(3, 42);
+        t.put(0, null);
+        assertExactSize(t);
+
+        assertExactSize(t.subTuple(1, 3));
+        assertExactSize(new Tuple(7));
+    }
+
+    @Test
+    public void testPostingLists() {
+        assertExactSize(PostingList.inline(Collections.emptyList()));
+        assertExactSize(PostingList.inline(Arrays.asList(GUID.randomGUID(), GUID.randomGUID())));
+        assertExactSize(PostingList.spilled(123L));
+        assertExactSize(PostingList.spilled(Long.MAX_VALUE));
+    }
+
+    private static void assertExactSize(Object o) {
+        Kryo kryo = DataStructure.kryoPool.borrow();
+        try {
+            Output out = new Output(64, -1);
+            kryo.writeClassAndObject(out, o);
+            assertEquals(String.valueOf(o), out.position(), Sizable.sizeOfObject(o));
+        } finally {
+            DataStructure.kryoPool.release(kryo);
+        }
+    }
+
+    private static String repeat(char c, int times) {
+        StringBuilder sb = new StringBuilder(times);
+        for (int i = 0; i < times; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
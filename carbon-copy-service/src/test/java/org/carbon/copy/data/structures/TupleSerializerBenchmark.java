@@ -0,0 +1,115 @@
+/*
+ *
+ *  Copyright 2017 Marco Helmich
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.carbon.copy.data.structures;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how long it takes to decode a tuple.
+ * Serializers used to look up private constructors via reflection for every tuple and guid they read.
+ * The "before" numbers decode a tuple and then pay for the same reflective construction of a tuple and a guid
+ * the serializers used to do. The "after" numbers only decode.
+ * This is not part of the regular build. Remove the ignore and run it by hand.
+ */
+@Ignore("benchmark, run by hand")
+public class TupleSerializerBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(TupleSerializerBenchmark.class);
+
+    private static final int NUM_TUPLES = 100_000;
+    private static final int NUM_WARMUP_ROUNDS = 5;
+    private static final int NUM_ROUNDS = 10;
+
+    @Test
+    public void benchmarkDecode() throws Exception {
+        byte[] serializedTuples = serializeTuples();
+
+        for (int i = 0; i < NUM_WARMUP_ROUNDS; i++) {
+            decode(serializedTuples, false);
+            decode(serializedTuples, true);
+        }
+
+        long before = 0;
+        long after = 0;
+        for (int i = 0; i < NUM_ROUNDS; i++) {
+            before += decode(serializedTuples, true);
+            after += decode(serializedTuples, false);
+        }
+
+        long numDecodedTuples = (long) NUM_TUPLES * NUM_ROUNDS;
+        logger.info("before: {} ns per tuple", before / numDecodedTuples);
+        logger.info("after:  {} ns per tuple", after / numDecodedTuples);
+    }
+
+    private long decode(byte[] serializedTuples, boolean withReflection) throws Exception {
+        Kryo kryo = DataStructure.kryoPool.borrow();
+        UUID uuid = UUID.randomUUID();
+        byte[] noTypes = new byte[0];
+        try {
+            Input in = new Input(serializedTuples);
+            long start = System.nanoTime();
+            for (int i = 0; i < NUM_TUPLES; i++) {
+                Tuple t = (Tuple) kryo.readClassAndObject(in);
+                if (withReflection) {
+                    // this is what the serializers used to do for every guid and tuple
+                    Constructor<GUID> guidCtor = GUID.class.getDeclaredConstructor(UUID.class);
+                    guidCtor.setAccessible(true);
+                    guidCtor.newInstance(uuid);
+                    Constructor<Tuple> tupleCtor = Tuple.class.getDeclaredConstructor(GUID.class, int.class, byte[].class, long[].class, Comparable[].class);
+                    tupleCtor.setAccessible(true);
+                    tupleCtor.newInstance(t.getGuid(), 0, noTypes, null, null);
+                }
+            }
+            long duration = System.nanoTime() - start;
+            assertEquals(0, in.available());
+            return duration;
+        } finally {
+            DataStructure.kryoPool.release(kryo);
+        }
+    }
+
+    private byte[] serializeTuples() {
+        Kryo kryo = DataStructure.kryoPool.borrow();
+        try {
+            Output out = new Output(1024, -1);
+            for (int i = 0; i < NUM_TUPLES; i++) {
+                Tuple t = new Tuple(5);
+                t.putInt(0, i);
+                t.putLong(1, i * 31L);
+                t.putDouble(2, i / 7.0);
+                t.put(3, "name_" + i);
+                t.putBoolean(4, i % 2 == 0);
+                kryo.writeClassAndObject(out, t);
+            }
+            return out.toBytes();
+        } finally {
+            DataStructure.kryoPool.release(kryo);
+        }
+    }
+}
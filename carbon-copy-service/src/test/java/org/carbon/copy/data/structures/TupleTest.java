@@ -18,13 +18,20 @@
 
 package org.carbon.copy.data.structures;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class TupleTest {
     @Test
@@ -132,6 +139,177 @@ public class TupleTest {
         assertEquals(1, ts.get(7).get(1));
     }
 
+    @Test
+    public void testComparePrefix() {
+        Tuple prefix = newTuple(1);
+        prefix.put(0, "AAA");
+
+        Tuple t1 = newTuple(2);
+        t1.put(0, "AAA");
+        t1.put(1, 5);
+        Tuple t2 = newTuple(2);
+        t2.put(0, "AAA");
+        t2.put(1, null);
+        Tuple t3 = newTuple(2);
+        t3.put(0, "BBB");
+        t3.put(1, 1);
+        Tuple t4 = newTuple(2);
+        t4.put(0, null);
+        t4.put(1, 1);
+
+        assertEquals(0, prefix.compareToPrefixOf(t1));
+        assertEquals(0, prefix.compareToPrefixOf(t2));
+        assertTrue(prefix.compareToPrefixOf(t3) < 0);
+        // nulls sort to the back
+        assertTrue(prefix.compareToPrefixOf(t4) < 0);
+
+        // shorter tuples come first
+        assertTrue(prefix.compareTo(t1) < 0);
+        assertTrue(t1.compareTo(prefix) > 0);
+        assertFalse(prefix.equals(t1));
+    }
+
+    @Test
+    public void testConcat() {
+        Tuple t1 = newTuple(2);
+        t1.putInt(0, 17);
+        t1.put(1, "narf");
+        Tuple t2 = newTuple(2);
+        t2.put(0, null);
+        t2.putDouble(1, 3.5);
+
+        GUID guid = GUID.randomGUID();
+        Tuple t = Tuple.concat(guid, t1, t2);
+        assertEquals(guid, t.getGuid());
+        assertEquals(4, t.getTupleSize());
+        assertEquals(17, t.get(0));
+        assertEquals("narf", t.get(1));
+        assertNull(t.get(2));
+        assertEquals(3.5, t.getDouble(3), 0.0);
+
+        // concatenated tuples can't be changed
+        t.putInt(0, 18);
+        assertEquals(17, t.get(0));
+    }
+
+    @Test
+    public void testPrimitives() {
+        Tuple t = newTuple(5);
+        t.putInt(0, 17);
+        t.putLong(1, Long.MIN_VALUE);
+        t.putDouble(2, 3.14);
+        t.putBoolean(3, true);
+
+        assertEquals(17, t.getInt(0));
+        assertEquals(Long.MIN_VALUE, t.getLong(1));
+        assertEquals(3.14, t.getDouble(2), 0.0);
+        assertTrue(t.getBoolean(3));
+        assertTrue(t.isNull(4));
+        assertFalse(t.isNull(0));
+
+        // primitives come out boxed if you ask for objects
+        assertEquals(17, t.get(0));
+        assertEquals(Long.MIN_VALUE, t.get(1));
+        assertEquals(3.14, t.get(2));
+        assertEquals(true, t.get(3));
+        assertNull(t.get(4));
+
+        // ints are widened
+        assertEquals(17L, t.getLong(0));
+    }
+
+    @Test
+    public void testOverrideTypes() {
+        Tuple t = newTuple(1);
+        t.putInt(0, 17);
+        t.put(0, "narf");
+        assertEquals("narf", t.get(0));
+        t.put(0, 3.14);
+        assertEquals(3.14, t.getDouble(0), 0.0);
+        t.put(0, null);
+        assertTrue(t.isNull(0));
+    }
+
+    @Test
+    public void testBoxedAndPrimitivesAreEqual() {
+        Tuple t1 = newTuple(3);
+        t1.put(0, 17);
+        t1.put(1, 3.14);
+        t1.put(2, "narf");
+
+        Tuple t2 = newTuple(3);
+        t2.putInt(0, 17);
+        t2.putDouble(1, 3.14);
+        t2.put(2, "narf");
+
+        assertEquals(t1, t2);
+        assertEquals(t1.hashCode(), t2.hashCode());
+    }
+
+    @Test
+    public void testImmutableCopy() {
+        Tuple t = newTuple(2);
+        t.putInt(0, 17);
+        t.put(1, "narf");
+
+        Tuple copy = t.immutableCopy();
+        copy.putInt(0, 18);
+        copy.put(1, "moep");
+        assertEquals(17, copy.getInt(0));
+        assertEquals("narf", copy.get(1));
+        assertEquals(t.getGuid(), copy.getGuid());
+    }
+
+    @Test
+    public void testSubTuple() {
+        Tuple t = newTuple(4);
+        t.put(0, "narf");
+        t.putInt(1, 17);
+        t.putLong(2, 42L);
+        t.put(3, "moep");
+
+        Tuple sub = t.subTuple(3, 1);
+        assertEquals(2, sub.getTupleSize());
+        assertEquals("moep", sub.get(0));
+        assertEquals(17, sub.getInt(1));
+        assertEquals(t.getGuid(), sub.getGuid());
+    }
+
+    @Test
+    public void testSerialization() {
+        Tuple t = newTuple(8);
+        t.put(0, "narf");
+        t.putInt(1, -17);
+        t.putLong(2, Long.MAX_VALUE);
+        t.putDouble(3, -3.14);
+        t.putBoolean(4, false);
+        t.put(6, UUID.randomUUID());
+        t.put(7, "\u00fcber");
+
+        Kryo kryo = DataStructure.kryoPool.borrow();
+        try {
+            Output out = new Output(64, -1);
+            kryo.writeClassAndObject(out, t);
+            // there are no class ids for primitives and strings
+            assertEquals(Sizable.sizeOfObject(t), out.position());
+
+            Tuple t2 = (Tuple) kryo.readClassAndObject(new Input(out.toBytes()));
+            assertEquals(t.getGuid(), t2.getGuid());
+            assertEquals(t, t2);
+            assertEquals("narf", t2.get(0));
+            assertEquals(-17, t2.getInt(1));
+            assertEquals(Long.MAX_VALUE, t2.getLong(2));
+            assertEquals(-3.14, t2.getDouble(3), 0.0);
+            assertFalse(t2.getBoolean(4));
+            assertTrue(t2.isNull(5));
+            assertEquals(t.get(6), t2.get(6));
+            assertEquals("\u00fcber", t2.get(7));
+            assertEquals(t.size(), t2.size());
+        } finally {
+            DataStructure.kryoPool.release(kryo);
+        }
+    }
+
     private Tuple newTuple(int size) {
         return new Tuple(size);
     }